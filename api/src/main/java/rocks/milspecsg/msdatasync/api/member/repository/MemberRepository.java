@@ -23,7 +23,10 @@ import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msrepository.api.repository.Repository;
 
 import java.time.Instant;
+import java.util.Collection;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -49,16 +52,61 @@ public interface MemberRepository<
 
     CompletableFuture<Optional<TKey>> getIdForUser(UUID userUUID);
 
+    /**
+     * @return Name of the server that currently holds this user, see {@link Member#getOnlineServer()}
+     */
+    CompletableFuture<Optional<String>> getOnlineServerForUser(UUID userUUID);
+
+    /**
+     * Marks {@code server} as the server that holds this user, creating the member if there is none yet
+     *
+     * @return Whether the member was updated
+     */
+    CompletableFuture<Boolean> claimOnlineServerForUser(UUID userUUID, String server);
+
+    /**
+     * Clears the server that holds this user, but only if it is still {@code server}
+     *
+     * @return Whether the member was updated
+     */
+    CompletableFuture<Boolean> releaseOnlineServerForUser(UUID userUUID, String server);
+
     CompletableFuture<Optional<UUID>> getUUID(TKey id);
 
     CompletableFuture<List<TKey>> getSnapshotIds(TKey id);
 
+    /**
+     * Iterates over every member together with its snapshot ids, ordered by id.
+     * Members are loaded in pages of {@code batchSize}, so only one page is held in memory at a time.
+     * The iterator blocks while it loads a page and must not be shared between threads
+     *
+     * @param after Only members with an id greater than this are returned
+     */
+    Iterator<TMember> iterateMembers(Optional<TKey> after, int batchSize);
+
+    CompletableFuture<Long> countMembers();
+
+    /**
+     * @return The member id whose {@code toString()} is {@code id}, or empty if it is not a valid id for this datastore
+     */
+    Optional<TKey> parseMemberId(String id);
+
     CompletableFuture<List<TKey>> getSnapshotIdsForUser(UUID userUUID);
 
     CompletableFuture<List<Instant>> getSnapshotCreationTimes(TKey id);
 
     CompletableFuture<List<Instant>> getSnapshotCreationTimesForUser(UUID userUUID);
 
+    /**
+     * @return Snapshot ids of this member mapped to their creation time, ordered by creation time (oldest first)
+     */
+    CompletableFuture<Map<TKey, Instant>> getSnapshotCreationTimeMap(TKey id);
+
+    /**
+     * @return Snapshot ids of this user mapped to their creation time, ordered by creation time (oldest first)
+     */
+    CompletableFuture<Map<TKey, Instant>> getSnapshotCreationTimeMapForUser(UUID userUUID);
+
     CompletableFuture<Boolean> deleteSnapshot(TKey id, TKey snapshotId);
 
     CompletableFuture<Boolean> deleteSnapshot(TKey id, Instant createdUtc);
@@ -67,8 +115,38 @@ public interface MemberRepository<
 
     CompletableFuture<Boolean> deleteSnapshotForUser(UUID userUUID, Instant createdUtc);
 
+    /**
+     * Deletes many snapshots of this member in one operation. Ids of snapshots that do not belong to this member are ignored
+     *
+     * @return The ids of the snapshots that were deleted
+     */
+    CompletableFuture<List<TKey>> deleteSnapshots(TKey id, Collection<TKey> snapshotIds);
+
+    /**
+     * Deletes many snapshots of this user in one operation. Ids of snapshots that do not belong to this user are ignored
+     *
+     * @return The ids of the snapshots that were deleted
+     */
+    CompletableFuture<List<TKey>> deleteSnapshotsForUser(UUID userUUID, Collection<TKey> snapshotIds);
+
     CompletableFuture<Boolean> addSnapshot(TKey id, TKey snapshotId);
 
+    /**
+     * Inserts a new snapshot and adds it to this user, creating the member if there is none yet.
+     * The snapshot is removed again if it could not be added to the user
+     *
+     * @return The inserted snapshot, or empty if it could not be saved
+     */
+    CompletableFuture<Optional<TSnapshot>> insertSnapshotForUser(UUID userUUID, TSnapshot snapshot);
+
+    /**
+     * Writes every snapshot still waiting to be inserted and stops the thread that writes them.
+     * Snapshots inserted afterwards are written on the calling thread. Call once when the server stops
+     *
+     * @param timeoutMillis How long to wait for a write that is already in progress
+     */
+    void stopSnapshotWriter(long timeoutMillis);
+
     CompletableFuture<Boolean> addSnapshotForUser(UUID userUUID, TKey snapshotId);
 
     CompletableFuture<Optional<TSnapshot>> getSnapshot(TKey id, Instant createdUtc);
@@ -79,6 +157,20 @@ public interface MemberRepository<
 
     CompletableFuture<Optional<TSnapshot>> getSnapshotForUser(UUID userUUID, Optional<String> optionalString);
 
+    /**
+     * Like {@link #getSnapshotForUser(UUID, Optional)} but only loads the snapshot's metadata
+     *
+     * @see rocks.milspecsg.msdatasync.api.snapshot.repository.SnapshotRepository#getMetadata(Object)
+     */
+    CompletableFuture<Optional<TSnapshot>> getSnapshotMetadataForUser(UUID userUUID, Optional<String> optionalString);
+
+    /**
+     * Like {@link #getSnapshotForUser(UUID, Optional)} but only loads the snapshot's item stacks
+     *
+     * @see rocks.milspecsg.msdatasync.api.snapshot.repository.SnapshotRepository#getItemStacksOnly(Object)
+     */
+    CompletableFuture<Optional<TSnapshot>> getSnapshotItemStacksOnlyForUser(UUID userUUID, Optional<String> optionalString);
+
     CompletableFuture<List<TKey>> getClosestSnapshots(TKey id, Instant createdUtc);
 
     CompletableFuture<List<TKey>> getClosestSnapshotsForUser(UUID userUUID, Instant createdUtc);
@@ -93,9 +185,19 @@ public interface MemberRepository<
 
     CompletableFuture<Optional<TSnapshot>> getPreviousForUser(UUID userUUID, Instant createdUtc);
 
+    /**
+     * @return The metadata of the snapshot before the one created at {@code createdUtc}
+     */
+    CompletableFuture<Optional<TSnapshot>> getPreviousMetadataForUser(UUID userUUID, Instant createdUtc);
+
     CompletableFuture<Optional<TSnapshot>> getNext(TKey id, TKey snapshotId);
 
     CompletableFuture<Optional<TSnapshot>> getNextForUser(UUID userUUID, TKey snapshotId);
 
     CompletableFuture<Optional<TSnapshot>> getNextForUser(UUID userUUID, Instant createdUtc);
+
+    /**
+     * @return The metadata of the snapshot after the one created at {@code createdUtc}
+     */
+    CompletableFuture<Optional<TSnapshot>> getNextMetadataForUser(UUID userUUID, Instant createdUtc);
 }
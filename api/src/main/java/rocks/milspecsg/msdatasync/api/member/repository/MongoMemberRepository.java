@@ -26,7 +26,9 @@ import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msrepository.api.repository.MongoRepository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -42,10 +44,14 @@ public interface MongoMemberRepository<
 
     CompletableFuture<List<Instant>> getSnapshotCreationTimes(Query<TMember> query);
 
+    CompletableFuture<Map<ObjectId, Instant>> getSnapshotCreationTimeMap(Query<TMember> query);
+
     CompletableFuture<Boolean> deleteSnapshot(Query<TMember> query, ObjectId snapshotId);
 
     CompletableFuture<Boolean> deleteSnapshot(Query<TMember> query, Instant createdUtc);
 
+    CompletableFuture<List<ObjectId>> deleteSnapshots(Query<TMember> query, Collection<ObjectId> snapshotIds);
+
     CompletableFuture<Boolean> addSnapshot(Query<TMember> query, ObjectId snapshotId);
 
     CompletableFuture<Optional<TSnapshot>> getSnapshot(Query<TMember> query, Instant createdUtc);
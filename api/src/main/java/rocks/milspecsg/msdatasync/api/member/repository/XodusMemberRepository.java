@@ -28,7 +28,9 @@ import rocks.milspecsg.msrepository.api.model.Mappable;
 import rocks.milspecsg.msrepository.api.repository.XodusRepository;
 
 import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
@@ -45,10 +47,14 @@ public interface XodusMemberRepository<
 
     CompletableFuture<List<Instant>> getSnapshotCreationTimes(Function<? super StoreTransaction, ? extends Iterable<Entity>> query);
 
+    CompletableFuture<Map<EntityId, Instant>> getSnapshotCreationTimeMap(Function<? super StoreTransaction, ? extends Iterable<Entity>> query);
+
     CompletableFuture<Boolean> deleteSnapshot(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, EntityId snapshotId);
 
     CompletableFuture<Boolean> deleteSnapshot(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, Instant createdUtc);
 
+    CompletableFuture<List<EntityId>> deleteSnapshots(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, Collection<EntityId> snapshotIds);
+
     CompletableFuture<Boolean> addSnapshot(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, EntityId snapshotId);
 
     CompletableFuture<Optional<TSnapshot>> getSnapshot(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, Instant createdUtc);
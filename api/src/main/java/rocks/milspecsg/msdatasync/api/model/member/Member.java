@@ -30,4 +30,11 @@ public interface Member<TKey> extends ObjectWithId<TKey> {
 
     List<TKey> getSnapshotIds();
     void setSnapshotIds(List<TKey> snapshotIds);
+
+    /**
+     * @return Name of the server that currently holds this member, or null if none does.
+     * A server holds a member from the moment their data is loaded until their last snapshot on that server has been written
+     */
+    String getOnlineServer();
+    void setOnlineServer(String onlineServer);
 }
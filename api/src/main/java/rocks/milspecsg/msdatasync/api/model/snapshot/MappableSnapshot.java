@@ -21,4 +21,10 @@ package rocks.milspecsg.msdatasync.api.model.snapshot;
 import rocks.milspecsg.msrepository.api.model.Mappable;
 
 public interface MappableSnapshot<TKey, T> extends Snapshot<TKey>, Mappable<T> {
+
+    /**
+     * Like {@link #readFrom(Object)} but only reads the name, server, creation times and modules of the snapshot.
+     * Keys and item stacks are left empty and are not overwritten when the snapshot is written back, unless they were set since.
+     */
+    void readMetadataFrom(T object);
 }
@@ -43,4 +43,25 @@ public interface Snapshot<TKey> extends ObjectWithId<TKey> {
 
     List<SerializedItemStack> getItemStacks();
     void setItemStacks(List<SerializedItemStack> itemStacks);
+
+    /**
+     * @return The id of the snapshot this snapshot only stores the differences to,
+     * or {@code null} if this snapshot is a keyframe that holds the full state
+     */
+    TKey getParentId();
+    void setParentId(TKey parentId);
+
+    /**
+     * @return The inventory slot of each entry in {@link #getItemStacks()} if this snapshot only stores changed slots.
+     * Empty if {@link #getItemStacks()} holds every slot
+     */
+    List<Integer> getItemStackSlots();
+    void setItemStackSlots(List<Integer> itemStackSlots);
+
+    /**
+     * @return The version of the format the keys and item stacks of this snapshot were written in.
+     * 0 for snapshots written before the version was recorded
+     */
+    int getSchemaVersion();
+    void setSchemaVersion(int schemaVersion);
 }
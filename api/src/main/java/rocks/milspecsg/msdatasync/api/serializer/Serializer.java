@@ -20,6 +20,8 @@ package rocks.milspecsg.msdatasync.api.serializer;
 
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 
+import java.util.function.BooleanSupplier;
+
 public interface Serializer<
     TSnapshot extends Snapshot<?>,
     TUser> {
@@ -40,6 +42,24 @@ public interface Serializer<
      */
     boolean serialize(TSnapshot snapshot, TUser user);
 
+    /**
+     * Takes what is needed from {@code user} and leaves converting it for later.
+     * This is called on the thread that owns {@code user}, the returned step may run on any thread
+     *
+     * <p>
+     * The default implementation serializes right away. Serializers with expensive conversions
+     * should only copy the raw state here.
+     * </p>
+     *
+     * @param snapshot {@link Snapshot} to add data to
+     * @param user     User to get data from
+     * @return Step that moves the captured data into {@code snapshot} and returns whether that was successful
+     */
+    default BooleanSupplier capture(TSnapshot snapshot, TUser user) {
+        boolean success = serialize(snapshot, user);
+        return () -> success;
+    }
+
     /**
      * Moves data from {@code member} into {@code player}
      *
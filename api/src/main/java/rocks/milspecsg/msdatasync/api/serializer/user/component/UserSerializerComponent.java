@@ -23,6 +23,7 @@ import rocks.milspecsg.msdatasync.api.serializer.Serializer;
 import rocks.milspecsg.msrepository.api.component.Component;
 
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 
 public interface UserSerializerComponent<
@@ -35,7 +36,54 @@ public interface UserSerializerComponent<
 
     CompletableFuture<Optional<TSnapshot>> serialize(TUser user, String name);
 
+    /**
+     * Same as {@link #serialize(Object, String)} but skips the upload if the data of {@code user}
+     * did not change since the last snapshot this server uploaded or restored for them
+     *
+     * @return The uploaded snapshot, or empty if nothing changed or the upload failed. Failed uploads are logged
+     */
+    CompletableFuture<Optional<TSnapshot>> serializeIfChanged(TUser user, String name);
+
     CompletableFuture<Optional<TSnapshot>> deserialize(TUser user, Object plugin, TSnapshot snapshot);
 
     CompletableFuture<Optional<TSnapshot>> deserialize(TUser user, Object plugin);
+
+    /**
+     * Starts loading the latest snapshot of a user that is still connecting, so that
+     * {@link #deserialize(Object, Object)} only has to apply it once they have joined.
+     * Prefetched snapshots that are not picked up within a short time are discarded
+     *
+     * @param userUUID {@link UUID} of the connecting user
+     */
+    void prefetch(UUID userUUID);
+
+    /**
+     * Drops the snapshot prefetched for a user that will not join or has left, for example because their login was cancelled
+     *
+     * @param userUUID {@link UUID} of the user
+     */
+    void discardPrefetched(UUID userUUID);
+
+    /**
+     * Call before uploading the last snapshot of a user that is leaving this server.
+     * Does nothing unless waiting for snapshots on join is enabled
+     *
+     * @param userUUID {@link UUID} of the leaving user
+     */
+    void beginHandoff(UUID userUUID);
+
+    /**
+     * Lets other servers load the data of a user that left this server.
+     * Call once their last snapshot has been written, or right away if there is none to write
+     *
+     * @param userUUID {@link UUID} of the leaving user
+     */
+    CompletableFuture<Void> completeHandoff(UUID userUUID);
+
+    /**
+     * Writes everything this component still has queued. Call once when the server stops
+     *
+     * @param timeoutMillis How long to wait for writes that are already in progress
+     */
+    void stop(long timeoutMillis);
 }
@@ -22,6 +22,7 @@ import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemSt
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msrepository.api.repository.Repository;
 
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
@@ -37,7 +38,96 @@ public interface SnapshotRepository<
 
     Optional<?> getSnapshotValue(TSnapshot snapshot, TDataKey key);
 
+    /**
+     * Loads the name, server, creation times and modules of a snapshot without its keys and item stacks.
+     * Use this for code that only displays information about a snapshot.
+     */
+    CompletableFuture<Optional<TSnapshot>> getMetadata(TKey id);
+
+    /**
+     * Loads a snapshot with its item stacks but without its keys and modules.
+     * Use this for code that only works with the inventory of a snapshot.
+     */
+    CompletableFuture<Optional<TSnapshot>> getItemStacksOnly(TKey id);
+
+    /**
+     * Rebuilds the full state of a delta snapshot from its chain of parents, resolves item stack references
+     * and upgrades data written in an older schema version.
+     *
+     * @return {@code snapshot} itself, filled in with the full keys and item stacks and without a parent
+     */
+    CompletableFuture<TSnapshot> materialize(TSnapshot snapshot);
+
+    /**
+     * @return The number of deltas between this snapshot and its keyframe, 0 if this snapshot is a keyframe
+     */
+    CompletableFuture<Integer> getDeltaDepth(TKey id);
+
+    /**
+     * Folds this snapshot into every delta snapshot that has it as its parent so that they stay restorable
+     * once it is deleted. Must be called before deleting a snapshot
+     */
+    CompletableFuture<Boolean> detachChildren(TKey id);
+
+    /**
+     * Rewrites every stored snapshot that is older than the current schema version in the current version.
+     * Snapshots that reference shared item stacks are skipped, they are still upgraded whenever they are read
+     *
+     * @return The number of snapshots that were rewritten
+     */
+    CompletableFuture<Integer> reEncodeOutdatedSnapshots();
+
+    /**
+     * Estimates the space the given snapshots take up in the data store without loading them
+     *
+     * @return The estimated size in bytes
+     */
+    CompletableFuture<Long> estimateStoredSize(Collection<TKey> ids);
+
+    /**
+     * Detaches the children of many snapshots and drops their item stack references in one batch.
+     * Must be called before deleting these snapshots without {@link #detachChildren(Object)} and {@link #releaseItemStacks(Object)}
+     *
+     * @param ids Snapshots to release, oldest first
+     * @return The ids of the snapshots that can be deleted, oldest first
+     */
+    CompletableFuture<List<TKey>> releaseSnapshots(Collection<TKey> ids);
+
+    /**
+     * Moves the item stacks of a snapshot that has not been saved yet into the shared item stack store,
+     * leaving references to them in the snapshot. {@link #materialize(Snapshot)} resolves them again
+     */
+    CompletableFuture<Void> internItemStacks(TSnapshot snapshot);
+
+    /**
+     * Drops the references that {@link #internItemStacks(Snapshot)} counted for a snapshot that could not be saved
+     */
+    CompletableFuture<Void> releaseInternedItemStacks(TSnapshot snapshot);
+
+    /**
+     * Drops the references a snapshot holds in the shared item stack store. Must be called before deleting a snapshot
+     */
+    CompletableFuture<Boolean> releaseItemStacks(TKey id);
+
+    /**
+     * Replaces the item stacks of a snapshot with the full list of slots
+     */
     CompletableFuture<Boolean> setItemStacks(TKey id, List<SerializedItemStack> itemStacks);
 
     CompletableFuture<Boolean> parseAndSetItemStacks(Object id, List<SerializedItemStack> itemStacks);
+
+    /**
+     * @param level Deflate level from 1 to 9 that new snapshots of this data store are compressed with, 0 disables compression
+     */
+    void setCompressionLevel(int level);
+
+    boolean isCompressionEnabled();
+
+    /**
+     * Loads the compression dictionaries stored in this data store so that compressed snapshots can be read.
+     *
+     * @param train Whether new snapshots should be compressed with a dictionary. If there is no dictionary yet,
+     *              one is trained from existing snapshots and stored first
+     */
+    CompletableFuture<Void> loadCompressionDictionaries(boolean train);
 }
@@ -52,4 +52,9 @@ public interface SnapshotOptimizationManager<
     CompletableFuture<TString> info();
 
     CompletableFuture<TString> stop();
+
+    /**
+     * @param sampleSize The number of members to plan, 0 to plan every member
+     */
+    CompletableFuture<TString> dryRun(int sampleSize);
 }
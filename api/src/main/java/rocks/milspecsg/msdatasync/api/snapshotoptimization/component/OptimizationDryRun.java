@@ -0,0 +1,46 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.api.snapshotoptimization.component;
+
+/**
+ * What an optimization pass would do with the current strategy, worked out without changing anything.
+ * Tiers are numbered in the order of the strategy, tier {@link #getTierCount()} holds the snapshots older than every tier
+ */
+public interface OptimizationDryRun {
+
+    int getTierCount();
+
+    /**
+     * @return The tier as written in the strategy, for example {@code 60:24}
+     */
+    String getTierName(int tier);
+
+    long getKept(int tier);
+
+    long getDeleted(int tier);
+
+    int getMembersPlanned();
+
+    int getTotalMembers();
+
+    /**
+     * @return An estimate of the space the deleted snapshots take up in the data store
+     */
+    long getEstimatedBytesReclaimed();
+}
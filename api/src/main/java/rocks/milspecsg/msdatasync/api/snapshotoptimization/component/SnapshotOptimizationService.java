@@ -21,7 +21,9 @@ package rocks.milspecsg.msdatasync.api.snapshotoptimization.component;
 import rocks.milspecsg.msrepository.api.component.Component;
 
 import java.util.Collection;
+import java.util.Optional;
 import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
 
 public interface SnapshotOptimizationService<
     TKey,
@@ -49,4 +51,13 @@ public interface SnapshotOptimizationService<
     boolean optimize(final Collection<? extends TUser> users, final TCommandSource source, final String name, final Object plugin);
 
     boolean optimize(final TCommandSource source, final Object plugin);
+
+    /**
+     * Plans an optimization pass without uploading or deleting anything. Only snapshot ids, creation times
+     * and stored sizes are read
+     *
+     * @param sampleSize The number of members to plan, spread over the whole data store. 0 to plan every member
+     * @return Empty if the optimization strategy is invalid
+     */
+    CompletableFuture<Optional<OptimizationDryRun>> dryRun(final int sampleSize);
 }
@@ -25,9 +25,21 @@ public class MSDataSyncConfigurationService extends CommonConfigurationService {
         nodeNameMap.put(MSDataSyncKeys.SERIALIZE_ON_DEATH, "serialize.serializeOnDeath");
         nodeNameMap.put(MSDataSyncKeys.SERIALIZE_ON_DISCONNECT, "serialize.serializeOnDisconnect");
         nodeNameMap.put(MSDataSyncKeys.SERIALIZE_WAIT_FOR_SNAPSHOT_ON_JOIN, "serialize.waitForSnapshotOnJoin");
+        nodeNameMap.put(MSDataSyncKeys.SERIALIZE_WAIT_FOR_SNAPSHOT_TIMEOUT_SECONDS, "serialize.waitForSnapshotTimeout");
+        nodeNameMap.put(MSDataSyncKeys.SERIALIZE_WORKER_THREADS, "serialize.workerThreads");
+        nodeNameMap.put(MSDataSyncKeys.SERIALIZE_ITEM_STACK_FORMAT, "serialize.itemStackFormat");
         nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_MIN_COUNT, "snapshot.minCount");
         nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_OPTIMIZATION_STRATEGY, "snapshot.optimizationStrategy");
+        nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_OPTIMIZATION_THREADS, "snapshot.optimizationThreads");
+        nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_CREATION_TIME_CACHE_SIZE, "snapshot.creationTimeCacheSize");
         nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_UPLOAD_INTERVAL_MINUTES, "snapshot.uploadInterval");
+        nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_COMPRESSION_LEVEL, "snapshot.compression.level");
+        nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_COMPRESSION_DICTIONARY, "snapshot.compression.dictionary");
+        nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_KEYFRAME_INTERVAL, "snapshot.keyframeInterval");
+        nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_DEDUPLICATE_ITEM_STACKS, "snapshot.deduplicateItemStacks");
+        nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_WRITE_BEHIND_MILLIS, "snapshot.writeBehindMillis");
+        nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_SKIP_UNCHANGED, "snapshot.skipUnchanged");
+        nodeNameMap.put(MSDataSyncKeys.SNAPSHOT_UPGRADE_IN_BACKGROUND, "snapshot.upgradeInBackground");
         nodeNameMap.put(MSDataSyncKeys.SERVER_NAME, "serverName");
     }
 
@@ -43,7 +55,21 @@ public class MSDataSyncConfigurationService extends CommonConfigurationService {
         nodeDescriptionMap.put(MSDataSyncKeys.SERIALIZE_ON_DISCONNECT, "\nWhether MSDataSync should serialize players to DB on disconnect");
         nodeDescriptionMap.put(MSDataSyncKeys.SERIALIZE_WAIT_FOR_SNAPSHOT_ON_JOIN,
             "\nWhether MSDataSync should wait for snapshots to be uploaded before downloading them.\n" +
-                "Note: this option is highly recommended if you are running a multi-server environment like Velocity"
+                "The server a player leaves marks when their last snapshot has been written, the server they join waits only until then.\n" +
+                "Note: this option is highly recommended if you are running a multi-server environment like Velocity. Every server needs a unique serverName"
+        );
+        nodeDescriptionMap.put(MSDataSyncKeys.SERIALIZE_WAIT_FOR_SNAPSHOT_TIMEOUT_SECONDS,
+            "\nHow long (in seconds) to wait at most for another server to upload a joining player's snapshot.\n" +
+                "Only used if waitForSnapshotOnJoin is enabled. Covers servers that crashed while the player was online"
+        );
+        nodeDescriptionMap.put(MSDataSyncKeys.SERIALIZE_WORKER_THREADS,
+            "\nNumber of threads that convert and upload player data after it was taken from the server thread. Min 1.\n" +
+                "Note: changes to this option require a restart"
+        );
+        nodeDescriptionMap.put(MSDataSyncKeys.SERIALIZE_ITEM_STACK_FORMAT,
+            "\nHow item stacks are stored in snapshots. Available: map, binary\n" +
+                "map stores every item property as its own field, binary stores each item as a compact blob that is faster to write and read.\n" +
+                "Note: snapshots saved in either format can always be read"
         );
         nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_MIN_COUNT, "\nMinimum number of snapshots to keep before deleting any");
         nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_OPTIMIZATION_STRATEGY,
@@ -57,7 +83,37 @@ public class MSDataSyncConfigurationService extends CommonConfigurationService {
                 "\t3) keep one snapshot per day (not including first day) for 7 days\n" +
                 "\t4) delete all snapshots older than 7 days (keeping a minimum of minCount)"
         );
+        nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_OPTIMIZATION_THREADS, "\nNumber of members that manual optimization works on at the same time. Min 1");
+        nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_CREATION_TIME_CACHE_SIZE, "\nMaximum number of snapshot creation times the optimizer keeps in memory. Min 1");
         nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_UPLOAD_INTERVAL_MINUTES, "\nInterval for automatic serialization task. Set to 0 to disable, min 1, max 60. Recommended range 3-15");
+        nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_COMPRESSION_LEVEL,
+            "\nCompression level for snapshot data. Set to 0 to disable, min 1 (fastest), max 9 (smallest). Recommended 6\n" +
+                "Note: snapshots that were saved compressed can still be read after disabling compression"
+        );
+        nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_COMPRESSION_DICTIONARY,
+            "\nWhether MSDataSync should train a compression dictionary from existing snapshots.\n" +
+                "Only used if compression is enabled. The dictionary is stored in the database and shared by all servers using it"
+        );
+        nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_KEYFRAME_INTERVAL,
+            "\nHow often a snapshot stores the full player data. Snapshots in between only store what changed since the previous one.\n" +
+                "Set to 1 to store the full data in every snapshot. Recommended range 5-20"
+        );
+        nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_DEDUPLICATE_ITEM_STACKS,
+            "\nWhether MSDataSync should store each distinct item stack only once and let snapshots reference it.\n" +
+                "Note: snapshots that reference stored item stacks can still be read after disabling this"
+        );
+        nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_WRITE_BEHIND_MILLIS,
+            "\nHow long (in milliseconds) MSDataSync should collect snapshot saves before writing them together.\n" +
+                "Set to 0 to write every snapshot on its own. Recommended range 20-200 for servers with many players online during auto-saves"
+        );
+        nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_SKIP_UNCHANGED,
+            "\nWhether interval uploads (automatic and during optimization) should skip players whose data did not change since their last upload.\n" +
+                "Note: players are always uploaded on death and disconnect"
+        );
+        nodeDescriptionMap.put(MSDataSyncKeys.SNAPSHOT_UPGRADE_IN_BACKGROUND,
+            "\nWhether MSDataSync should rewrite snapshots saved by older versions in the current format after startup.\n" +
+                "Old snapshots are always upgraded when they are read, this only saves doing so every time"
+        );
         nodeDescriptionMap.put(MSDataSyncKeys.SERVER_NAME, "\nName of server. This value is attached with every snapshot made on this server");
     }
 }
@@ -26,12 +26,36 @@ public final class MSDataSyncKeys {
     };
     public static final Key<Boolean> SERIALIZE_WAIT_FOR_SNAPSHOT_ON_JOIN = new Key<Boolean>("SERIALIZE_WAIT_FOR_SNAPSHOT_ON_JOIN", false) {
     };
+    public static final Key<Integer> SERIALIZE_WAIT_FOR_SNAPSHOT_TIMEOUT_SECONDS = new Key<Integer>("SERIALIZE_WAIT_FOR_SNAPSHOT_TIMEOUT_SECONDS", 10) {
+    };
+    public static final Key<Integer> SERIALIZE_WORKER_THREADS = new Key<Integer>("SERIALIZE_WORKER_THREADS", 2) {
+    };
+    public static final Key<String> SERIALIZE_ITEM_STACK_FORMAT = new Key<String>("SERIALIZE_ITEM_STACK_FORMAT", "map") {
+    };
     public static final Key<Integer> SNAPSHOT_MIN_COUNT = new Key<Integer>("SNAPSHOT_MIN_COUNT", 5) {
     };
     public static final Key<List<String>> SNAPSHOT_OPTIMIZATION_STRATEGY = new Key<List<String>>("SNAPSHOT_OPTIMIZATION_STRATEGY", Arrays.asList("60:24", "1440:7")) {
     };
+    public static final Key<Integer> SNAPSHOT_OPTIMIZATION_THREADS = new Key<Integer>("SNAPSHOT_OPTIMIZATION_THREADS", 4) {
+    };
+    public static final Key<Integer> SNAPSHOT_CREATION_TIME_CACHE_SIZE = new Key<Integer>("SNAPSHOT_CREATION_TIME_CACHE_SIZE", 100000) {
+    };
     public static final Key<Integer> SNAPSHOT_UPLOAD_INTERVAL_MINUTES = new Key<Integer>("SNAPSHOT_UPLOAD_INTERVAL", 5) {
     };
+    public static final Key<Integer> SNAPSHOT_COMPRESSION_LEVEL = new Key<Integer>("SNAPSHOT_COMPRESSION_LEVEL", 0) {
+    };
+    public static final Key<Boolean> SNAPSHOT_COMPRESSION_DICTIONARY = new Key<Boolean>("SNAPSHOT_COMPRESSION_DICTIONARY", true) {
+    };
+    public static final Key<Integer> SNAPSHOT_KEYFRAME_INTERVAL = new Key<Integer>("SNAPSHOT_KEYFRAME_INTERVAL", 1) {
+    };
+    public static final Key<Boolean> SNAPSHOT_DEDUPLICATE_ITEM_STACKS = new Key<Boolean>("SNAPSHOT_DEDUPLICATE_ITEM_STACKS", true) {
+    };
+    public static final Key<Integer> SNAPSHOT_WRITE_BEHIND_MILLIS = new Key<Integer>("SNAPSHOT_WRITE_BEHIND_MILLIS", 0) {
+    };
+    public static final Key<Boolean> SNAPSHOT_SKIP_UNCHANGED = new Key<Boolean>("SNAPSHOT_SKIP_UNCHANGED", true) {
+    };
+    public static final Key<Boolean> SNAPSHOT_UPGRADE_IN_BACKGROUND = new Key<Boolean>("SNAPSHOT_UPGRADE_IN_BACKGROUND", false) {
+    };
     public static final Key<String> SERVER_NAME = new Key<String>("SERVER_NAME", "server") {
     };
     public static final Key<String> LOCK_COMMAND_PERMISSION = new Key<String>("LOCK_COMMAND_PERMISSION", "msdatasync.lock") {
@@ -54,6 +78,8 @@ public final class MSDataSyncKeys {
     };
     public static final Key<String> MANUAL_OPTIMIZATION_BASE_PERMISSION = new Key<String>("MANUAL_OPTIMIZATION_BASE_PERMISSION", "msdatasync.optimize.base") {
     };
+    public static final Key<String> STATS_COMMAND_PERMISSION = new Key<String>("STATS_COMMAND_PERMISSION", "msdatasync.stats") {
+    };
 
     static {
         Keys.registerKey(SERIALIZE_ENABLED_SERIALIZERS);
@@ -61,9 +87,21 @@ public final class MSDataSyncKeys {
         Keys.registerKey(SERIALIZE_ON_DEATH);
         Keys.registerKey(SERIALIZE_ON_DISCONNECT);
         Keys.registerKey(SERIALIZE_WAIT_FOR_SNAPSHOT_ON_JOIN);
+        Keys.registerKey(SERIALIZE_WAIT_FOR_SNAPSHOT_TIMEOUT_SECONDS);
+        Keys.registerKey(SERIALIZE_WORKER_THREADS);
+        Keys.registerKey(SERIALIZE_ITEM_STACK_FORMAT);
         Keys.registerKey(SNAPSHOT_MIN_COUNT);
         Keys.registerKey(SNAPSHOT_OPTIMIZATION_STRATEGY);
+        Keys.registerKey(SNAPSHOT_OPTIMIZATION_THREADS);
+        Keys.registerKey(SNAPSHOT_CREATION_TIME_CACHE_SIZE);
         Keys.registerKey(SNAPSHOT_UPLOAD_INTERVAL_MINUTES);
+        Keys.registerKey(SNAPSHOT_COMPRESSION_LEVEL);
+        Keys.registerKey(SNAPSHOT_COMPRESSION_DICTIONARY);
+        Keys.registerKey(SNAPSHOT_KEYFRAME_INTERVAL);
+        Keys.registerKey(SNAPSHOT_DEDUPLICATE_ITEM_STACKS);
+        Keys.registerKey(SNAPSHOT_WRITE_BEHIND_MILLIS);
+        Keys.registerKey(SNAPSHOT_SKIP_UNCHANGED);
+        Keys.registerKey(SNAPSHOT_UPGRADE_IN_BACKGROUND);
         Keys.registerKey(SERVER_NAME);
         Keys.registerKey(LOCK_COMMAND_PERMISSION);
         Keys.registerKey(RELOAD_COMMAND_PERMISSION);
@@ -75,5 +113,6 @@ public final class MSDataSyncKeys {
         Keys.registerKey(SNAPSHOT_VIEW_BASE_PERMISSION);
         Keys.registerKey(MANUAL_OPTIMIZATION_ALL_PERMISSION);
         Keys.registerKey(MANUAL_OPTIMIZATION_BASE_PERMISSION);
+        Keys.registerKey(STATS_COMMAND_PERMISSION);
     }
 }
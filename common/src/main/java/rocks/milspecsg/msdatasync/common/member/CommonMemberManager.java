@@ -69,7 +69,7 @@ public class CommonMemberManager<
 
     @Override
     public CompletableFuture<TString> deleteSnapshot(UUID userUUID, Optional<String> optionalString) {
-        return getPrimaryComponent().getSnapshotForUser(userUUID, optionalString).thenApplyAsync(optionalSnapshot -> {
+        return getPrimaryComponent().getSnapshotMetadataForUser(userUUID, optionalString).thenApplyAsync(optionalSnapshot -> {
             String userName = userService.getUserName(userUUID).orElse("null");
             if (!optionalSnapshot.isPresent()) {
                 return stringResult.builder()
@@ -162,7 +162,7 @@ public class CommonMemberManager<
                                 .aqua().append("[ < ]")
                                 .onHoverShowText(stringResult.builder().aqua().append("Previous"))
                                 .onClickExecuteCallback(cs -> {
-                                    getPrimaryComponent().getPreviousForUser(userUUID, created).thenAcceptAsync(o -> {
+                                    getPrimaryComponent().getPreviousMetadataForUser(userUUID, created).thenAcceptAsync(o -> {
                                         if (o.isPresent()) {
                                             info(userUUID, o.get()).thenAcceptAsync(result -> stringResult.send(result, cs));
                                         } else {
@@ -182,7 +182,7 @@ public class CommonMemberManager<
                                 .aqua().append("[ > ]")
                                 .onHoverShowText(stringResult.builder().aqua().append("Next"))
                                 .onClickExecuteCallback(cs -> {
-                                    getPrimaryComponent().getNextForUser(userUUID, created).thenAcceptAsync(o -> {
+                                    getPrimaryComponent().getNextMetadataForUser(userUUID, created).thenAcceptAsync(o -> {
                                         if (o.isPresent()) {
                                             info(userUUID, o.get()).thenAcceptAsync(result -> stringResult.send(result, cs));
                                         } else {
@@ -198,7 +198,7 @@ public class CommonMemberManager<
 
     @Override
     public CompletableFuture<TString> info(UUID userUUID, Optional<String> optionalString) {
-        return getPrimaryComponent().getSnapshotForUser(userUUID, optionalString).thenApplyAsync(optionalSnapshot -> {
+        return getPrimaryComponent().getSnapshotMetadataForUser(userUUID, optionalString).thenApplyAsync(optionalSnapshot -> {
             String userName = userService.getUserName(userUUID).orElse("null");
             if (!optionalSnapshot.isPresent()) {
                 return stringResult.builder()
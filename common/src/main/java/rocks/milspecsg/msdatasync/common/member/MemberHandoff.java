@@ -0,0 +1,137 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.member;
+
+import rocks.milspecsg.msdatasync.api.member.repository.MemberRepository;
+import rocks.milspecsg.msdatasync.api.model.member.Member;
+
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Hands users over between servers that share a database.
+ *
+ * <p>
+ * A server {@link #claim(UUID) claims} a user once their data has been loaded and
+ * {@link #release(UUID) releases} them once their last snapshot on that server has been written,
+ * see {@link Member#getOnlineServer()}. A server that wants to load a user {@link #await(UUID, long) waits}
+ * until no other server holds them anymore, polling the database with exponential backoff.
+ * </p>
+ *
+ * <p>
+ * Everything this needs is in the member repository and the server name, so two instances
+ * with different names on the same store behave like two servers.
+ * </p>
+ */
+public class MemberHandoff {
+
+    static final long INITIAL_POLL_MILLIS = 50;
+    static final long MAX_POLL_MILLIS = 1000;
+
+    private static final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MSDataSync Handoff");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final MemberRepository<?, ?, ?, ?, ?> memberRepository;
+    private final Supplier<String> serverName;
+
+    /**
+     * Users whose last snapshot on this server is still being written
+     */
+    private final Set<UUID> leaving = ConcurrentHashMap.newKeySet();
+
+    public MemberHandoff(MemberRepository<?, ?, ?, ?, ?> memberRepository, Supplier<String> serverName) {
+        this.memberRepository = memberRepository;
+        this.serverName = serverName;
+    }
+
+    /**
+     * Marks this server as the one holding {@code userUUID}
+     */
+    public CompletableFuture<Boolean> claim(UUID userUUID) {
+        return memberRepository.claimOnlineServerForUser(userUUID, serverName.get());
+    }
+
+    /**
+     * Call before the last snapshot of a user leaving this server is uploaded.
+     * Until {@link #release(UUID)} is called, this server also waits for that upload if the user comes back
+     */
+    public void beginLeave(UUID userUUID) {
+        leaving.add(userUUID);
+    }
+
+    /**
+     * Lets other servers load {@code userUUID}. Call once their last snapshot on this server has been written or has failed
+     */
+    public CompletableFuture<Boolean> release(UUID userUUID) {
+        return memberRepository.releaseOnlineServerForUser(userUUID, serverName.get())
+            .whenComplete((released, e) -> leaving.remove(userUUID));
+    }
+
+    /**
+     * Waits until no other server holds {@code userUUID}
+     *
+     * @return true if the user was handed over, false if {@code timeoutMillis} passed first
+     */
+    public CompletableFuture<Boolean> await(UUID userUUID, long timeoutMillis) {
+        CompletableFuture<Boolean> result = new CompletableFuture<>();
+        poll(userUUID, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis), INITIAL_POLL_MILLIS, result);
+        return result;
+    }
+
+    private void poll(UUID userUUID, long deadline, long delayMillis, CompletableFuture<Boolean> result) {
+        memberRepository.getOnlineServerForUser(userUUID).whenComplete((optionalServer, e) -> {
+            if (e != null) {
+                e.printStackTrace();
+            } else if (!isHeld(userUUID, optionalServer)) {
+                result.complete(true);
+                return;
+            }
+            long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+            if (remainingMillis <= 0) {
+                String holder = optionalServer == null ? "another server" : optionalServer.orElse("another server");
+                System.err.println("[MSDataSync] Timed out waiting for " + holder + " to save " + userUUID + "! Loading the latest snapshot available");
+                result.complete(false);
+                return;
+            }
+            executor.schedule(() -> poll(userUUID, deadline, Math.min(delayMillis * 2, MAX_POLL_MILLIS), result),
+                Math.min(delayMillis, remainingMillis), TimeUnit.MILLISECONDS);
+        });
+    }
+
+    private boolean isHeld(UUID userUUID, Optional<String> optionalServer) {
+        if (!optionalServer.isPresent()) {
+            return false;
+        }
+        if (optionalServer.get().equals(serverName.get())) {
+            // a marker of this server without an upload in progress was left behind by a crash or restart
+            return leaving.contains(userUUID);
+        }
+        return true;
+    }
+}
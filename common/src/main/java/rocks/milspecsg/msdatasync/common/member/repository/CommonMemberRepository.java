@@ -23,17 +23,23 @@ import rocks.milspecsg.msdatasync.api.member.repository.MemberRepository;
 import rocks.milspecsg.msdatasync.api.model.member.Member;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.api.snapshot.repository.SnapshotRepository;
+import rocks.milspecsg.msdatasync.common.snapshotoptimization.component.SnapshotCreationTimeCache;
 import rocks.milspecsg.msrepository.api.datastore.DataStoreContext;
 import rocks.milspecsg.msrepository.api.model.ObjectWithId;
 import rocks.milspecsg.msrepository.api.util.TimeFormatService;
 import rocks.milspecsg.msrepository.common.repository.CommonRepository;
 
 import java.time.Instant;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
 
 public abstract class CommonMemberRepository<
     TKey,
@@ -51,6 +57,9 @@ public abstract class CommonMemberRepository<
     @Inject
     protected TimeFormatService timeFormatService;
 
+    @Inject
+    protected SnapshotCreationTimeCache creationTimeCache;
+
     public CommonMemberRepository(DataStoreContext<TKey, TDataStore> dataStoreContext) {
         super(dataStoreContext);
     }
@@ -72,6 +81,44 @@ public abstract class CommonMemberRepository<
         });
     }
 
+    @Override
+    public Iterator<TMember> iterateMembers(Optional<TKey> after, int batchSize) {
+        return new Iterator<TMember>() {
+            private TKey last = after.orElse(null);
+            private Iterator<TMember> page = Collections.emptyIterator();
+            private boolean exhausted;
+
+            @Override
+            public boolean hasNext() {
+                while (!page.hasNext() && !exhausted) {
+                    List<TMember> members = getMemberPage(last, batchSize);
+                    // a short page is the last one
+                    exhausted = members.size() < batchSize;
+                    if (!members.isEmpty()) {
+                        last = members.get(members.size() - 1).getId();
+                    }
+                    page = members.iterator();
+                }
+                return page.hasNext();
+            }
+
+            @Override
+            public TMember next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return page.next();
+            }
+        };
+    }
+
+    /**
+     * @param after {@code null} to start with the first member
+     * @return Up to {@code batchSize} members with their snapshot ids whose id is greater than {@code after}, ordered by id.
+     * The creation times of their snapshots are put into the {@link SnapshotCreationTimeCache} where the store has them at hand
+     */
+    protected abstract List<TMember> getMemberPage(TKey after, int batchSize);
+
     @Override
     @SuppressWarnings("unchecked")
     public Class<TMember> getTClass() {
@@ -93,6 +140,42 @@ public abstract class CommonMemberRepository<
         return getOneOrGenerateForUser(userUUID).thenApplyAsync(o -> o.map(Member::getSnapshotIds).orElse(Collections.emptyList()));
     }
 
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> insertSnapshotForUser(UUID userUUID, TSnapshot snapshot) {
+        return snapshotRepository.insertOne(snapshot).thenApplyAsync(optionalSnapshot -> {
+            if (!optionalSnapshot.isPresent()) {
+                return Optional.empty();
+            }
+            // the parent may have been deleted since the snapshot was stripped to a delta
+            TKey parentId = optionalSnapshot.get().getParentId();
+            if (parentId != null && !snapshotRepository.getMetadata(parentId).join().isPresent()) {
+                System.err.println("[MSDataSync] Parent " + parentId + " of a new snapshot was deleted before it was stored!");
+                deleteOrphanedSnapshot(optionalSnapshot.get().getId());
+                return Optional.empty();
+            }
+            if (addSnapshotForUser(userUUID, optionalSnapshot.get().getId()).join()) {
+                return optionalSnapshot;
+            }
+            // remove snapshot from DB because it was not added to the user successfully
+            deleteOrphanedSnapshot(optionalSnapshot.get().getId());
+            return Optional.empty();
+        });
+    }
+
+    /**
+     * Writes the snapshots of {@code userUUID} that are still queued, for example because they rejoined right after leaving
+     *
+     * @return Completes once they have been written or have failed
+     */
+    protected CompletableFuture<Void> flushPendingSnapshots(UUID userUUID) {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    protected void deleteOrphanedSnapshot(TKey snapshotId) {
+        snapshotRepository.releaseItemStacks(snapshotId).join();
+        snapshotRepository.deleteOne(snapshotId).join();
+    }
+
     @Override
     public CompletableFuture<Optional<TSnapshot>> getSnapshot(TKey id, Optional<String> optionalString) {
         return CompletableFuture.supplyAsync(() -> {
@@ -120,6 +203,48 @@ public abstract class CommonMemberRepository<
         return getIdForUser(userUUID).thenApplyAsync(o -> o.flatMap(id -> getSnapshot(id, optionalString).join()));
     }
 
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> getSnapshotMetadataForUser(UUID userUUID, Optional<String> optionalString) {
+        return getSnapshotForUser(userUUID, optionalString, snapshotRepository::getMetadata);
+    }
+
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> getSnapshotItemStacksOnlyForUser(UUID userUUID, Optional<String> optionalString) {
+        return getSnapshotForUser(userUUID, optionalString, snapshotId -> snapshotRepository.getItemStacksOnly(snapshotId)
+            .thenComposeAsync(optionalSnapshot -> optionalSnapshot.isPresent()
+                ? snapshotRepository.materialize(optionalSnapshot.get()).thenApplyAsync(Optional::of)
+                : CompletableFuture.completedFuture(Optional.<TSnapshot>empty())));
+    }
+
+    /**
+     * Resolves the snapshot through the creation time map and only loads it with {@code loader} once its id is known
+     */
+    private CompletableFuture<Optional<TSnapshot>> getSnapshotForUser(UUID userUUID, Optional<String> optionalString, Function<TKey, CompletableFuture<Optional<TSnapshot>>> loader) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (optionalString.isPresent()) {
+
+                Optional<TKey> optionalId = parse(optionalString);
+                if (optionalId.isPresent()) {
+                    return loader.apply(optionalId.get()).join();
+                }
+
+                Optional<Instant> date = timeFormatService.parseInstant(optionalString.get());
+                if (date.isPresent()) {
+                    return findSnapshotId(getSnapshotCreationTimeMapForUser(userUUID).join(), date.get())
+                        .flatMap(snapshotId -> loader.apply(snapshotId).join());
+                }
+
+                return Optional.empty();
+            } else {
+                List<TKey> snapshotIds = new ArrayList<>(getSnapshotCreationTimeMapForUser(userUUID).join().keySet());
+                if (snapshotIds.isEmpty()) {
+                    return Optional.empty();
+                }
+                return loader.apply(snapshotIds.get(snapshotIds.size() - 1)).join();
+            }
+        });
+    }
+
     @Override
     public CompletableFuture<Optional<TSnapshot>> getLatestSnapshot(TKey id) {
         return getOne(id).thenApplyAsync(optionalMember ->
@@ -135,7 +260,7 @@ public abstract class CommonMemberRepository<
 
     @Override
     public CompletableFuture<Optional<TSnapshot>> getLatestSnapshotForUser(UUID userUUID) {
-        return getOneOrGenerateForUser(userUUID).thenApplyAsync(optionalMember -> optionalMember.flatMap(member -> snapshotRepository.getOne(member.getSnapshotIds().get(member.getSnapshotIds().size() - 1)).join()));
+        return flushPendingSnapshots(userUUID).thenCompose(v -> getOneOrGenerateForUser(userUUID)).thenApplyAsync(optionalMember -> optionalMember.flatMap(member -> snapshotRepository.getOne(member.getSnapshotIds().get(member.getSnapshotIds().size() - 1)).join()));
     }
 
     @Override
@@ -189,4 +314,57 @@ public abstract class CommonMemberRepository<
     public CompletableFuture<Optional<TSnapshot>> getNextForUser(UUID userUUID, Instant createdUtc) {
         return getSnapshotForUser(userUUID, createdUtc).thenApplyAsync(o -> o.flatMap(s -> getNextForUser(userUUID, s.getId()).join()));
     }
+
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> getPreviousMetadataForUser(UUID userUUID, Instant createdUtc) {
+        return getAdjacentMetadataForUser(userUUID, createdUtc, -1);
+    }
+
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> getNextMetadataForUser(UUID userUUID, Instant createdUtc) {
+        return getAdjacentMetadataForUser(userUUID, createdUtc, 1);
+    }
+
+    private CompletableFuture<Optional<TSnapshot>> getAdjacentMetadataForUser(UUID userUUID, Instant createdUtc, int offset) {
+        return getSnapshotCreationTimeMapForUser(userUUID).thenApplyAsync(creationTimes -> {
+            List<Map.Entry<TKey, Instant>> entries = new ArrayList<>(creationTimes.entrySet());
+            for (int i = 0; i < entries.size(); i++) {
+                if (checkInstant(entries.get(i).getValue(), createdUtc)) {
+                    int adjacent = i + offset;
+                    if (adjacent < 0 || adjacent >= entries.size()) {
+                        return Optional.empty();
+                    }
+                    return snapshotRepository.getMetadata(entries.get(adjacent).getKey()).join();
+                }
+            }
+            return Optional.empty();
+        });
+    }
+
+    protected static <TKey> Optional<TKey> findSnapshotId(Map<TKey, Instant> creationTimes, Instant createdUtc) {
+        for (Map.Entry<TKey, Instant> entry : creationTimes.entrySet()) {
+            if (checkInstant(entry.getValue(), createdUtc)) {
+                return Optional.of(entry.getKey());
+            }
+        }
+        return Optional.empty();
+    }
+
+    protected static boolean checkInstant(Instant a, Instant b) {
+        long aSeconds = a.getEpochSecond();
+        long bSeconds = b.getEpochSecond();
+
+        long aNanos = a.getNano();
+        long bNanos = b.getNano();
+
+        if (aSeconds == bSeconds && aNanos == bNanos) {
+            return true;
+        }
+
+        // check if nanos is 0 for either
+        // at least one input is already rounded
+        // if neither input was rounded to begin with
+        // dont round them
+        return (aNanos == 0 || bNanos == 0) && aSeconds == bSeconds;
+    }
 }
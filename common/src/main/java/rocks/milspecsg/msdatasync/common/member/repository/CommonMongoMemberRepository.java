@@ -21,18 +21,29 @@ package rocks.milspecsg.msdatasync.common.member.repository;
 import com.google.inject.Inject;
 import org.bson.types.ObjectId;
 import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.FindAndModifyOptions;
+import org.mongodb.morphia.query.FindOptions;
+import org.mongodb.morphia.query.PushOptions;
 import org.mongodb.morphia.query.Query;
 import rocks.milspecsg.msdatasync.api.member.repository.MongoMemberRepository;
 import rocks.milspecsg.msdatasync.api.model.member.Member;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
+import rocks.milspecsg.msrepository.api.data.registry.Registry;
 import rocks.milspecsg.msrepository.api.datastore.DataStoreContext;
 import rocks.milspecsg.msrepository.common.repository.CommonMongoRepository;
 
 import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
@@ -46,16 +57,100 @@ public class CommonMongoMemberRepository<
     implements CommonMongoRepository<TMember>,
     MongoMemberRepository<TMember, TSnapshot, TUser> {
 
+    @Inject
+    protected Registry registry;
+
+    private final MongoSnapshotBulkWriter<TSnapshot> bulkWriter = new MongoSnapshotBulkWriter<>(
+        () -> registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_WRITE_BEHIND_MILLIS),
+        () -> getDataStoreContext().getDataStore(),
+        () -> snapshotRepository.getTClass(),
+        this::getTClass,
+        this::deleteOrphanedSnapshot
+    );
+
     @Inject
     public CommonMongoMemberRepository(DataStoreContext<ObjectId, Datastore> dataStoreContext) {
         super(dataStoreContext);
     }
 
+    @Override
+    protected List<TMember> getMemberPage(ObjectId after, int batchSize) {
+        Query<TMember> query = asQuery().order("_id");
+        if (after != null) {
+            query.field("_id").greaterThan(after);
+        }
+        List<TMember> members = query.asList(new FindOptions().batchSize(batchSize).limit(batchSize));
+        for (TMember member : members) {
+            for (ObjectId snapshotId : member.getSnapshotIds()) {
+                creationTimeCache.put(snapshotId, Instant.ofEpochSecond(snapshotId.getTimestamp()));
+            }
+        }
+        return members;
+    }
+
+    @Override
+    public CompletableFuture<Long> countMembers() {
+        return CompletableFuture.supplyAsync(() -> asQuery().count());
+    }
+
+    @Override
+    public Optional<ObjectId> parseMemberId(String id) {
+        return ObjectId.isValid(id) ? Optional.of(new ObjectId(id)) : Optional.empty();
+    }
+
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> insertSnapshotForUser(UUID userUUID, TSnapshot snapshot) {
+        if (registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_WRITE_BEHIND_MILLIS) <= 0) {
+            return super.insertSnapshotForUser(userUUID, snapshot);
+        }
+        return bulkWriter.submit(userUUID, snapshot);
+    }
+
+    @Override
+    protected CompletableFuture<Void> flushPendingSnapshots(UUID userUUID) {
+        return bulkWriter.flushFor(userUUID);
+    }
+
+    @Override
+    public void stopSnapshotWriter(long timeoutMillis) {
+        bulkWriter.stop(timeoutMillis);
+    }
+
     @Override
     public CompletableFuture<Optional<TMember>> getOneForUser(UUID userUUID) {
         return CompletableFuture.supplyAsync(() -> Optional.ofNullable(asQuery(userUUID).get()));
     }
 
+    @Override
+    public CompletableFuture<Optional<String>> getOnlineServerForUser(UUID userUUID) {
+        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(asQuery(userUUID).project("onlineServer", true).get()).map(Member::getOnlineServer));
+    }
+
+    @Override
+    public CompletableFuture<Boolean> claimOnlineServerForUser(UUID userUUID, String server) {
+        // a single upsert, so that two servers claiming a new user cannot create two members
+        return CompletableFuture.supplyAsync(() -> {
+            Date now = new Date();
+            return getDataStoreContext().getDataStore().findAndModify(
+                asQuery(userUUID),
+                createUpdateOperations().disableValidation()
+                    .set("onlineServer", server)
+                    .set("updatedUtc", now)
+                    .setOnInsert("className", getTClass().getName())
+                    .setOnInsert("createdUtc", now),
+                new FindAndModifyOptions().upsert(true).returnNew(true)
+            ) != null;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseOnlineServerForUser(UUID userUUID, String server) {
+        return CompletableFuture.supplyAsync(() -> getDataStoreContext().getDataStore().update(
+            asQuery(userUUID).field("onlineServer").equal(server),
+            createUpdateOperations().unset("onlineServer")
+        ).getUpdatedCount() > 0);
+    }
+
     @Override
     public Query<TMember> asQuery(UUID userUUID) {
         return asQuery().field("userUUID").equal(userUUID);
@@ -77,9 +172,37 @@ public class CommonMongoMemberRepository<
         return getSnapshotIds(asQuery(id));
     }
 
+    @Override
+    public CompletableFuture<Map<ObjectId, Instant>> getSnapshotCreationTimeMap(Query<TMember> query) {
+        return getSnapshotIds(query).thenApplyAsync(objectIds -> {
+            Map<ObjectId, Instant> creationTimes = new LinkedHashMap<>();
+            // ids are ordered by their timestamp first, ids added without sorting may be out of order
+            for (ObjectId objectId : sorted(objectIds)) {
+                creationTimes.put(objectId, Instant.ofEpochSecond(objectId.getTimestamp()));
+            }
+            return creationTimes;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Map<ObjectId, Instant>> getSnapshotCreationTimeMap(ObjectId id) {
+        return getSnapshotCreationTimeMap(asQuery(id));
+    }
+
+    @Override
+    public CompletableFuture<Map<ObjectId, Instant>> getSnapshotCreationTimeMapForUser(UUID userUUID) {
+        return getSnapshotCreationTimeMap(asQuery(userUUID));
+    }
+
     @Override
     public CompletableFuture<List<Instant>> getSnapshotCreationTimes(Query<TMember> query) {
-        return getSnapshotIds(query).thenApplyAsync(objectIds -> objectIds.stream().map(o -> Instant.ofEpochSecond(o.getTimestamp())).collect(Collectors.toList()));
+        return getSnapshotIds(query).thenApplyAsync(objectIds -> sorted(objectIds).stream().map(o -> Instant.ofEpochSecond(o.getTimestamp())).collect(Collectors.toList()));
+    }
+
+    private static List<ObjectId> sorted(List<ObjectId> objectIds) {
+        List<ObjectId> sorted = new ArrayList<>(objectIds);
+        Collections.sort(sorted);
+        return sorted;
     }
 
     @Override
@@ -94,7 +217,8 @@ public class CommonMongoMemberRepository<
 
     @Override
     public CompletableFuture<Boolean> deleteSnapshot(Query<TMember> query, ObjectId snapshotId) {
-        return CompletableFuture.supplyAsync(() -> removeSnapshotId(query, snapshotId) && snapshotRepository.deleteOne(snapshotId).join());
+        // the member keeps the snapshot if its children or item stacks could not be released
+        return deleteSnapshots(query, Collections.singletonList(snapshotId)).thenApply(released -> !released.isEmpty());
     }
 
     @Override
@@ -103,15 +227,11 @@ public class CommonMongoMemberRepository<
             .thenApplyAsync(objectIds -> objectIds.stream()
                 .filter(objectId -> Instant.ofEpochSecond(objectId.getTimestamp()).equals(createdUtc))
                 .findFirst()
-                .map(snapshotId -> removeSnapshotId(query, snapshotId) && snapshotRepository.deleteOne(snapshotId).join())
+                .map(snapshotId -> deleteSnapshot(query, snapshotId).join())
                 .orElse(false)
             );
     }
 
-    private boolean removeSnapshotId(Query<TMember> query, ObjectId snapshotId) {
-        return getDataStoreContext().getDataStore().update(query, createUpdateOperations().removeAll("snapshotIds", snapshotId)).getUpdatedCount() > 0;
-    }
-
     @Override
     public CompletableFuture<Boolean> deleteSnapshot(ObjectId id, ObjectId snapshotId) {
         return deleteSnapshot(asQuery(id), snapshotId);
@@ -132,6 +252,45 @@ public class CommonMongoMemberRepository<
         return deleteSnapshot(asQuery(userUUID), createdUtc);
     }
 
+    @Override
+    public CompletableFuture<List<ObjectId>> deleteSnapshots(Query<TMember> query, Collection<ObjectId> snapshotIds) {
+        return getSnapshotIds(query).thenApplyAsync(objectIds -> {
+            // oldest first, so that delta chains are folded in order
+            Set<ObjectId> requested = new HashSet<>(snapshotIds);
+            List<ObjectId> toDelete = objectIds.stream().filter(requested::contains).collect(Collectors.toList());
+            if (toDelete.isEmpty()) {
+                return Collections.<ObjectId>emptyList();
+            }
+            Datastore datastore = getDataStoreContext().getDataStore();
+            // the member has to stop pointing at the snapshots before their children and item stacks are released
+            if (datastore.update(query, createUpdateOperations().removeAll("snapshotIds", toDelete)).getUpdatedCount() == 0) {
+                return Collections.<ObjectId>emptyList();
+            }
+            List<ObjectId> released = snapshotRepository.releaseSnapshots(toDelete).join();
+            Set<ObjectId> releasedIds = new HashSet<>(released);
+            creationTimeCache.invalidateAll(released);
+            if (!released.isEmpty()) {
+                datastore.delete(datastore.createQuery(snapshotRepository.getTClass()).field("_id").in(released));
+            }
+            // snapshots whose children could not be detached stay with the member, ids sort in the order they were created
+            List<ObjectId> kept = toDelete.stream().filter(snapshotId -> !releasedIds.contains(snapshotId)).collect(Collectors.toList());
+            if (!kept.isEmpty()) {
+                datastore.update(query, createUpdateOperations().push("snapshotIds", kept, PushOptions.options().sort(1)));
+            }
+            return released;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<ObjectId>> deleteSnapshots(ObjectId id, Collection<ObjectId> snapshotIds) {
+        return deleteSnapshots(asQuery(id), snapshotIds);
+    }
+
+    @Override
+    public CompletableFuture<List<ObjectId>> deleteSnapshotsForUser(UUID userUUID, Collection<ObjectId> snapshotIds) {
+        return deleteSnapshots(asQuery(userUUID), snapshotIds);
+    }
+
     @Override
     public CompletableFuture<Boolean> addSnapshot(Query<TMember> query, ObjectId snapshotId) {
         return update(query, createUpdateOperations().addToSet("snapshotIds", snapshotId));
@@ -21,27 +21,32 @@ package rocks.milspecsg.msdatasync.common.member.repository;
 import com.google.inject.Inject;
 import jetbrains.exodus.entitystore.Entity;
 import jetbrains.exodus.entitystore.EntityId;
+import jetbrains.exodus.entitystore.EntityRemovedInDatabaseException;
+import jetbrains.exodus.entitystore.PersistentEntityId;
 import jetbrains.exodus.entitystore.PersistentEntityStore;
 import jetbrains.exodus.entitystore.StoreTransaction;
-import jetbrains.exodus.util.ByteArraySizedInputStream;
 import rocks.milspecsg.msdatasync.api.member.repository.XodusMemberRepository;
 import rocks.milspecsg.msdatasync.api.model.member.Member;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
+import rocks.milspecsg.msrepository.api.data.registry.Registry;
 import rocks.milspecsg.msrepository.api.datastore.DataStoreContext;
 import rocks.milspecsg.msrepository.api.model.Mappable;
 import rocks.milspecsg.msrepository.common.repository.CommonXodusRepository;
 
-import java.io.IOException;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
+import java.util.Map;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.function.Function;
-import java.util.function.Predicate;
 import java.util.stream.Collectors;
 
 public class CommonXodusMemberRepository<
@@ -53,28 +58,136 @@ public class CommonXodusMemberRepository<
     implements CommonXodusRepository<TMember>,
     XodusMemberRepository<TMember, TSnapshot, TUser> {
 
+    @Inject
+    protected Registry registry;
+
+    private final XodusSnapshotBulkWriter<TSnapshot> bulkWriter = new XodusSnapshotBulkWriter<>(
+        () -> registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_WRITE_BEHIND_MILLIS),
+        () -> getEntityStore(),
+        () -> snapshotRepository.getTClass().getSimpleName(),
+        () -> snapshotRepository.generateEmpty(),
+        this::getOrCreateMember
+    );
+
     @Inject
     public CommonXodusMemberRepository(DataStoreContext<EntityId, PersistentEntityStore> dataStoreContext) {
         super(dataStoreContext);
     }
 
+    /**
+     * @return The store members and their snapshot index are kept in
+     */
+    protected PersistentEntityStore getEntityStore() {
+        return getDataStoreContext().getDataStore();
+    }
+
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> insertSnapshotForUser(UUID userUUID, TSnapshot snapshot) {
+        if (registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_WRITE_BEHIND_MILLIS) <= 0) {
+            return super.insertSnapshotForUser(userUUID, snapshot);
+        }
+        return bulkWriter.submit(userUUID, snapshot);
+    }
+
+    @Override
+    protected CompletableFuture<Void> flushPendingSnapshots(UUID userUUID) {
+        return bulkWriter.flushFor(userUUID);
+    }
+
+    @Override
+    public void stopSnapshotWriter(long timeoutMillis) {
+        bulkWriter.stop(timeoutMillis);
+    }
+
+    @Override
+    protected List<TMember> getMemberPage(EntityId after, int batchSize) {
+        return getEntityStore().computeInReadonlyTransaction(txn -> {
+            long from = after == null ? 0 : after.getLocalId() + 1;
+            List<TMember> members = new ArrayList<>();
+            for (Entity entity : txn.findIds(getTClass().getSimpleName(), from, Long.MAX_VALUE).take(batchSize)) {
+                TMember member = generateEmpty();
+                // reads the snapshot index while the transaction is open
+                member.readFrom(entity);
+                members.add(member);
+                // the index entries carry the creation times, so callers of the page do not have to look them up again.
+                // Members that were not migrated yet would need every snapshot to be read and are left out
+                creationTimeCache.putAll(XodusSnapshotIndex.getCreationTimes(txn, entity, snapshotId -> Optional.empty()));
+            }
+            return members;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Long> countMembers() {
+        return CompletableFuture.supplyAsync(() ->
+            getEntityStore().computeInReadonlyTransaction(txn -> txn.getAll(getTClass().getSimpleName()).size())
+        );
+    }
+
+    @Override
+    public Optional<EntityId> parseMemberId(String id) {
+        try {
+            return Optional.of(PersistentEntityId.toEntityId(id));
+        } catch (RuntimeException e) {
+            return Optional.empty();
+        }
+    }
+
     @Override
     public CompletableFuture<Optional<TMember>> getOneForUser(UUID userUUID) {
         return getOne(asQuery(userUUID));
     }
 
+    @Override
+    public CompletableFuture<Optional<String>> getOnlineServerForUser(UUID userUUID) {
+        return CompletableFuture.supplyAsync(() ->
+            getEntityStore().computeInReadonlyTransaction(txn -> {
+                Iterator<Entity> iterator = asQuery(userUUID).apply(txn).iterator();
+                if (!iterator.hasNext()) {
+                    return Optional.<String>empty();
+                }
+                Comparable<?> onlineServer = iterator.next().getProperty("onlineServer");
+                return onlineServer instanceof String ? Optional.of((String) onlineServer) : Optional.<String>empty();
+            })
+        );
+    }
+
+    @Override
+    public CompletableFuture<Boolean> claimOnlineServerForUser(UUID userUUID, String server) {
+        return CompletableFuture.supplyAsync(() ->
+            getEntityStore().computeInExclusiveTransaction(txn -> {
+                getOrCreateMember(txn, userUUID).setProperty("onlineServer", server);
+                return true;
+            })
+        );
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseOnlineServerForUser(UUID userUUID, String server) {
+        return CompletableFuture.supplyAsync(() ->
+            getEntityStore().computeInTransaction(txn -> {
+                Iterator<Entity> iterator = asQuery(userUUID).apply(txn).iterator();
+                if (!iterator.hasNext()) {
+                    return false;
+                }
+                Entity member = iterator.next();
+                if (!server.equals(member.getProperty("onlineServer"))) {
+                    return false;
+                }
+                return member.deleteProperty("onlineServer");
+            })
+        );
+    }
+
     @Override
     public CompletableFuture<List<EntityId>> getSnapshotIds(Function<? super StoreTransaction, ? extends Iterable<Entity>> query) {
         return CompletableFuture.supplyAsync(() ->
-            getDataStoreContext().getDataStore().computeInExclusiveTransaction(txn -> {
+            getEntityStore().computeInReadonlyTransaction(txn -> {
                 Iterator<Entity> iterator = query.apply(txn).iterator();
                 if (iterator.hasNext()) {
-                    Optional<List<EntityId>> optionalList = Mappable.deserialize(iterator.next().getBlob("snapshotIds"));
-                    if (optionalList.isPresent()) {
-                        return optionalList.get();
-                    }
+                    return XodusSnapshotIndex.getSnapshotIds(txn, iterator.next());
                 }
-                return Collections.emptyList();
+                return Collections.<EntityId>emptyList();
             })
         );
     }
@@ -84,12 +197,32 @@ public class CommonXodusMemberRepository<
         return getSnapshotIds(asQuery(id));
     }
 
+    @Override
+    public CompletableFuture<Map<EntityId, Instant>> getSnapshotCreationTimeMap(Function<? super StoreTransaction, ? extends Iterable<Entity>> query) {
+        return CompletableFuture.supplyAsync(() ->
+            getEntityStore().computeInReadonlyTransaction(txn -> {
+                Iterator<Entity> iterator = query.apply(txn).iterator();
+                if (!iterator.hasNext()) {
+                    return Collections.<EntityId, Instant>emptyMap();
+                }
+                return XodusSnapshotIndex.getCreationTimes(txn, iterator.next(), this::lookupCreatedUtc);
+            })
+        );
+    }
+
+    @Override
+    public CompletableFuture<Map<EntityId, Instant>> getSnapshotCreationTimeMap(EntityId id) {
+        return getSnapshotCreationTimeMap(asQuery(id));
+    }
+
+    @Override
+    public CompletableFuture<Map<EntityId, Instant>> getSnapshotCreationTimeMapForUser(UUID userUUID) {
+        return getSnapshotCreationTimeMap(asQuery(userUUID));
+    }
+
     @Override
     public CompletableFuture<List<Instant>> getSnapshotCreationTimes(Function<? super StoreTransaction, ? extends Iterable<Entity>> query) {
-        return getSnapshotIds(query).thenApplyAsync(ids -> ids.stream()
-            .map(id -> snapshotRepository.getCreatedUtc(id).join().orElse(null))
-            .filter(Objects::nonNull)
-            .collect(Collectors.toList()));
+        return getSnapshotCreationTimeMap(query).thenApplyAsync(creationTimes -> new ArrayList<>(creationTimes.values()));
     }
 
     @Override
@@ -102,53 +235,17 @@ public class CommonXodusMemberRepository<
         return getSnapshotCreationTimes(asQuery(userUUID));
     }
 
-    private CompletableFuture<Boolean> deleteSnapshot(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, Predicate<? super EntityId> idPredicate) {
-        return CompletableFuture.supplyAsync(() ->
-            getDataStoreContext().getDataStore().computeInTransaction(txn -> {
-                Iterator<Entity> iterator = query.apply(txn).iterator();
-                if (!iterator.hasNext()) {
-                    return false;
-                }
-                Entity toEdit = iterator.next();
-                Optional<List<EntityId>> optionalList = Mappable.deserialize(toEdit.getBlob("snapshotIds"));
-                if (!optionalList.isPresent()) {
-                    return false;
-                }
-                List<EntityId> ids = optionalList.get();
-                EntityId toRemove = null;
-                int indexToRemove = -1;
-                int size = ids.size();
-                for (int i = 0; i < size; i++) {
-                    EntityId id = ids.get(i);
-                    if (idPredicate.test(id)) {
-                        indexToRemove = i;
-                        toRemove = id;
-                        break;
-                    }
-                }
-                if (indexToRemove < 0) {
-                    txn.abort();
-                    return false;
-                }
-                ids.remove(indexToRemove);
-                try {
-                    toEdit.setBlob("snapshotIds", new ByteArraySizedInputStream(Mappable.serializeUnsafe(ids)));
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-                return txn.commit() && snapshotRepository.deleteOne(toRemove).join();
-            })
-        );
-    }
-
     @Override
     public CompletableFuture<Boolean> deleteSnapshot(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, EntityId snapshotId) {
-        return deleteSnapshot(query, snapshotId::equals);
+        // the member keeps the snapshot if its children or item stacks could not be released
+        return deleteSnapshots(query, Collections.singletonList(snapshotId)).thenApply(released -> !released.isEmpty());
     }
 
     @Override
     public CompletableFuture<Boolean> deleteSnapshot(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, Instant createdUtc) {
-        return deleteSnapshot(query, id -> getSnapshot(query, createdUtc).join().map(s -> s.getId().equals(id)).orElse(false));
+        return getSnapshotCreationTimeMap(query).thenApplyAsync(creationTimes ->
+            findSnapshotId(creationTimes, createdUtc).map(snapshotId -> deleteSnapshot(query, snapshotId).join()).orElse(false)
+        );
     }
 
     @Override
@@ -172,28 +269,87 @@ public class CommonXodusMemberRepository<
     }
 
     @Override
-    public CompletableFuture<Boolean> addSnapshot(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, EntityId snapshotId) {
-        return CompletableFuture.supplyAsync(() ->
-            getDataStoreContext().getDataStore().computeInTransaction(txn -> {
+    public CompletableFuture<List<EntityId>> deleteSnapshots(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, Collection<EntityId> snapshotIds) {
+        return getSnapshotCreationTimeMap(query).thenApplyAsync(creationTimes -> {
+            // oldest first, so that delta chains are folded in order
+            Set<EntityId> requested = new HashSet<>(snapshotIds);
+            List<EntityId> toDelete = creationTimes.keySet().stream().filter(requested::contains).collect(Collectors.toList());
+            if (toDelete.isEmpty()) {
+                return Collections.<EntityId>emptyList();
+            }
+            // the member has to stop pointing at the snapshots before their children and item stacks are released
+            List<EntityId> removed = getEntityStore().computeInTransaction(txn -> {
                 Iterator<Entity> iterator = query.apply(txn).iterator();
                 if (!iterator.hasNext()) {
-                    return false;
+                    return Collections.<EntityId>emptyList();
                 }
-                Entity toEdit = iterator.next();
-                Optional<List<EntityId>> optionalList = Mappable.deserialize(toEdit.getBlob("snapshotIds"));
-                if (!optionalList.isPresent()) {
-                    return false;
+                Entity member = iterator.next();
+                migrateLegacySnapshotIds(txn, member);
+                List<EntityId> removedIds = new ArrayList<>();
+                for (EntityId snapshotId : toDelete) {
+                    if (XodusSnapshotIndex.removeEntry(txn, member, snapshotId)) {
+                        removedIds.add(snapshotId);
+                    }
                 }
-                List<EntityId> ids = optionalList.get();
-                ids.add(snapshotId);
-                try {
-                    toEdit.setBlob("snapshotIds", new ByteArraySizedInputStream(Mappable.serializeUnsafe(ids)));
-                } catch (IOException e) {
-                    e.printStackTrace();
+                return removedIds;
+            });
+            if (removed.isEmpty()) {
+                return removed;
+            }
+            List<EntityId> released = snapshotRepository.releaseSnapshots(removed).join();
+            Set<EntityId> releasedIds = new HashSet<>(released);
+            creationTimeCache.invalidateAll(released);
+            getEntityStore().executeInTransaction(txn -> {
+                for (EntityId snapshotId : released) {
+                    try {
+                        txn.getEntity(snapshotId).delete();
+                    } catch (EntityRemovedInDatabaseException ignored) {
+                    }
                 }
-                return txn.commit();
-            })
-        );
+                // snapshots whose children could not be detached stay with the member
+                Iterator<Entity> iterator = query.apply(txn).iterator();
+                if (!iterator.hasNext()) {
+                    return;
+                }
+                Entity member = iterator.next();
+                for (EntityId snapshotId : removed) {
+                    if (!releasedIds.contains(snapshotId)) {
+                        XodusSnapshotIndex.addEntry(txn, member, snapshotId, creationTimes.get(snapshotId));
+                    }
+                }
+            });
+            return released;
+        });
+    }
+
+    @Override
+    public CompletableFuture<List<EntityId>> deleteSnapshots(EntityId id, Collection<EntityId> snapshotIds) {
+        return deleteSnapshots(asQuery(id), snapshotIds);
+    }
+
+    @Override
+    public CompletableFuture<List<EntityId>> deleteSnapshotsForUser(UUID userUUID, Collection<EntityId> snapshotIds) {
+        return deleteSnapshots(asQuery(userUUID), snapshotIds);
+    }
+
+    @Override
+    public CompletableFuture<Boolean> addSnapshot(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, EntityId snapshotId) {
+        return CompletableFuture.supplyAsync(() -> {
+            Optional<Instant> optionalCreatedUtc = snapshotRepository.getCreatedUtc(snapshotId).join();
+            if (!optionalCreatedUtc.isPresent()) {
+                return false;
+            }
+            return getEntityStore().computeInTransaction(txn -> {
+                Iterator<Entity> iterator = query.apply(txn).iterator();
+                if (!iterator.hasNext()) {
+                    return false;
+                }
+                Entity member = iterator.next();
+                migrateLegacySnapshotIds(txn, member);
+                XodusSnapshotIndex.addEntry(txn, member, snapshotId, optionalCreatedUtc.get());
+                return true;
+            });
+        });
     }
 
     @Override
@@ -208,26 +364,8 @@ public class CommonXodusMemberRepository<
 
     @Override
     public CompletableFuture<Optional<TSnapshot>> getSnapshot(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, Instant createdUtc) {
-        return CompletableFuture.supplyAsync(() ->
-            getDataStoreContext().getDataStore().computeInReadonlyTransaction(txn -> {
-                Iterator<Entity> iterator = query.apply(txn).iterator();
-                if (!iterator.hasNext()) {
-                    return Optional.empty();
-                }
-                Optional<List<EntityId>> optionalList = Mappable.deserialize(iterator.next().getBlob("snapshotIds"));
-                if (!optionalList.isPresent()) {
-                    return Optional.empty();
-                }
-                List<EntityId> ids = optionalList.get();
-                for (EntityId id : ids) {
-                    Optional<TSnapshot> optionalSnapshot = snapshotRepository.getOne(id).join()
-                        .filter(s -> checkInstant(s.getCreatedUtc(), createdUtc));
-                    if (optionalSnapshot.isPresent()) {
-                        return optionalSnapshot;
-                    }
-                }
-                return Optional.empty();
-            })
+        return getSnapshotCreationTimeMap(query).thenApplyAsync(creationTimes ->
+            findSnapshotId(creationTimes, createdUtc).flatMap(snapshotId -> snapshotRepository.getOne(snapshotId).join())
         );
     }
 
@@ -243,17 +381,39 @@ public class CommonXodusMemberRepository<
 
     @Override
     public CompletableFuture<List<EntityId>> getClosestSnapshots(Function<? super StoreTransaction, ? extends Iterable<Entity>> query, Instant createdUtc) {
-        return null;
+        return getSnapshotCreationTimeMap(query).thenApplyAsync(creationTimes -> {
+            Optional<Map.Entry<EntityId, Instant>> closestBefore = Optional.empty();
+            Optional<Map.Entry<EntityId, Instant>> closestAfter = Optional.empty();
+            Optional<Map.Entry<EntityId, Instant>> same = Optional.empty();
+
+            for (Map.Entry<EntityId, Instant> entry : creationTimes.entrySet()) {
+                Instant toTest = entry.getValue();
+
+                if (checkInstant(toTest, createdUtc)) {
+                    same = Optional.of(entry);
+                } else if (toTest.isBefore(createdUtc) && (!closestBefore.isPresent() || toTest.isAfter(closestBefore.get().getValue()))) {
+                    closestBefore = Optional.of(entry);
+                } else if (toTest.isAfter(createdUtc) && (!closestAfter.isPresent() || toTest.isBefore(closestAfter.get().getValue()))) {
+                    closestAfter = Optional.of(entry);
+                }
+            }
+
+            List<EntityId> toReturn = new ArrayList<>();
+            closestBefore.map(Map.Entry::getKey).ifPresent(toReturn::add);
+            same.map(Map.Entry::getKey).ifPresent(toReturn::add);
+            closestAfter.map(Map.Entry::getKey).ifPresent(toReturn::add);
+            return toReturn;
+        });
     }
 
     @Override
     public CompletableFuture<List<EntityId>> getClosestSnapshots(EntityId id, Instant createdUtc) {
-        return null;
+        return getClosestSnapshots(asQuery(id), createdUtc);
     }
 
     @Override
     public CompletableFuture<List<EntityId>> getClosestSnapshotsForUser(UUID userUUID, Instant createdUtc) {
-        return null;
+        return getClosestSnapshots(asQuery(userUUID), createdUtc);
     }
 
     @Override
@@ -261,21 +421,23 @@ public class CommonXodusMemberRepository<
         return txn -> txn.find(getTClass().getSimpleName(), "userUUID", userUUID.toString());
     }
 
-    private static boolean checkInstant(Instant a, Instant b) {
-        long aSeconds = a.getEpochSecond();
-        long bSeconds = b.getEpochSecond();
-
-        long aNanos = a.getNano();
-        long bNanos = b.getNano();
-
-        if (aSeconds == bSeconds && aNanos == bNanos) {
-            return true;
+    private Entity getOrCreateMember(StoreTransaction txn, UUID userUUID) {
+        Iterator<Entity> iterator = asQuery(userUUID).apply(txn).iterator();
+        if (iterator.hasNext()) {
+            Entity member = iterator.next();
+            migrateLegacySnapshotIds(txn, member);
+            return member;
         }
+        TMember member = generateEmpty();
+        member.setUserUUID(userUUID);
+        return member.writeTo(txn.newEntity(getTClass().getSimpleName()));
+    }
+
+    private void migrateLegacySnapshotIds(StoreTransaction txn, Entity member) {
+        XodusSnapshotIndex.migrateLegacySnapshotIds(txn, member, this::lookupCreatedUtc);
+    }
 
-        // check if nanos is 0 for either
-        // at least one input is already rounded
-        // if neither input was rounded to begin with
-        // dont round them
-        return (aNanos == 0 || bNanos == 0) && aSeconds == bSeconds;
+    private Optional<Instant> lookupCreatedUtc(EntityId snapshotId) {
+        return snapshotRepository.getCreatedUtc(snapshotId).join();
     }
 }
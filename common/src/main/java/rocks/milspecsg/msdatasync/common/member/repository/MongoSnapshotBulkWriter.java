@@ -0,0 +1,195 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.member.repository;
+
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.DBCollection;
+import org.bson.types.ObjectId;
+import org.mongodb.morphia.AdvancedDatastore;
+import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.InsertOptions;
+import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Writes a batch of snapshot saves with one unordered bulk insert of the snapshots
+ * and one unordered bulk upsert of the members they belong to.
+ *
+ * <p>
+ * If a bulk operation fails, the affected entries are checked or retried one by one
+ * so that every save still gets its own result.
+ * </p>
+ */
+class MongoSnapshotBulkWriter<TSnapshot extends Snapshot<ObjectId>> extends SnapshotWriteBehindQueue<ObjectId, TSnapshot> {
+
+    private final Supplier<Datastore> datastore;
+    private final Supplier<Class<? extends TSnapshot>> snapshotClass;
+    private final Supplier<Class<?>> memberClass;
+    private final Consumer<ObjectId> orphanedSnapshotHandler;
+
+    /**
+     * @param orphanedSnapshotHandler Removes a snapshot that was inserted but could not be added to its member
+     */
+    MongoSnapshotBulkWriter(IntSupplier windowMillis, Supplier<Datastore> datastore, Supplier<Class<? extends TSnapshot>> snapshotClass,
+                            Supplier<Class<?>> memberClass, Consumer<ObjectId> orphanedSnapshotHandler) {
+        super(windowMillis);
+        this.datastore = datastore;
+        this.snapshotClass = snapshotClass;
+        this.memberClass = memberClass;
+        this.orphanedSnapshotHandler = orphanedSnapshotHandler;
+    }
+
+    @Override
+    protected void write(List<PendingSnapshot<ObjectId, TSnapshot>> batch) {
+        List<PendingSnapshot<ObjectId, TSnapshot>> inserted = insertSnapshots(batch);
+        Set<PendingSnapshot<ObjectId, TSnapshot>> added = addToMembers(withParents(inserted));
+        for (PendingSnapshot<ObjectId, TSnapshot> pendingSnapshot : batch) {
+            if (added.contains(pendingSnapshot)) {
+                pendingSnapshot.result.complete(Optional.of(pendingSnapshot.snapshot));
+                continue;
+            }
+            if (inserted.contains(pendingSnapshot)) {
+                orphanedSnapshotHandler.accept(pendingSnapshot.snapshot.getId());
+            }
+            pendingSnapshot.result.complete(Optional.empty());
+        }
+    }
+
+    /**
+     * @return The entries whose snapshot is stored
+     */
+    private List<PendingSnapshot<ObjectId, TSnapshot>> insertSnapshots(List<PendingSnapshot<ObjectId, TSnapshot>> batch) {
+        Datastore datastore = this.datastore.get();
+        List<TSnapshot> snapshots = new ArrayList<>();
+        batch.forEach(pendingSnapshot -> snapshots.add(pendingSnapshot.snapshot));
+        try {
+            if (datastore instanceof AdvancedDatastore) {
+                ((AdvancedDatastore) datastore).insert(snapshots, new InsertOptions().continueOnError(true));
+            } else {
+                datastore.save(snapshots);
+            }
+            return batch;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        // only part of the batch may have been written, find out which
+        List<ObjectId> ids = new ArrayList<>();
+        snapshots.stream().map(Snapshot::getId).filter(id -> id != null).forEach(ids::add);
+        Set<ObjectId> stored = new HashSet<>();
+        if (!ids.isEmpty()) {
+            datastore.createQuery(snapshotClass.get()).field("_id").in(ids).project("_id", true)
+                .asList().forEach(snapshot -> stored.add(snapshot.getId()));
+        }
+        List<PendingSnapshot<ObjectId, TSnapshot>> inserted = new ArrayList<>();
+        for (PendingSnapshot<ObjectId, TSnapshot> pendingSnapshot : batch) {
+            if (stored.contains(pendingSnapshot.snapshot.getId())) {
+                inserted.add(pendingSnapshot);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Checked once the snapshots are stored, the parent of a delta may have been deleted since it was stripped
+     *
+     * @return The entries whose snapshot is a keyframe or whose parent still exists
+     */
+    private List<PendingSnapshot<ObjectId, TSnapshot>> withParents(List<PendingSnapshot<ObjectId, TSnapshot>> inserted) {
+        Set<ObjectId> parentIds = new HashSet<>();
+        inserted.stream().map(pendingSnapshot -> pendingSnapshot.snapshot.getParentId()).filter(id -> id != null).forEach(parentIds::add);
+        if (parentIds.isEmpty()) {
+            return inserted;
+        }
+        Set<ObjectId> stored = new HashSet<>();
+        try {
+            datastore.get().createQuery(snapshotClass.get()).field("_id").in(parentIds).project("_id", true)
+                .asList().forEach(snapshot -> stored.add(snapshot.getId()));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        List<PendingSnapshot<ObjectId, TSnapshot>> withParents = new ArrayList<>();
+        for (PendingSnapshot<ObjectId, TSnapshot> pendingSnapshot : inserted) {
+            ObjectId parentId = pendingSnapshot.snapshot.getParentId();
+            if (parentId == null || stored.contains(parentId)) {
+                withParents.add(pendingSnapshot);
+            } else {
+                System.err.println("[MSDataSync] Parent " + parentId + " of a new snapshot was deleted before it was stored!");
+            }
+        }
+        return withParents;
+    }
+
+    /**
+     * @return The entries whose snapshot was added to its member
+     */
+    private Set<PendingSnapshot<ObjectId, TSnapshot>> addToMembers(List<PendingSnapshot<ObjectId, TSnapshot>> inserted) {
+        Set<PendingSnapshot<ObjectId, TSnapshot>> added = new HashSet<>();
+        if (inserted.isEmpty()) {
+            return added;
+        }
+        // one update per member, ids in the order they were saved
+        Map<UUID, List<PendingSnapshot<ObjectId, TSnapshot>>> byUser = new LinkedHashMap<>();
+        inserted.forEach(pendingSnapshot -> byUser.computeIfAbsent(pendingSnapshot.userUUID, u -> new ArrayList<>()).add(pendingSnapshot));
+        DBCollection members = datastore.get().getCollection(memberClass.get());
+        BulkWriteOperation bulk = members.initializeUnorderedBulkOperation();
+        byUser.forEach((userUUID, pendingSnapshots) -> bulk.find(new BasicDBObject("userUUID", userUUID)).upsert().updateOne(addSnapshots(pendingSnapshots)));
+        try {
+            bulk.execute();
+            added.addAll(inserted);
+            return added;
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+        }
+        // retry one member at a time so that one bad member does not fail the whole batch
+        byUser.forEach((userUUID, pendingSnapshots) -> {
+            try {
+                members.update(new BasicDBObject("userUUID", userUUID), addSnapshots(pendingSnapshots), true, false);
+                added.addAll(pendingSnapshots);
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        });
+        return added;
+    }
+
+    /**
+     * The update bypasses Morphia, so a member created by the upsert gets the fields Morphia would have written
+     */
+    private BasicDBObject addSnapshots(List<? extends PendingSnapshot<ObjectId, ?>> pendingSnapshots) {
+        List<ObjectId> snapshotIds = new ArrayList<>();
+        pendingSnapshots.forEach(pendingSnapshot -> snapshotIds.add(pendingSnapshot.snapshot.getId()));
+        Date now = new Date();
+        return new BasicDBObject("$addToSet", new BasicDBObject("snapshotIds", new BasicDBObject("$each", snapshotIds)))
+            .append("$set", new BasicDBObject("updatedUtc", now))
+            .append("$setOnInsert", new BasicDBObject("className", memberClass.get().getName()).append("createdUtc", now));
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.member.repository;
+
+import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Queue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.IntSupplier;
+
+/**
+ * Collects snapshot saves for a short window and hands them to {@link #write(List)} together,
+ * so that an auto-save of a full server costs a few writes instead of several per player.
+ *
+ * <p>
+ * Every save keeps its own future. Implementations complete each of them with the stored snapshot,
+ * or with empty if that snapshot could not be saved.
+ * </p>
+ */
+abstract class SnapshotWriteBehindQueue<TKey, TSnapshot extends Snapshot<TKey>> {
+
+    static final int MAX_BATCH_SIZE = 500;
+
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "MSDataSync Snapshot Writer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final IntSupplier windowMillis;
+
+    private final Queue<PendingSnapshot<TKey, TSnapshot>> pendingSnapshots = new ConcurrentLinkedQueue<>();
+    // queued or in a batch that is being written
+    private final Set<PendingSnapshot<TKey, TSnapshot>> unwritten = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private volatile boolean stopped;
+
+    /**
+     * @param windowMillis How long to collect saves after the first one arrives
+     */
+    SnapshotWriteBehindQueue(IntSupplier windowMillis) {
+        this.windowMillis = windowMillis;
+    }
+
+    CompletableFuture<Optional<TSnapshot>> submit(UUID userUUID, TSnapshot snapshot) {
+        PendingSnapshot<TKey, TSnapshot> pendingSnapshot = new PendingSnapshot<>(userUUID, snapshot);
+        unwritten.add(pendingSnapshot);
+        pendingSnapshot.result.whenComplete((s, e) -> unwritten.remove(pendingSnapshot));
+        pendingSnapshots.add(pendingSnapshot);
+        if (stopped) {
+            // the writer thread is gone, write on the calling thread
+            flushAll();
+        } else {
+            scheduleFlush();
+        }
+        return pendingSnapshot.result;
+    }
+
+    /**
+     * Writes the queue without waiting for the rest of the window if it holds saves of {@code userUUID},
+     * so that loading the user does not miss the snapshot they just saved
+     *
+     * @return Completes once every save of {@code userUUID} submitted so far has been written or has failed
+     */
+    CompletableFuture<Void> flushFor(UUID userUUID) {
+        List<CompletableFuture<?>> results = new ArrayList<>();
+        for (PendingSnapshot<TKey, TSnapshot> pendingSnapshot : unwritten) {
+            if (pendingSnapshot.userUUID.equals(userUUID)) {
+                results.add(pendingSnapshot.result);
+            }
+        }
+        if (results.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        if (stopped) {
+            flushAll();
+        } else {
+            try {
+                executor.execute(this::flush);
+            } catch (RejectedExecutionException e) {
+                // stopped in the meantime
+                flushAll();
+            }
+        }
+        return CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]));
+    }
+
+    /**
+     * Writes everything still pending on the calling thread and stops the writer thread.
+     * Waits at most {@code timeoutMillis} for a batch the writer thread is still working on
+     */
+    void stop(long timeoutMillis) {
+        stopped = true;
+        executor.shutdown();
+        flushAll();
+        try {
+            executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void flushAll() {
+        while (!pendingSnapshots.isEmpty()) {
+            flush();
+        }
+    }
+
+    private void scheduleFlush() {
+        if (!stopped && flushScheduled.compareAndSet(false, true)) {
+            try {
+                executor.schedule(this::flush, Math.max(0, windowMillis.getAsInt()), TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // stopped in the meantime
+                flushScheduled.set(false);
+                flushAll();
+            }
+        }
+    }
+
+    private void flush() {
+        flushScheduled.set(false);
+        List<PendingSnapshot<TKey, TSnapshot>> batch = new ArrayList<>();
+        PendingSnapshot<TKey, TSnapshot> next;
+        while (batch.size() < MAX_BATCH_SIZE && (next = pendingSnapshots.poll()) != null) {
+            batch.add(next);
+        }
+        if (!pendingSnapshots.isEmpty()) {
+            scheduleFlush();
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            write(batch);
+        } catch (Throwable e) {
+            // the futures below still have to complete, whatever went wrong
+            e.printStackTrace();
+        }
+        // anything the implementation did not get to has failed
+        batch.forEach(pendingSnapshot -> pendingSnapshot.result.complete(Optional.empty()));
+    }
+
+    /**
+     * Saves every snapshot in {@code batch} and adds it to its member.
+     * Entries whose future is not completed by this method are reported as failed
+     */
+    protected abstract void write(List<PendingSnapshot<TKey, TSnapshot>> batch);
+
+    protected static final class PendingSnapshot<TKey, TSnapshot extends Snapshot<TKey>> {
+        final UUID userUUID;
+        final TSnapshot snapshot;
+        final CompletableFuture<Optional<TSnapshot>> result = new CompletableFuture<>();
+
+        private PendingSnapshot(UUID userUUID, TSnapshot snapshot) {
+            this.userUUID = userUUID;
+            this.snapshot = snapshot;
+        }
+    }
+}
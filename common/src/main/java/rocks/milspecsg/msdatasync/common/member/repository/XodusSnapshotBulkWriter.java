@@ -0,0 +1,121 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.member.repository;
+
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.EntityId;
+import jetbrains.exodus.entitystore.EntityRemovedInDatabaseException;
+import jetbrains.exodus.entitystore.PersistentEntityStore;
+import jetbrains.exodus.entitystore.StoreTransaction;
+import rocks.milspecsg.msdatasync.api.model.snapshot.MappableSnapshot;
+import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.function.BiFunction;
+import java.util.function.IntSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Writes a batch of snapshot saves and their index entries in a single Xodus transaction.
+ * Xodus only allows one writer at a time, so this keeps an auto-save from queueing a transaction per player.
+ *
+ * <p>
+ * If the transaction fails, every entry is retried in a transaction of its own
+ * so that one bad snapshot does not fail the whole batch.
+ * </p>
+ */
+class XodusSnapshotBulkWriter<TSnapshot extends Snapshot<EntityId>> extends SnapshotWriteBehindQueue<EntityId, TSnapshot> {
+
+    private final Supplier<PersistentEntityStore> store;
+    private final Supplier<String> snapshotType;
+    private final Supplier<TSnapshot> snapshotFactory;
+    private final BiFunction<StoreTransaction, UUID, Entity> memberLookup;
+
+    /**
+     * @param memberLookup Finds the member entity of a user, creating it if there is none yet
+     */
+    XodusSnapshotBulkWriter(IntSupplier windowMillis, Supplier<PersistentEntityStore> store, Supplier<String> snapshotType,
+                            Supplier<TSnapshot> snapshotFactory, BiFunction<StoreTransaction, UUID, Entity> memberLookup) {
+        super(windowMillis);
+        this.store = store;
+        this.snapshotType = snapshotType;
+        this.snapshotFactory = snapshotFactory;
+        this.memberLookup = memberLookup;
+    }
+
+    @Override
+    protected void write(List<PendingSnapshot<EntityId, TSnapshot>> batch) {
+        List<TSnapshot> stored;
+        try {
+            stored = store.get().computeInTransaction(txn -> insert(txn, batch));
+        } catch (RuntimeException e) {
+            e.printStackTrace();
+            stored = null;
+        }
+        if (stored != null) {
+            for (int i = 0; i < batch.size(); i++) {
+                batch.get(i).result.complete(Optional.of(stored.get(i)));
+            }
+            return;
+        }
+        for (PendingSnapshot<EntityId, TSnapshot> pendingSnapshot : batch) {
+            try {
+                List<TSnapshot> single = store.get().computeInTransaction(txn -> insert(txn, Collections.singletonList(pendingSnapshot)));
+                pendingSnapshot.result.complete(Optional.of(single.get(0)));
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+                pendingSnapshot.result.complete(Optional.empty());
+            }
+        }
+    }
+
+    /**
+     * May run more than once if the transaction has to be retried
+     *
+     * @return Every inserted snapshot as it was stored, in the order of {@code batch}
+     */
+    @SuppressWarnings("unchecked")
+    private List<TSnapshot> insert(StoreTransaction txn, List<PendingSnapshot<EntityId, TSnapshot>> batch) {
+        List<TSnapshot> stored = new ArrayList<>();
+        for (PendingSnapshot<EntityId, TSnapshot> pendingSnapshot : batch) {
+            EntityId parentId = pendingSnapshot.snapshot.getParentId();
+            if (parentId != null) {
+                // checked in the same transaction, the snapshot is never stored as a delta of a deleted parent
+                try {
+                    txn.getEntity(parentId);
+                } catch (EntityRemovedInDatabaseException e) {
+                    throw new IllegalStateException("Parent " + parentId + " of a new snapshot was deleted before it was stored", e);
+                }
+            }
+            Entity entity = txn.newEntity(snapshotType.get());
+            ((MappableSnapshot<EntityId, Entity>) pendingSnapshot.snapshot).writeTo(entity);
+            // the payload is only copied here, it is decoded once a field of the snapshot is accessed
+            TSnapshot snapshot = snapshotFactory.get();
+            ((MappableSnapshot<EntityId, Entity>) snapshot).readFrom(entity);
+            Entity member = memberLookup.apply(txn, pendingSnapshot.userUUID);
+            XodusSnapshotIndex.addEntry(txn, member, entity.getId(), snapshot.getCreatedUtc());
+            stored.add(snapshot);
+        }
+        return stored;
+    }
+}
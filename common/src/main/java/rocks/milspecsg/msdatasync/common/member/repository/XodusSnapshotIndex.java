@@ -0,0 +1,187 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.member.repository;
+
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.EntityId;
+import jetbrains.exodus.entitystore.EntityRemovedInDatabaseException;
+import jetbrains.exodus.entitystore.StoreTransaction;
+import rocks.milspecsg.msrepository.api.model.Mappable;
+
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Function;
+
+/**
+ * Per-member snapshot index for the Xodus store.
+ *
+ * <p>
+ * Every snapshot of a member is represented by one small {@code SnapshotIndexEntry} entity
+ * that is linked from the member and links to the snapshot. Entries carry the snapshot's
+ * creation time so that they can be sorted by the store without touching the snapshot itself.
+ * Adding or removing a snapshot therefore only creates or deletes a single entry instead of
+ * rewriting the whole list of ids.
+ * </p>
+ *
+ * <p>
+ * Members written before the index existed keep their ids in a serialized {@code snapshotIds}
+ * blob. Such members are still readable and are migrated to the index the first time they
+ * are written to.
+ * </p>
+ */
+public final class XodusSnapshotIndex {
+
+    public static final String ENTRY_TYPE = "SnapshotIndexEntry";
+    public static final String MEMBER_LINK = "snapshots";
+    public static final String SNAPSHOT_LINK = "snapshot";
+    public static final String CREATED_UTC = "createdUtcEpochNanos";
+    public static final String LEGACY_SNAPSHOT_IDS = "snapshotIds";
+
+    private XodusSnapshotIndex() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    /**
+     * @return Index entries of {@code member}, sorted by creation time (oldest first)
+     */
+    public static Iterable<Entity> getEntries(StoreTransaction txn, Entity member) {
+        return txn.sort(ENTRY_TYPE, CREATED_UTC, member.getLinks(MEMBER_LINK), true);
+    }
+
+    /**
+     * @return Snapshot ids of {@code member}, sorted by creation time (oldest first)
+     */
+    public static List<EntityId> getSnapshotIds(StoreTransaction txn, Entity member) {
+        Optional<List<EntityId>> optionalLegacyIds = getLegacySnapshotIds(member);
+        if (optionalLegacyIds.isPresent()) {
+            return optionalLegacyIds.get();
+        }
+        List<EntityId> snapshotIds = new ArrayList<>();
+        for (Entity entry : getEntries(txn, member)) {
+            Entity snapshot = entry.getLink(SNAPSHOT_LINK);
+            if (snapshot != null) {
+                snapshotIds.add(snapshot.getId());
+            }
+        }
+        return snapshotIds;
+    }
+
+    /**
+     * Reads the creation time of every snapshot of {@code member} from the index.
+     * Only the index entries are read, the snapshot entities themselves are never opened.
+     *
+     * @param legacyCreatedUtcLookup Used for members that have not been migrated to the index yet
+     * @return Snapshot ids of {@code member} mapped to their creation time, sorted by creation time (oldest first)
+     */
+    public static Map<EntityId, Instant> getCreationTimes(StoreTransaction txn, Entity member, Function<EntityId, Optional<Instant>> legacyCreatedUtcLookup) {
+        Map<EntityId, Instant> creationTimes = new LinkedHashMap<>();
+        Optional<List<EntityId>> optionalLegacyIds = getLegacySnapshotIds(member);
+        if (optionalLegacyIds.isPresent()) {
+            List<Map.Entry<EntityId, Instant>> legacyEntries = new ArrayList<>();
+            for (EntityId snapshotId : optionalLegacyIds.get()) {
+                legacyCreatedUtcLookup.apply(snapshotId).ifPresent(createdUtc -> legacyEntries.add(new AbstractMap.SimpleEntry<>(snapshotId, createdUtc)));
+            }
+            // the blob is in the order the ids were added, the index is sorted by the store
+            legacyEntries.sort(Map.Entry.comparingByValue());
+            legacyEntries.forEach(entry -> creationTimes.put(entry.getKey(), entry.getValue()));
+            return creationTimes;
+        }
+        for (Entity entry : getEntries(txn, member)) {
+            Entity snapshot = entry.getLink(SNAPSHOT_LINK);
+            Comparable<?> createdUtc = entry.getProperty(CREATED_UTC);
+            if (snapshot != null && createdUtc instanceof Long) {
+                creationTimes.put(snapshot.getId(), fromEpochNanos((Long) createdUtc));
+            }
+        }
+        return creationTimes;
+    }
+
+    public static void addEntry(StoreTransaction txn, Entity member, EntityId snapshotId, Instant createdUtc) {
+        Entity entry = txn.newEntity(ENTRY_TYPE);
+        entry.setProperty(CREATED_UTC, toEpochNanos(createdUtc));
+        entry.setLink(SNAPSHOT_LINK, txn.getEntity(snapshotId));
+        member.addLink(MEMBER_LINK, entry);
+    }
+
+    /**
+     * @return Whether an entry for {@code snapshotId} was found and removed
+     */
+    public static boolean removeEntry(StoreTransaction txn, Entity member, EntityId snapshotId) {
+        Entity snapshot;
+        try {
+            snapshot = txn.getEntity(snapshotId);
+        } catch (EntityRemovedInDatabaseException e) {
+            return false;
+        }
+        for (Entity entry : txn.findLinks(ENTRY_TYPE, snapshot, SNAPSHOT_LINK).intersect(member.getLinks(MEMBER_LINK))) {
+            member.deleteLink(MEMBER_LINK, entry);
+            entry.delete();
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Moves the ids stored in the legacy {@code snapshotIds} blob into index entries.
+     * Ids whose snapshot no longer exists are dropped.
+     *
+     * @param createdUtcLookup Used to find the creation time of each legacy snapshot
+     * @return Whether {@code member} had to be migrated
+     */
+    public static boolean migrateLegacySnapshotIds(StoreTransaction txn, Entity member, Function<EntityId, Optional<Instant>> createdUtcLookup) {
+        Optional<List<EntityId>> optionalLegacyIds = getLegacySnapshotIds(member);
+        if (!optionalLegacyIds.isPresent()) {
+            return false;
+        }
+        for (EntityId snapshotId : optionalLegacyIds.get()) {
+            Optional<Instant> optionalCreatedUtc = createdUtcLookup.apply(snapshotId);
+            if (!optionalCreatedUtc.isPresent()) {
+                continue;
+            }
+            try {
+                addEntry(txn, member, snapshotId, optionalCreatedUtc.get());
+            } catch (EntityRemovedInDatabaseException ignored) {
+            }
+        }
+        member.deleteBlob(LEGACY_SNAPSHOT_IDS);
+        return true;
+    }
+
+    public static Optional<List<EntityId>> getLegacySnapshotIds(Entity member) {
+        InputStream blob = member.getBlob(LEGACY_SNAPSHOT_IDS);
+        if (blob == null) {
+            return Optional.empty();
+        }
+        return Mappable.deserialize(blob);
+    }
+
+    public static long toEpochNanos(Instant instant) {
+        return instant.getEpochSecond() * 1_000_000_000L + instant.getNano();
+    }
+
+    public static Instant fromEpochNanos(long epochNanos) {
+        return Instant.ofEpochSecond(0, epochNanos);
+    }
+}
@@ -35,6 +35,8 @@ public class MongoMember extends MongoDbo implements Member<ObjectId> {
 
     private List<ObjectId> snapshotIds;
 
+    private String onlineServer;
+
     @Override
     public UUID getUserUUID() {
         return userUUID;
@@ -57,4 +59,14 @@ public class MongoMember extends MongoDbo implements Member<ObjectId> {
     public void setSnapshotIds(List<ObjectId> snapshotIds) {
         this.snapshotIds = Objects.requireNonNull(snapshotIds, "snapshotIds cannot be null");
     }
+
+    @Override
+    public String getOnlineServer() {
+        return onlineServer;
+    }
+
+    @Override
+    public void setOnlineServer(String onlineServer) {
+        this.onlineServer = onlineServer;
+    }
 }
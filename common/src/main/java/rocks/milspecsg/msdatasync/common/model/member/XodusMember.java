@@ -20,13 +20,12 @@ package rocks.milspecsg.msdatasync.common.model.member;
 
 import jetbrains.exodus.entitystore.Entity;
 import jetbrains.exodus.entitystore.EntityId;
-import jetbrains.exodus.util.ByteArraySizedInputStream;
+import jetbrains.exodus.entitystore.StoreTransaction;
 import rocks.milspecsg.msdatasync.api.model.member.MappableMember;
+import rocks.milspecsg.msdatasync.common.member.repository.XodusSnapshotIndex;
 import rocks.milspecsg.msrepository.api.datastore.annotation.XodusEntity;
-import rocks.milspecsg.msrepository.api.model.Mappable;
 import rocks.milspecsg.msrepository.common.model.XodusDbo;
 
-import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
@@ -39,6 +38,8 @@ public class XodusMember extends XodusDbo implements MappableMember<EntityId, En
 
     private List<EntityId> snapshotIds;
 
+    private String onlineServer;
+
     @Override
     public UUID getUserUUID() {
         return UUID.fromString(userUUID);
@@ -64,17 +65,30 @@ public class XodusMember extends XodusDbo implements MappableMember<EntityId, En
         prePersist();
     }
 
+    @Override
+    public String getOnlineServer() {
+        return onlineServer;
+    }
+
+    @Override
+    public void setOnlineServer(String onlineServer) {
+        this.onlineServer = onlineServer;
+        prePersist();
+    }
+
     @Override
     public Entity writeTo(Entity object) {
         super.writeTo(object);
         if (userUUID != null) {
             object.setProperty("userUUID", userUUID);
         }
-        try {
-            object.setBlob("snapshotIds", new ByteArraySizedInputStream(Mappable.serializeUnsafe(getSnapshotIds())));
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (onlineServer != null) {
+            object.setProperty("onlineServer", onlineServer);
+        } else {
+            object.deleteProperty("onlineServer");
         }
+        // snapshot ids are not written here, they are kept in the snapshot index
+        // and maintained by the member repository
         return object;
     }
 
@@ -85,6 +99,13 @@ public class XodusMember extends XodusDbo implements MappableMember<EntityId, En
         if (userUUID instanceof String) {
             this.userUUID = (String) userUUID;
         }
-        Mappable.<List<EntityId>>deserialize(object.getBlob("snapshotIds")).ifPresent(t -> snapshotIds = t);
+        Comparable<?> onlineServer = object.getProperty("onlineServer");
+        this.onlineServer = onlineServer instanceof String ? (String) onlineServer : null;
+        StoreTransaction txn = object.getStore().getCurrentTransaction();
+        if (txn == null) {
+            XodusSnapshotIndex.getLegacySnapshotIds(object).ifPresent(t -> snapshotIds = t);
+        } else {
+            snapshotIds = XodusSnapshotIndex.getSnapshotIds(txn, object);
+        }
     }
 }
@@ -0,0 +1,72 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
+import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Older snapshots may hold the enchantments of an item stack as a single map instead of a list of maps.
+ * Wraps them in a list so that item stacks can be read without special cases
+ */
+class EnchantmentListUpgrader implements SnapshotUpgrader {
+
+    private static final String ENCHANTMENTS = "ench";
+
+    @Override
+    public int getVersion() {
+        return 1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void upgrade(Snapshot<?> snapshot) {
+        for (SerializedItemStack itemStack : snapshot.getItemStacks()) {
+            if (itemStack == null || itemStack.getProperties() == null) {
+                continue;
+            }
+            Map<String, Object> properties = itemStack.getProperties();
+            Map<String, Object> upgraded = null;
+            for (Map.Entry<String, Object> entry : properties.entrySet()) {
+                if (!(entry.getValue() instanceof Map)) {
+                    continue;
+                }
+                Map<String, Object> value = (Map<String, Object>) entry.getValue();
+                if (!(value.get(ENCHANTMENTS) instanceof Map)) {
+                    continue;
+                }
+                if (upgraded == null) {
+                    upgraded = new HashMap<>(properties);
+                }
+                // copied, the stored maps are not always mutable
+                Map<String, Object> copy = new HashMap<>(value);
+                copy.put(ENCHANTMENTS, new ArrayList<>(Collections.singletonList(value.get(ENCHANTMENTS))));
+                upgraded.put(entry.getKey(), copy);
+            }
+            if (upgraded != null) {
+                itemStack.setProperties(upgraded);
+            }
+        }
+    }
+}
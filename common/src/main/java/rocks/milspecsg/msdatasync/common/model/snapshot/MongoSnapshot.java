@@ -18,12 +18,20 @@
 
 package rocks.milspecsg.msdatasync.common.model.snapshot;
 
+import com.mongodb.DBObject;
 import org.bson.types.ObjectId;
 import org.mongodb.morphia.annotations.Entity;
+import org.mongodb.morphia.annotations.Indexed;
+import org.mongodb.morphia.annotations.PostLoad;
+import org.mongodb.morphia.annotations.PreSave;
+import org.mongodb.morphia.annotations.Transient;
 import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+import rocks.milspecsg.msdatasync.common.model.serializeditemstack.MongoSerializedItemStack;
 import rocks.milspecsg.msrepository.common.model.MongoDbo;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
@@ -31,7 +39,12 @@ import java.util.Map;
 import java.util.Objects;
 
 @Entity("snapshots")
-public class MongoSnapshot extends MongoDbo implements Snapshot<ObjectId> {
+public class MongoSnapshot extends MongoDbo implements Snapshot<ObjectId>, CompressibleSnapshot {
+
+    /**
+     * Field that holds the item stacks encoded by {@link SnapshotPayloadCodec} when compression is enabled
+     */
+    public static final String ITEM_STACKS_PAYLOAD = "itemStacksPayload";
 
     private String name;
 
@@ -45,6 +58,25 @@ public class MongoSnapshot extends MongoDbo implements Snapshot<ObjectId> {
 
     private List<SerializedItemStack> itemStacks;
 
+    @Indexed
+    private ObjectId parentId;
+
+    private List<Integer> itemStackSlots;
+
+    private int schemaVersion;
+
+    // compressed item stacks, only decoded once they are accessed
+    @Transient
+    private byte[] itemStacksPayload;
+
+    // the snapshot is never saved once the payload could not be decoded, not even after the item stacks were set,
+    // because the new item stacks are usually derived from the empty ones the failed decode left
+    @Transient
+    private boolean itemStacksUnreadable;
+
+    @Transient
+    private SnapshotPayloadCompression compression;
+
     @Override
     public String getName() {
         return name;
@@ -106,6 +138,15 @@ public class MongoSnapshot extends MongoDbo implements Snapshot<ObjectId> {
 
     @Override
     public List<SerializedItemStack> getItemStacks() {
+        if (itemStacks == null && itemStacksPayload != null) {
+            itemStacks = SnapshotPayloadCodec.<List<SerializedItemStack>>decode(new ByteArrayInputStream(itemStacksPayload), MongoSerializedItemStack::new, compression).orElse(null);
+            if (itemStacks != null) {
+                itemStacksPayload = null;
+            } else {
+                System.err.println("[MSDataSync] Could not decode item stacks of snapshot " + getId() + "!");
+                itemStacksUnreadable = true;
+            }
+        }
         if (itemStacks == null) {
             itemStacks = new ArrayList<>();
         }
@@ -115,5 +156,78 @@ public class MongoSnapshot extends MongoDbo implements Snapshot<ObjectId> {
     @Override
     public void setItemStacks(List<SerializedItemStack> itemStacks) {
         this.itemStacks = Objects.requireNonNull(itemStacks, "itemStacks cannot be null");
+        this.itemStacksPayload = null;
+    }
+
+    @Override
+    public ObjectId getParentId() {
+        return parentId;
+    }
+
+    @Override
+    public void setParentId(ObjectId parentId) {
+        this.parentId = parentId;
+    }
+
+    @Override
+    public List<Integer> getItemStackSlots() {
+        if (itemStackSlots == null) {
+            itemStackSlots = new ArrayList<>();
+        }
+        return itemStackSlots;
+    }
+
+    @Override
+    public void setItemStackSlots(List<Integer> itemStackSlots) {
+        this.itemStackSlots = Objects.requireNonNull(itemStackSlots, "itemStackSlots cannot be null");
+    }
+
+    @Override
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    @Override
+    public void setSchemaVersion(int schemaVersion) {
+        this.schemaVersion = schemaVersion;
+    }
+
+    @Override
+    public void setCompression(SnapshotPayloadCompression compression) {
+        this.compression = compression;
+    }
+
+    /**
+     * @throws IllegalStateException If the item stacks could not be decoded, saving would replace them with an empty list
+     */
+    @PreSave
+    public void compressItemStacks(DBObject dbObject) {
+        if (itemStacksUnreadable) {
+            throw new IllegalStateException("Snapshot " + getId() + " has unreadable item stacks and cannot be saved");
+        }
+        if (itemStacksPayload != null) {
+            // never accessed since it was loaded, written back as it was read
+            dbObject.put(ITEM_STACKS_PAYLOAD, itemStacksPayload);
+            dbObject.removeField("itemStacks");
+            return;
+        }
+        if (compression == null || !compression.isEnabled() || getItemStacks().isEmpty()) {
+            return;
+        }
+        try {
+            dbObject.put(ITEM_STACKS_PAYLOAD, SnapshotPayloadCodec.encode(itemStacks, compression));
+            dbObject.removeField("itemStacks");
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    @PostLoad
+    public void readItemStacksPayload(DBObject dbObject) {
+        Object payload = dbObject.get(ITEM_STACKS_PAYLOAD);
+        if (payload instanceof byte[]) {
+            itemStacksPayload = (byte[]) payload;
+        }
+        itemStacksUnreadable = false;
     }
 }
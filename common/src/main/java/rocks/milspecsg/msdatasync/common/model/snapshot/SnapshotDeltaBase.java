@@ -0,0 +1,130 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
+import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The full state of a snapshot, taken before it is stripped to a delta or its item stacks are interned.
+ *
+ * <p>
+ * Only references are copied. Stripping and interning replace the keys, item stacks and item stack
+ * properties of a snapshot instead of changing them, so the state stays intact without a deep copy.
+ * </p>
+ */
+public final class SnapshotDeltaBase<TKey> {
+
+    private final TKey id;
+    private final int depth;
+    private final List<String> modulesUsed;
+    private final boolean failed;
+    private final Map<String, Object> keys;
+    private final List<SerializedItemStack> itemStacks;
+    // the properties of every entry in itemStacks, null for empty slots
+    private final List<Map<String, Object>> itemStackProperties;
+
+    private SnapshotDeltaBase(TKey id, int depth, List<String> modulesUsed, boolean failed, Map<String, Object> keys,
+                              List<SerializedItemStack> itemStacks, List<Map<String, Object>> itemStackProperties) {
+        this.id = id;
+        this.depth = depth;
+        this.modulesUsed = modulesUsed;
+        this.failed = failed;
+        this.keys = keys;
+        this.itemStacks = itemStacks;
+        this.itemStackProperties = itemStackProperties;
+    }
+
+    /**
+     * @param snapshot A full snapshot, see {@code SnapshotRepository#materialize}
+     */
+    public static <TKey> SnapshotDeltaBase<TKey> of(Snapshot<TKey> snapshot) {
+        List<SerializedItemStack> itemStacks = new ArrayList<>(snapshot.getItemStacks());
+        List<Map<String, Object>> itemStackProperties = new ArrayList<>(itemStacks.size());
+        for (SerializedItemStack itemStack : itemStacks) {
+            itemStackProperties.add(itemStack == null ? null : itemStack.getProperties());
+        }
+        return new SnapshotDeltaBase<>(snapshot.getId(), 0, new ArrayList<>(snapshot.getModulesUsed()), !snapshot.getModulesFailed().isEmpty(),
+            new HashMap<>(snapshot.getKeys()), itemStacks, itemStackProperties);
+    }
+
+    /**
+     * @param id    The id the snapshot was stored with
+     * @param depth The number of parents of the stored snapshot, 0 for a keyframe
+     * @return This state as the parent of later snapshots. It can no longer {@link #restore(Snapshot)}
+     */
+    public SnapshotDeltaBase<TKey> storedAs(TKey id, int depth) {
+        return new SnapshotDeltaBase<>(id, depth, modulesUsed, failed, keys, null, itemStackProperties);
+    }
+
+    /**
+     * Turns {@code snapshot}, which this state was taken {@link #of(Snapshot)}, back into a full snapshot,
+     * for example to store it as a keyframe after its parent was deleted. Its item stacks must have been released first
+     */
+    public void restore(Snapshot<TKey> snapshot) {
+        if (itemStacks == null) {
+            throw new IllegalStateException("Only the state of a snapshot that was not stored yet can be restored");
+        }
+        for (int slot = 0; slot < itemStacks.size(); slot++) {
+            if (itemStacks.get(slot) != null) {
+                itemStacks.get(slot).setProperties(itemStackProperties.get(slot));
+            }
+        }
+        snapshot.setKeys(new HashMap<>(keys));
+        snapshot.setItemStacks(new ArrayList<>(itemStacks));
+        snapshot.setItemStackSlots(new ArrayList<>());
+        snapshot.setParentId(null);
+    }
+
+    public TKey getId() {
+        return id;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    public List<String> getModulesUsed() {
+        return Collections.unmodifiableList(modulesUsed);
+    }
+
+    /**
+     * @return Whether a module failed, such a snapshot cannot be the parent of a delta
+     */
+    public boolean isFailed() {
+        return failed;
+    }
+
+    public Map<String, Object> getKeys() {
+        return Collections.unmodifiableMap(keys);
+    }
+
+    /**
+     * @return The properties of the item stack in every slot, {@code null} for empty slots
+     */
+    public List<Map<String, Object>> getItemStackProperties() {
+        return Collections.unmodifiableList(itemStackProperties);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
+import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Turns full snapshots into deltas of their parent and back.
+ *
+ * <p>
+ * A delta snapshot has a {@link Snapshot#getParentId() parent id}, only the keys whose value changed
+ * and only the item stacks of the slots listed in {@link Snapshot#getItemStackSlots()}.
+ * A delta always lists at least one slot so that an empty slot list keeps meaning "every slot".
+ * Snapshots that remove keys, change the number of slots or use different modules than their parent are stored as keyframes.
+ * </p>
+ */
+public final class SnapshotDeltas {
+
+    private SnapshotDeltas() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    /**
+     * Strips everything from {@code snapshot} that did not change since {@code parent}.
+     *
+     * @param snapshot A full snapshot that has not been saved yet
+     * @param parent   The full state of the previous snapshot, see {@code SnapshotRepository#materialize}
+     * @return Whether {@code snapshot} was turned into a delta. If not, it is left untouched and should be saved as a keyframe
+     */
+    public static <TKey> boolean toDelta(Snapshot<TKey> snapshot, Snapshot<TKey> parent) {
+        return toDelta(snapshot, SnapshotDeltaBase.of(parent));
+    }
+
+    /**
+     * Strips everything from {@code snapshot} that did not change since {@code parent}.
+     *
+     * @param snapshot A full snapshot that has not been saved yet
+     * @param parent   The full state of the previous snapshot, for example kept since it was uploaded
+     * @return Whether {@code snapshot} was turned into a delta. If not, it is left untouched and should be saved as a keyframe
+     */
+    public static <TKey> boolean toDelta(Snapshot<TKey> snapshot, SnapshotDeltaBase<TKey> parent) {
+        List<Map<String, Object>> parentItemStacks = parent.getItemStackProperties();
+        if (!snapshot.getModulesUsed().equals(parent.getModulesUsed())
+            || !snapshot.getModulesFailed().isEmpty()
+            || parent.isFailed()
+            || !snapshot.getKeys().keySet().containsAll(parent.getKeys().keySet())
+            || snapshot.getItemStacks().size() != parentItemStacks.size()) {
+            return false;
+        }
+
+        Map<String, Object> changedKeys = new HashMap<>();
+        for (Map.Entry<String, Object> entry : snapshot.getKeys().entrySet()) {
+            if (!SnapshotValues.deepEquals(entry.getValue(), parent.getKeys().get(entry.getKey()))) {
+                changedKeys.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        List<SerializedItemStack> itemStacks = snapshot.getItemStacks();
+        List<SerializedItemStack> changedItemStacks = new ArrayList<>();
+        List<Integer> changedSlots = new ArrayList<>();
+        for (int slot = 0; slot < itemStacks.size(); slot++) {
+            if (!equals(itemStacks.get(slot), parentItemStacks.get(slot))) {
+                changedItemStacks.add(itemStacks.get(slot));
+                changedSlots.add(slot);
+            }
+        }
+        if (changedSlots.isEmpty() && !itemStacks.isEmpty()) {
+            // nothing changed, still write one slot, see class doc
+            changedItemStacks.add(itemStacks.get(0));
+            changedSlots.add(0);
+        }
+
+        snapshot.setParentId(parent.getId());
+        snapshot.setKeys(changedKeys);
+        if (!itemStacks.isEmpty()) {
+            snapshot.setItemStacks(changedItemStacks);
+            snapshot.setItemStackSlots(changedSlots);
+        }
+        return true;
+    }
+
+    /**
+     * Applies a snapshot on top of the full state of its parent.
+     *
+     * @param keys       The keys of the parent, updated in place
+     * @param itemStacks The item stacks of the parent, updated in place
+     * @throws IllegalStateException If {@code snapshot} changes a slot the parent does not have, which means it is
+     *                               not the state {@code snapshot} was stripped against
+     */
+    public static void apply(Map<String, Object> keys, List<SerializedItemStack> itemStacks, Snapshot<?> snapshot) {
+        if (snapshot.getParentId() == null) {
+            keys.clear();
+        }
+        keys.putAll(snapshot.getKeys());
+        List<Integer> slots = snapshot.getItemStackSlots();
+        if (slots.isEmpty()) {
+            itemStacks.clear();
+            itemStacks.addAll(snapshot.getItemStacks());
+            return;
+        }
+        List<SerializedItemStack> changed = snapshot.getItemStacks();
+        for (int i = 0; i < slots.size() && i < changed.size(); i++) {
+            int slot = slots.get(i);
+            if (slot >= itemStacks.size()) {
+                throw new IllegalStateException("Snapshot " + snapshot.getId() + " changes slot " + slot + " but its parent only has " + itemStacks.size());
+            }
+            itemStacks.set(slot, changed.get(i));
+        }
+    }
+
+    /**
+     * Folds {@code removed} into its child so that the child no longer depends on it.
+     * The child is reparented to the parent of {@code removed}, or becomes a keyframe if {@code removed} was one.
+     */
+    public static <TKey> void merge(Snapshot<TKey> removed, Snapshot<TKey> child) {
+        Map<String, Object> keys = new HashMap<>(removed.getKeys());
+        keys.putAll(child.getKeys());
+
+        List<Integer> childSlots = child.getItemStackSlots();
+        if (!childSlots.isEmpty()) {
+            if (removed.getItemStackSlots().isEmpty()) {
+                List<SerializedItemStack> itemStacks = new ArrayList<>(removed.getItemStacks());
+                apply(new HashMap<>(), itemStacks, child);
+                child.setItemStacks(itemStacks);
+                child.setItemStackSlots(new ArrayList<>());
+            } else {
+                TreeMap<Integer, SerializedItemStack> changed = new TreeMap<>();
+                put(changed, removed);
+                put(changed, child);
+                child.setItemStacks(new ArrayList<>(changed.values()));
+                child.setItemStackSlots(new ArrayList<>(changed.keySet()));
+            }
+        }
+
+        child.setKeys(keys);
+        child.setParentId(removed.getParentId());
+    }
+
+    private static void put(Map<Integer, SerializedItemStack> changed, Snapshot<?> snapshot) {
+        List<Integer> slots = snapshot.getItemStackSlots();
+        List<SerializedItemStack> itemStacks = snapshot.getItemStacks();
+        for (int i = 0; i < slots.size() && i < itemStacks.size(); i++) {
+            changed.put(slots.get(i), itemStacks.get(i));
+        }
+    }
+
+    private static boolean equals(SerializedItemStack itemStack, Map<String, Object> parentProperties) {
+        if (itemStack == null || parentProperties == null) {
+            return itemStack == null && parentProperties == null;
+        }
+        return SnapshotValues.deepEquals(itemStack.getProperties(), parentProperties);
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
+import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+
+import java.util.Objects;
+
+/**
+ * Cheap fingerprints of the player data in a snapshot, used to tell whether a player changed since their last upload.
+ *
+ * <p>
+ * Fingerprints are built from {@link SnapshotValues#deepHashCode(Object)} and are only meant to be compared within the same process.
+ * They are never stored.
+ * </p>
+ */
+public final class SnapshotFingerprints {
+
+    private SnapshotFingerprints() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    /**
+     * @param snapshot A full snapshot that has not been turned into a delta or had its item stacks interned yet
+     * @return A fingerprint that is equal for snapshots with equal modules, keys and item stacks
+     */
+    public static long fingerprint(Snapshot<?> snapshot) {
+        long fingerprint = mix(0, Objects.hashCode(snapshot.getModulesUsed()));
+        fingerprint = mix(fingerprint, Objects.hashCode(snapshot.getModulesFailed()));
+        fingerprint = mix(fingerprint, SnapshotValues.deepHashCode(snapshot.getKeys()));
+        if (snapshot.getItemStacks() != null) {
+            // per slot so that moving an item to another slot changes the fingerprint
+            for (SerializedItemStack itemStack : snapshot.getItemStacks()) {
+                fingerprint = mix(fingerprint, SnapshotValues.deepHashCode(itemStack.getProperties()));
+            }
+        }
+        return fingerprint;
+    }
+
+    private static long mix(long fingerprint, int value) {
+        long h = (fingerprint ^ value) * 0x9E3779B97F4A7C15L;
+        return h ^ (h >>> 32);
+    }
+}
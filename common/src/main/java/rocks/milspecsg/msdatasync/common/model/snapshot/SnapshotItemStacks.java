@@ -0,0 +1,186 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
+
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Content addressing for the shared item stack store.
+ *
+ * <p>
+ * Item stacks are stored once per distinct content and snapshots only keep a reference to them.
+ * A reference is an ordinary {@link SerializedItemStack} whose only property is {@link #REFERENCE_KEY}
+ * with the hash of the content, so references take part in deltas like any other item stack.
+ * The hash is taken over the payload of the properties with all maps sorted by key.
+ * </p>
+ *
+ * <p>
+ * Stacks whose payload is not larger than a reference, like empty slots, are kept inline.
+ * </p>
+ */
+public final class SnapshotItemStacks {
+
+    public static final String REFERENCE_KEY = "msdatasync:itemStack";
+
+    private static final int HASH_LENGTH = 16;
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private static volatile boolean enabled = true;
+
+    private SnapshotItemStacks() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    /**
+     * @param enabled Whether item stacks of new snapshots are moved to the shared store. References are always resolved
+     */
+    public static void setEnabled(boolean enabled) {
+        SnapshotItemStacks.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static Optional<String> getReference(SerializedItemStack itemStack) {
+        if (itemStack == null || itemStack.getProperties() == null || itemStack.getProperties().size() != 1) {
+            return Optional.empty();
+        }
+        Object hash = itemStack.getProperties().get(REFERENCE_KEY);
+        return hash instanceof String ? Optional.of((String) hash) : Optional.empty();
+    }
+
+    public static Map<String, Object> createReference(String hash) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put(REFERENCE_KEY, hash);
+        return properties;
+    }
+
+    /**
+     * @return How often each hash is referenced by {@code itemStacks}
+     */
+    public static Map<String, Integer> countReferences(Collection<SerializedItemStack> itemStacks) {
+        Map<String, Integer> references = new HashMap<>();
+        for (SerializedItemStack itemStack : itemStacks) {
+            getReference(itemStack).ifPresent(hash -> references.merge(hash, 1, Integer::sum));
+        }
+        return references;
+    }
+
+    /**
+     * @return The reference counts in {@code a} that exceed those in {@code b}
+     */
+    public static Map<String, Integer> subtract(Map<String, Integer> a, Map<String, Integer> b) {
+        Map<String, Integer> result = new HashMap<>();
+        for (Map.Entry<String, Integer> entry : a.entrySet()) {
+            int count = entry.getValue() - b.getOrDefault(entry.getKey(), 0);
+            if (count > 0) {
+                result.put(entry.getKey(), count);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return The payload to store for these properties, or empty if they should be kept inline
+     */
+    public static Optional<byte[]> encode(Map<String, Object> properties) throws IOException {
+        byte[] payload = SnapshotPayloadCodec.encodeUncompressed(sort(properties));
+        if (payload.length <= HASH_LENGTH * 2 + REFERENCE_KEY.length()) {
+            return Optional.empty();
+        }
+        return Optional.of(payload);
+    }
+
+    public static String hash(byte[] payload) {
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // every java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+        byte[] hash = digest.digest(payload);
+        char[] chars = new char[HASH_LENGTH * 2];
+        for (int i = 0; i < HASH_LENGTH; i++) {
+            chars[i * 2] = HEX[(hash[i] >> 4) & 0xF];
+            chars[i * 2 + 1] = HEX[hash[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @return A copy of {@code value} in which every map is sorted by key, so that equal content always has the same payload
+     */
+    private static Object sort(Object value) {
+        if (value instanceof Map) {
+            Map<String, Object> sorted = new TreeMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                if (!(entry.getKey() instanceof String)) {
+                    return value;
+                }
+                sorted.put((String) entry.getKey(), sort(entry.getValue()));
+            }
+            return sorted;
+        } else if (value instanceof List) {
+            List<Object> sorted = new ArrayList<>();
+            for (Object element : (List<?>) value) {
+                sorted.add(sort(element));
+            }
+            return sorted;
+        }
+        return value;
+    }
+
+    /**
+     * Replaces the properties of every reference in {@code itemStacks} with the stored content
+     *
+     * @return Whether every reference could be resolved
+     */
+    public static boolean resolve(List<SerializedItemStack> itemStacks, Map<String, Map<String, Object>> stored) {
+        boolean success = true;
+        for (SerializedItemStack itemStack : itemStacks) {
+            Optional<String> optionalHash = getReference(itemStack);
+            if (!optionalHash.isPresent()) {
+                continue;
+            }
+            Map<String, Object> properties = stored.get(optionalHash.get());
+            if (properties == null) {
+                System.err.println("[MSDataSync] Could not find item stack " + optionalHash.get() + "! Replacing it with an empty slot");
+                itemStack.setProperties(new HashMap<>());
+                success = false;
+            } else {
+                itemStack.setProperties(new HashMap<>(properties));
+            }
+        }
+        return success;
+    }
+}
@@ -0,0 +1,547 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
+import rocks.milspecsg.msrepository.api.model.Mappable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.Supplier;
+
+/**
+ * Binary codec for snapshot payloads (modules, keys and item stacks).
+ *
+ * <p>
+ * A payload starts with the magic bytes {@code MS} followed by a format version. The version is followed by
+ * a string table that holds every distinct string once and by the encoded value, which refers to strings by
+ * their index in the table. Numbers are written as zig-zag varints and every value is prefixed with a one byte
+ * tag so that the payload can be decoded without knowing its shape in advance.
+ * </p>
+ *
+ * <p>
+ * Values of types this codec does not know can be stored by a {@link ValueExtension}, which writes and reads them
+ * with the same string table and varints.
+ * </p>
+ *
+ * <p>
+ * Payloads can additionally be compressed by {@link SnapshotPayloadCompression}, which is detected when decoding.
+ * </p>
+ *
+ * <p>
+ * Payloads written with java serialization before this codec existed start with the java serialization magic
+ * {@code 0xACED} and are still decoded through {@link Mappable#deserialize(InputStream)}.
+ * </p>
+ */
+public final class SnapshotPayloadCodec {
+
+    public static final int VERSION = 1;
+
+    private static final int MAGIC_0 = 'M';
+    private static final int MAGIC_1 = 'S';
+
+    private static final int LEGACY_MAGIC_0 = 0xAC;
+    private static final int LEGACY_MAGIC_1 = 0xED;
+
+    private static final int TAG_NULL = 0;
+    private static final int TAG_TRUE = 1;
+    private static final int TAG_FALSE = 2;
+    private static final int TAG_BYTE = 3;
+    private static final int TAG_SHORT = 4;
+    private static final int TAG_INT = 5;
+    private static final int TAG_LONG = 6;
+    private static final int TAG_FLOAT = 7;
+    private static final int TAG_DOUBLE = 8;
+    private static final int TAG_STRING = 9;
+    private static final int TAG_LIST = 10;
+    private static final int TAG_MAP = 11;
+    private static final int TAG_ITEM_STACK = 12;
+    private static final int TAG_BYTE_ARRAY = 13;
+    private static final int TAG_INT_ARRAY = 14;
+    private static final int TAG_LONG_ARRAY = 15;
+    private static final int TAG_SERIALIZABLE = 16;
+    private static final int TAG_EXTENSION = 17;
+
+    private SnapshotPayloadCodec() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    /**
+     * Encodes {@code value} and compresses it if {@code compression} is enabled
+     *
+     * @param value       Value to encode. Values that this codec does not know natively must be {@link Serializable}
+     * @param compression Compression settings of the data store the payload is written to, may be null
+     */
+    public static byte[] encode(Object value, SnapshotPayloadCompression compression) throws IOException {
+        byte[] payload = encodeUncompressed(value);
+        return compression == null ? payload : compression.compress(payload);
+    }
+
+    /**
+     * @param value Value to encode. Values that this codec does not know natively must be {@link Serializable}
+     */
+    public static byte[] encodeUncompressed(Object value) throws IOException {
+        return encodeUncompressed(value, null);
+    }
+
+    /**
+     * @param value     Value to encode. Values that neither this codec nor {@code extension} know must be {@link Serializable}
+     * @param extension Writes the values it accepts, may be null. The payload has to be decoded with the same extension
+     */
+    public static byte[] encodeUncompressed(Object value, ValueExtension extension) throws IOException {
+        Map<String, Integer> strings = new LinkedHashMap<>();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        new PayloadWriter(new DataOutputStream(body), strings, extension).writeValue(value);
+
+        ByteArrayOutputStream result = new ByteArrayOutputStream(body.size() + 64);
+        DataOutputStream out = new DataOutputStream(result);
+        out.writeByte(MAGIC_0);
+        out.writeByte(MAGIC_1);
+        writeVarInt(out, VERSION);
+        writeVarInt(out, strings.size());
+        for (String string : strings.keySet()) {
+            byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+            writeVarInt(out, bytes.length);
+            out.write(bytes);
+        }
+        body.writeTo(out);
+        out.flush();
+        return result.toByteArray();
+    }
+
+    /**
+     * Decodes a payload written by {@link #encodeUncompressed(Object)} or a legacy java serialized payload.
+     *
+     * @param inputStream         Stream to read from, may be null
+     * @param itemStackSupplier   Creates the item stacks that decoded item stack properties are put in
+     * @return The decoded value or {@link Optional#empty()} if there was nothing to decode or decoding failed
+     */
+    public static <T> Optional<T> decode(InputStream inputStream, Supplier<? extends SerializedItemStack> itemStackSupplier) {
+        return decode(inputStream, itemStackSupplier, null, null);
+    }
+
+    /**
+     * Decodes a payload written by {@link #encode(Object, SnapshotPayloadCompression)} or a legacy java serialized payload.
+     *
+     * @param inputStream       Stream to read from, may be null
+     * @param itemStackSupplier Creates the item stacks that decoded item stack properties are put in
+     * @param compression       Compression settings of the data store the payload was read from, provides its dictionaries
+     * @return The decoded value or {@link Optional#empty()} if there was nothing to decode or decoding failed
+     */
+    public static <T> Optional<T> decode(InputStream inputStream, Supplier<? extends SerializedItemStack> itemStackSupplier, SnapshotPayloadCompression compression) {
+        return decode(inputStream, itemStackSupplier, compression, null);
+    }
+
+    /**
+     * Decodes a payload written by {@link #encodeUncompressed(Object, ValueExtension)}
+     *
+     * @param inputStream       Stream to read from, may be null
+     * @param itemStackSupplier Creates the item stacks that decoded item stack properties are put in, may be null if there are none
+     * @param extension         The extension the payload was written with, may be null
+     * @return The decoded value or {@link Optional#empty()} if there was nothing to decode or decoding failed
+     */
+    public static <T> Optional<T> decode(InputStream inputStream, Supplier<? extends SerializedItemStack> itemStackSupplier, ValueExtension extension) {
+        return decode(inputStream, itemStackSupplier, null, extension);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Optional<T> decode(InputStream inputStream, Supplier<? extends SerializedItemStack> itemStackSupplier,
+                                          SnapshotPayloadCompression compression, ValueExtension extension) {
+        if (inputStream == null) {
+            return Optional.empty();
+        }
+        try {
+            PushbackInputStream pushbackInputStream = new PushbackInputStream(inputStream, 2);
+            int b0 = pushbackInputStream.read();
+            int b1 = pushbackInputStream.read();
+            if (b0 == LEGACY_MAGIC_0 && b1 == LEGACY_MAGIC_1) {
+                pushbackInputStream.unread(new byte[]{(byte) b0, (byte) b1});
+                return Mappable.deserialize(pushbackInputStream);
+            }
+            if (b0 == SnapshotPayloadCompression.MAGIC_0 && b1 == SnapshotPayloadCompression.MAGIC_1) {
+                SnapshotPayloadCompression decompressor = compression == null ? SnapshotPayloadCompression.WITHOUT_DICTIONARIES : compression;
+                byte[] payload = decompressor.decompress(readRemaining(pushbackInputStream));
+                return decode(new ByteArrayInputStream(payload), itemStackSupplier, compression, extension);
+            }
+            if (b0 != MAGIC_0 || b1 != MAGIC_1) {
+                return Optional.empty();
+            }
+            DataInputStream in = new DataInputStream(pushbackInputStream);
+            String[] strings = readHeader(in);
+            return Optional.ofNullable((T) new PayloadReader(in, strings, itemStackSupplier, extension).readValue());
+        } catch (IOException | RuntimeException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * @param payload Uncompressed payload written by {@link #encodeUncompressed(Object)}
+     * @return The string table of {@code payload} or an empty list if it is not a payload of this codec
+     */
+    public static List<String> readStringTable(byte[] payload) {
+        if (payload.length < 2 || payload[0] != MAGIC_0 || payload[1] != MAGIC_1) {
+            return Collections.emptyList();
+        }
+        try {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload, 2, payload.length - 2));
+            return Arrays.asList(readHeader(in));
+        } catch (IOException e) {
+            return Collections.emptyList();
+        }
+    }
+
+    private static String[] readHeader(DataInputStream in) throws IOException {
+        int version = readVarInt(in);
+        if (version != VERSION) {
+            throw new IOException("Unsupported snapshot payload version " + version);
+        }
+        int stringCount = readVarInt(in);
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; i++) {
+            byte[] bytes = new byte[readVarInt(in)];
+            in.readFully(bytes);
+            strings[i] = new String(bytes, StandardCharsets.UTF_8);
+        }
+        return strings;
+    }
+
+    private static byte[] readRemaining(InputStream in) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = in.read(buffer)) >= 0) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Stores values of the types it {@link #accepts(Object) accepts} in a payload
+     */
+    public interface ValueExtension {
+
+        boolean accepts(Object value);
+
+        /**
+         * Writes {@code value}, which this extension accepted
+         */
+        void write(PayloadWriter writer, Object value) throws IOException;
+
+        /**
+         * Reads a value written by {@link #write(PayloadWriter, Object)}
+         */
+        Object read(PayloadReader reader) throws IOException;
+    }
+
+    /**
+     * Writes the body of a payload, collecting the strings for its string table
+     */
+    public static final class PayloadWriter {
+
+        private final DataOutputStream out;
+        private final Map<String, Integer> strings;
+        private final ValueExtension extension;
+
+        private PayloadWriter(DataOutputStream out, Map<String, Integer> strings, ValueExtension extension) {
+            this.out = out;
+            this.strings = strings;
+            this.extension = extension;
+        }
+
+        public void writeValue(Object value) throws IOException {
+            if (value == null) {
+                out.writeByte(TAG_NULL);
+            } else if (value instanceof Boolean) {
+                out.writeByte((Boolean) value ? TAG_TRUE : TAG_FALSE);
+            } else if (value instanceof Byte) {
+                out.writeByte(TAG_BYTE);
+                out.writeByte((Byte) value);
+            } else if (value instanceof Short) {
+                out.writeByte(TAG_SHORT);
+                writeVarLong(out, zigZag((Short) value));
+            } else if (value instanceof Integer) {
+                out.writeByte(TAG_INT);
+                writeVarLong(out, zigZag((Integer) value));
+            } else if (value instanceof Long) {
+                out.writeByte(TAG_LONG);
+                writeVarLong(out, zigZag((Long) value));
+            } else if (value instanceof Float) {
+                out.writeByte(TAG_FLOAT);
+                out.writeFloat((Float) value);
+            } else if (value instanceof Double) {
+                out.writeByte(TAG_DOUBLE);
+                out.writeDouble((Double) value);
+            } else if (value instanceof String) {
+                out.writeByte(TAG_STRING);
+                writeString((String) value);
+            } else if (extension != null && extension.accepts(value)) {
+                out.writeByte(TAG_EXTENSION);
+                extension.write(this, value);
+            } else if (value instanceof List) {
+                List<?> list = (List<?>) value;
+                out.writeByte(TAG_LIST);
+                SnapshotPayloadCodec.writeVarInt(out, list.size());
+                for (Object element : list) {
+                    writeValue(element);
+                }
+            } else if (value instanceof Map && hasStringKeys((Map<?, ?>) value)) {
+                out.writeByte(TAG_MAP);
+                writeMap((Map<?, ?>) value);
+            } else if (value instanceof SerializedItemStack) {
+                out.writeByte(TAG_ITEM_STACK);
+                writeMap(((SerializedItemStack) value).getProperties());
+            } else if (value instanceof byte[]) {
+                byte[] array = (byte[]) value;
+                out.writeByte(TAG_BYTE_ARRAY);
+                SnapshotPayloadCodec.writeVarInt(out, array.length);
+                out.write(array);
+            } else if (value instanceof int[]) {
+                int[] array = (int[]) value;
+                out.writeByte(TAG_INT_ARRAY);
+                SnapshotPayloadCodec.writeVarInt(out, array.length);
+                for (int element : array) {
+                    writeVarLong(out, zigZag(element));
+                }
+            } else if (value instanceof long[]) {
+                long[] array = (long[]) value;
+                out.writeByte(TAG_LONG_ARRAY);
+                SnapshotPayloadCodec.writeVarInt(out, array.length);
+                for (long element : array) {
+                    writeVarLong(out, zigZag(element));
+                }
+            } else if (value instanceof Serializable) {
+                // not worth a dedicated tag, fall back to java serialization for this value only
+                byte[] bytes = Mappable.serializeUnsafe(value);
+                out.writeByte(TAG_SERIALIZABLE);
+                SnapshotPayloadCodec.writeVarInt(out, bytes.length);
+                out.write(bytes);
+            } else {
+                throw new IOException("Cannot encode value of type " + value.getClass().getName());
+            }
+        }
+
+        public void writeVarInt(int value) throws IOException {
+            SnapshotPayloadCodec.writeVarInt(out, value);
+        }
+
+        /**
+         * Writes the index of {@code value} in the string table
+         */
+        public void writeString(String value) throws IOException {
+            Integer index = strings.get(value);
+            if (index == null) {
+                index = strings.size();
+                strings.put(value, index);
+            }
+            SnapshotPayloadCodec.writeVarInt(out, index);
+        }
+
+        private void writeMap(Map<?, ?> map) throws IOException {
+            SnapshotPayloadCodec.writeVarInt(out, map.size());
+            for (Map.Entry<?, ?> entry : map.entrySet()) {
+                writeString((String) entry.getKey());
+                writeValue(entry.getValue());
+            }
+        }
+
+        private static boolean hasStringKeys(Map<?, ?> map) {
+            for (Object key : map.keySet()) {
+                if (!(key instanceof String)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Reads the body of a payload written by {@link PayloadWriter}
+     */
+    public static final class PayloadReader {
+
+        private final DataInputStream in;
+        private final String[] strings;
+        private final Supplier<? extends SerializedItemStack> itemStackSupplier;
+        private final ValueExtension extension;
+
+        private PayloadReader(DataInputStream in, String[] strings, Supplier<? extends SerializedItemStack> itemStackSupplier, ValueExtension extension) {
+            this.in = in;
+            this.strings = strings;
+            this.itemStackSupplier = itemStackSupplier;
+            this.extension = extension;
+        }
+
+        public Object readValue() throws IOException {
+            int tag = in.readUnsignedByte();
+            switch (tag) {
+                case TAG_NULL:
+                    return null;
+                case TAG_TRUE:
+                    return true;
+                case TAG_FALSE:
+                    return false;
+                case TAG_BYTE:
+                    return in.readByte();
+                case TAG_SHORT:
+                    return (short) unZigZag(readVarLong(in));
+                case TAG_INT:
+                    return (int) unZigZag(readVarLong(in));
+                case TAG_LONG:
+                    return unZigZag(readVarLong(in));
+                case TAG_FLOAT:
+                    return in.readFloat();
+                case TAG_DOUBLE:
+                    return in.readDouble();
+                case TAG_STRING:
+                    return readString();
+                case TAG_LIST: {
+                    int size = SnapshotPayloadCodec.readVarInt(in);
+                    List<Object> list = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        list.add(readValue());
+                    }
+                    return list;
+                }
+                case TAG_MAP:
+                    return readMap();
+                case TAG_ITEM_STACK: {
+                    SerializedItemStack itemStack = itemStackSupplier.get();
+                    itemStack.setProperties(readMap());
+                    return itemStack;
+                }
+                case TAG_BYTE_ARRAY: {
+                    byte[] array = new byte[SnapshotPayloadCodec.readVarInt(in)];
+                    in.readFully(array);
+                    return array;
+                }
+                case TAG_INT_ARRAY: {
+                    int[] array = new int[SnapshotPayloadCodec.readVarInt(in)];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = (int) unZigZag(readVarLong(in));
+                    }
+                    return array;
+                }
+                case TAG_LONG_ARRAY: {
+                    long[] array = new long[SnapshotPayloadCodec.readVarInt(in)];
+                    for (int i = 0; i < array.length; i++) {
+                        array[i] = unZigZag(readVarLong(in));
+                    }
+                    return array;
+                }
+                case TAG_SERIALIZABLE: {
+                    byte[] bytes = new byte[SnapshotPayloadCodec.readVarInt(in)];
+                    in.readFully(bytes);
+                    return Mappable.deserialize(new ByteArrayInputStream(bytes)).orElse(null);
+                }
+                case TAG_EXTENSION:
+                    if (extension == null) {
+                        throw new IOException("Snapshot payload needs an extension to be decoded");
+                    }
+                    return extension.read(this);
+                default:
+                    throw new IOException("Unknown snapshot payload tag " + tag);
+            }
+        }
+
+        public int readVarInt() throws IOException {
+            return SnapshotPayloadCodec.readVarInt(in);
+        }
+
+        /**
+         * Reads a string written by {@link PayloadWriter#writeString(String)}
+         */
+        public String readString() throws IOException {
+            int index = SnapshotPayloadCodec.readVarInt(in);
+            if (index < 0 || index >= strings.length) {
+                throw new IOException("String index " + index + " out of bounds");
+            }
+            return strings[index];
+        }
+
+        private Map<String, Object> readMap() throws IOException {
+            int size = SnapshotPayloadCodec.readVarInt(in);
+            Map<String, Object> map = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                String key = readString();
+                map.put(key, readValue());
+            }
+            return map;
+        }
+    }
+
+    private static long zigZag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unZigZag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    static void writeVarInt(OutputStream out, int value) throws IOException {
+        writeVarLong(out, value & 0xFFFFFFFFL);
+    }
+
+    static void writeVarLong(OutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    static int readVarInt(InputStream in) throws IOException {
+        long value = readVarLong(in);
+        if (value > Integer.MAX_VALUE) {
+            throw new IOException("Varint too large");
+        }
+        return (int) value;
+    }
+
+    static long readVarLong(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
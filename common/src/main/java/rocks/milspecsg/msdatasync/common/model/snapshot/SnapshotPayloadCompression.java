@@ -0,0 +1,235 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+import java.util.zip.Adler32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Optional deflate stage for snapshot payloads written by {@link SnapshotPayloadCodec}.
+ *
+ * <p>
+ * Payloads can be compressed against a preset dictionary that is trained from existing snapshots of a deployment.
+ * Dictionaries are identified by their Adler-32 checksum, which deflate already stores in the header of every
+ * stream that uses one, so a payload always records which dictionary it needs.
+ * </p>
+ *
+ * <p>
+ * Compressed payloads start with the magic bytes {@code MZ} followed by the deflate stream of the uncompressed payload.
+ * </p>
+ *
+ * <p>
+ * Each snapshot repository owns an instance, so the level and dictionaries of one data store never leak into another.
+ * </p>
+ */
+public final class SnapshotPayloadCompression {
+
+    public static final int MAX_DICTIONARY_SIZE = 32 * 1024;
+
+    static final int MAGIC_0 = 'M';
+    static final int MAGIC_1 = 'Z';
+
+    /**
+     * Used to decode payloads when the caller has no compression settings, can only read payloads compressed without a dictionary
+     */
+    static final SnapshotPayloadCompression WITHOUT_DICTIONARIES = new SnapshotPayloadCompression();
+
+    private final Map<Integer, byte[]> dictionaries = new ConcurrentHashMap<>();
+
+    private volatile int level = 0;
+    private volatile byte[] activeDictionary;
+    private volatile Function<Integer, Optional<byte[]>> dictionaryLoader = id -> Optional.empty();
+
+    /**
+     * @param level Deflate level from 1 to 9, 0 disables compression of new payloads
+     */
+    public void setLevel(int level) {
+        this.level = Math.max(0, Math.min(Deflater.BEST_COMPRESSION, level));
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    public boolean isEnabled() {
+        return level > 0;
+    }
+
+    /**
+     * Makes a dictionary available for decompression and uses it to compress new payloads
+     *
+     * @return The id of the dictionary
+     */
+    public int setActiveDictionary(byte[] dictionary) {
+        int id = addDictionary(dictionary);
+        activeDictionary = dictionary;
+        return id;
+    }
+
+    /**
+     * Makes a dictionary available for decompression only
+     *
+     * @return The id of the dictionary
+     */
+    public int addDictionary(byte[] dictionary) {
+        int id = getDictionaryId(dictionary);
+        dictionaries.put(id, dictionary);
+        return id;
+    }
+
+    /**
+     * @param dictionaryLoader Looks up dictionaries by id that are not known yet, for example ones that were
+     *                         trained by another server sharing the same database
+     */
+    public void setDictionaryLoader(Function<Integer, Optional<byte[]>> dictionaryLoader) {
+        this.dictionaryLoader = dictionaryLoader;
+    }
+
+    public Optional<Integer> getActiveDictionaryId() {
+        byte[] dictionary = activeDictionary;
+        return dictionary == null ? Optional.empty() : Optional.of(getDictionaryId(dictionary));
+    }
+
+    public static int getDictionaryId(byte[] dictionary) {
+        Adler32 adler32 = new Adler32();
+        adler32.update(dictionary, 0, dictionary.length);
+        return (int) adler32.getValue();
+    }
+
+    /**
+     * @return The compressed payload, or {@code payload} itself if compression is disabled or would not make it smaller
+     */
+    byte[] compress(byte[] payload) {
+        int level = this.level;
+        if (level <= 0) {
+            return payload;
+        }
+        byte[] dictionary = activeDictionary;
+        Deflater deflater = new Deflater(level);
+        try {
+            if (dictionary != null) {
+                deflater.setDictionary(dictionary);
+            }
+            deflater.setInput(payload);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(payload.length / 2 + 16);
+            out.write(MAGIC_0);
+            out.write(MAGIC_1);
+            byte[] buffer = new byte[4096];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.size() < payload.length ? out.toByteArray() : payload;
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /**
+     * @param compressed Deflate stream, without the magic bytes
+     */
+    byte[] decompress(byte[] compressed) throws IOException {
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(compressed);
+            ByteArrayOutputStream out = new ByteArrayOutputStream(compressed.length * 4);
+            byte[] buffer = new byte[4096];
+            while (!inflater.finished()) {
+                int read = inflater.inflate(buffer);
+                if (read > 0) {
+                    out.write(buffer, 0, read);
+                } else if (inflater.needsDictionary()) {
+                    int id = (int) inflater.getAdler();
+                    byte[] dictionary = dictionaries.get(id);
+                    if (dictionary == null) {
+                        dictionary = dictionaryLoader.apply(id).orElseThrow(() -> new IOException("Missing snapshot compression dictionary " + Integer.toHexString(id)));
+                        dictionaries.put(id, dictionary);
+                    }
+                    inflater.setDictionary(dictionary);
+                } else if (inflater.needsInput()) {
+                    throw new IOException("Truncated compressed snapshot payload");
+                }
+            }
+            return out.toByteArray();
+        } catch (DataFormatException e) {
+            throw new IOException(e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /**
+     * Builds a dictionary out of the strings that occur in the most samples. The most common strings are put
+     * at the end of the dictionary because deflate can reference those with the shortest distances.
+     *
+     * @param samples Uncompressed payloads written by {@link SnapshotPayloadCodec}
+     * @return The trained dictionary, or {@link Optional#empty()} if the samples have nothing in common
+     */
+    public static Optional<byte[]> trainDictionary(Collection<byte[]> samples) {
+        Map<String, Integer> occurrences = new HashMap<>();
+        for (byte[] sample : samples) {
+            Set<String> strings = new HashSet<>(SnapshotPayloadCodec.readStringTable(sample));
+            for (String string : strings) {
+                occurrences.merge(string, 1, Integer::sum);
+            }
+        }
+        List<Map.Entry<String, Integer>> candidates = new ArrayList<>();
+        for (Map.Entry<String, Integer> entry : occurrences.entrySet()) {
+            if (entry.getValue() > 1) {
+                candidates.add(entry);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return Optional.empty();
+        }
+        // most common first so that the budget is spent on them
+        candidates.sort(Map.Entry.<String, Integer>comparingByValue(Comparator.reverseOrder()));
+        List<byte[]> selected = new ArrayList<>();
+        int size = 0;
+        for (Map.Entry<String, Integer> entry : candidates) {
+            byte[] bytes = entry.getKey().getBytes(StandardCharsets.UTF_8);
+            if (size + bytes.length > MAX_DICTIONARY_SIZE) {
+                continue;
+            }
+            selected.add(bytes);
+            size += bytes.length;
+        }
+        ByteArrayOutputStream dictionary = new ByteArrayOutputStream(size);
+        for (int i = selected.size() - 1; i >= 0; i--) {
+            byte[] bytes = selected.get(i);
+            dictionary.write(bytes, 0, bytes.length);
+        }
+        return Optional.of(dictionary.toByteArray());
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Registry of {@link SnapshotUpgrader}s that bring old snapshots up to {@link #CURRENT_VERSION} when they are read.
+ *
+ * <p>
+ * Stored snapshots are never migrated all at once. Every snapshot records the version it was written in and
+ * is upgraded in memory once it is materialized, which lets format changes ship without touching old data.
+ * Snapshots can optionally be rewritten in the current version in the background.
+ * </p>
+ *
+ * <ul>
+ *     <li>0: snapshots written before the version was recorded</li>
+ *     <li>1: {@code ench} lists of item stacks are always stored as lists</li>
+ * </ul>
+ */
+public final class SnapshotSchema {
+
+    public static final int CURRENT_VERSION = 1;
+
+    private static volatile List<SnapshotUpgrader> upgraders = new ArrayList<>();
+
+    static {
+        register(new EnchantmentListUpgrader());
+    }
+
+    private SnapshotSchema() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    /**
+     * Upgraders of the same version are applied in the order they were registered
+     */
+    public static synchronized void register(SnapshotUpgrader upgrader) {
+        if (upgrader.getVersion() < 1 || upgrader.getVersion() > CURRENT_VERSION) {
+            throw new IllegalArgumentException("Snapshot upgrader version must be between 1 and " + CURRENT_VERSION);
+        }
+        List<SnapshotUpgrader> upgraders = new ArrayList<>(SnapshotSchema.upgraders);
+        upgraders.add(upgrader);
+        // stable, so registration order is kept within a version
+        upgraders.sort(Comparator.comparingInt(SnapshotUpgrader::getVersion));
+        SnapshotSchema.upgraders = upgraders;
+    }
+
+    public static boolean needsUpgrade(Snapshot<?> snapshot) {
+        return snapshot.getSchemaVersion() < CURRENT_VERSION;
+    }
+
+    /**
+     * Applies every upgrader newer than the version of {@code snapshot} and marks it as current.
+     * Only changes the snapshot in memory
+     *
+     * @return Whether the snapshot was changed
+     */
+    public static boolean upgrade(Snapshot<?> snapshot) {
+        if (!needsUpgrade(snapshot)) {
+            return false;
+        }
+        int version = snapshot.getSchemaVersion();
+        for (SnapshotUpgrader upgrader : upgraders) {
+            if (upgrader.getVersion() > version) {
+                upgrader.upgrade(snapshot);
+            }
+        }
+        snapshot.setSchemaVersion(CURRENT_VERSION);
+        return true;
+    }
+}
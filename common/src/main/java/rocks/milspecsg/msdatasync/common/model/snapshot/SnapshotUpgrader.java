@@ -0,0 +1,40 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+
+/**
+ * Migrates the data of snapshots written in an older format when they are read.
+ *
+ * @see SnapshotSchema#register(SnapshotUpgrader)
+ */
+public interface SnapshotUpgrader {
+
+    /**
+     * @return The schema version this upgrader produces. It is applied to every snapshot older than that
+     */
+    int getVersion();
+
+    /**
+     * Delta chains and shared item stacks can mix data of different versions in one snapshot,
+     * so data that is already in the new format must be left as it is
+     */
+    void upgrade(Snapshot<?> snapshot);
+}
@@ -0,0 +1,111 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Compares the values of snapshot keys and item stack properties by content.
+ *
+ * <p>
+ * Unlike {@link Object#equals(Object)} of maps and lists, arrays nested anywhere in a value,
+ * like the payload of a binary item stack, are compared and hashed by their elements.
+ * </p>
+ */
+public final class SnapshotValues {
+
+    private SnapshotValues() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    public static boolean deepEquals(Object a, Object b) {
+        if (a == b) {
+            return true;
+        }
+        if (a == null || b == null) {
+            return false;
+        }
+        if (a instanceof Map && b instanceof Map) {
+            Map<?, ?> mapA = (Map<?, ?>) a;
+            Map<?, ?> mapB = (Map<?, ?>) b;
+            if (mapA.size() != mapB.size()) {
+                return false;
+            }
+            for (Map.Entry<?, ?> entry : mapA.entrySet()) {
+                Object value = mapB.get(entry.getKey());
+                if ((value == null && !mapB.containsKey(entry.getKey())) || !deepEquals(entry.getValue(), value)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        if (a instanceof List && b instanceof List) {
+            List<?> listA = (List<?>) a;
+            List<?> listB = (List<?>) b;
+            if (listA.size() != listB.size()) {
+                return false;
+            }
+            Iterator<?> iteratorB = listB.iterator();
+            for (Object element : listA) {
+                if (!deepEquals(element, iteratorB.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return Objects.deepEquals(a, b);
+    }
+
+    /**
+     * @return A hash code that is equal for values that are {@link #deepEquals(Object, Object)}
+     */
+    public static int deepHashCode(Object value) {
+        if (value instanceof Map) {
+            int hash = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                hash += Objects.hashCode(entry.getKey()) ^ deepHashCode(entry.getValue());
+            }
+            return hash;
+        }
+        if (value instanceof List) {
+            int hash = 1;
+            for (Object element : (List<?>) value) {
+                hash = 31 * hash + deepHashCode(element);
+            }
+            return hash;
+        }
+        if (value instanceof byte[]) {
+            return Arrays.hashCode((byte[]) value);
+        }
+        if (value instanceof int[]) {
+            return Arrays.hashCode((int[]) value);
+        }
+        if (value instanceof long[]) {
+            return Arrays.hashCode((long[]) value);
+        }
+        if (value instanceof Object[]) {
+            return Arrays.deepHashCode((Object[]) value);
+        }
+        return Objects.hashCode(value);
+    }
+}
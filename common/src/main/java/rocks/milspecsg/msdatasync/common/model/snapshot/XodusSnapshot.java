@@ -20,22 +20,30 @@ package rocks.milspecsg.msdatasync.common.model.snapshot;
 
 import jetbrains.exodus.entitystore.Entity;
 import jetbrains.exodus.entitystore.EntityId;
+import jetbrains.exodus.entitystore.PersistentEntityId;
 import jetbrains.exodus.util.ByteArraySizedInputStream;
 import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
 import rocks.milspecsg.msdatasync.api.model.snapshot.MappableSnapshot;
+import rocks.milspecsg.msdatasync.common.model.serializeditemstack.XodusSerializedItemStack;
 import rocks.milspecsg.msrepository.api.datastore.annotation.XodusEntity;
-import rocks.milspecsg.msrepository.api.model.Mappable;
 import rocks.milspecsg.msrepository.common.model.XodusDbo;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.Set;
+import java.util.function.Supplier;
 
 @XodusEntity
-public class XodusSnapshot extends XodusDbo implements MappableSnapshot<EntityId, Entity> {
+public class XodusSnapshot extends XodusDbo implements MappableSnapshot<EntityId, Entity>, CompressibleSnapshot {
 
     private String name;
 
@@ -49,6 +57,36 @@ public class XodusSnapshot extends XodusDbo implements MappableSnapshot<EntityId
 
     private List<SerializedItemStack> itemStacks;
 
+    private EntityId parentId;
+
+    private List<Integer> itemStackSlots;
+
+    private int schemaVersion;
+
+    // raw blobs, only decoded once the corresponding field is accessed
+    private byte[] modulesUsedPayload;
+
+    private byte[] modulesFailedPayload;
+
+    private byte[] keysPayload;
+
+    private byte[] itemStacksPayload;
+
+    private byte[] itemStackSlotsPayload;
+
+    // true for the blobs a metadata only read skipped, until the field is set
+    private boolean keysUnread;
+
+    private boolean itemStacksUnread;
+
+    private boolean itemStackSlotsUnread;
+
+    // blobs that could not be read or decoded. The snapshot is never written while there are any, even after
+    // the field was set, because the new value is usually derived from the empty one the failed decode left
+    private final Set<String> unreadableBlobs = new HashSet<>();
+
+    private SnapshotPayloadCompression compression;
+
     @Override
     public String getName() {
         return name;
@@ -71,6 +109,12 @@ public class XodusSnapshot extends XodusDbo implements MappableSnapshot<EntityId
 
     @Override
     public List<String> getModulesUsed() {
+        if (modulesUsed == null && modulesUsedPayload != null) {
+            modulesUsed = decode(modulesUsedPayload, "modulesUsed");
+            if (modulesUsed != null) {
+                modulesUsedPayload = null;
+            }
+        }
         if (modulesUsed == null) {
             modulesUsed = new ArrayList<>();
         }
@@ -80,10 +124,17 @@ public class XodusSnapshot extends XodusDbo implements MappableSnapshot<EntityId
     @Override
     public void setModulesUsed(List<String> modulesUsed) {
         this.modulesUsed = Objects.requireNonNull(modulesUsed, "modulesUsed cannot be null");
+        this.modulesUsedPayload = null;
     }
 
     @Override
     public List<String> getModulesFailed() {
+        if (modulesFailed == null && modulesFailedPayload != null) {
+            modulesFailed = decode(modulesFailedPayload, "modulesFailed");
+            if (modulesFailed != null) {
+                modulesFailedPayload = null;
+            }
+        }
         if (modulesFailed == null) {
             modulesFailed = new ArrayList<>();
         }
@@ -93,10 +144,17 @@ public class XodusSnapshot extends XodusDbo implements MappableSnapshot<EntityId
     @Override
     public void setModulesFailed(List<String> modulesFailed) {
         this.modulesFailed = Objects.requireNonNull(modulesFailed, "modulesFailed cannot be null");
+        this.modulesFailedPayload = null;
     }
 
     @Override
     public Map<String, Object> getKeys() {
+        if (keys == null && keysPayload != null) {
+            keys = decode(keysPayload, "keys");
+            if (keys != null) {
+                keysPayload = null;
+            }
+        }
         if (keys == null) {
             keys = new HashMap<>();
         }
@@ -106,10 +164,18 @@ public class XodusSnapshot extends XodusDbo implements MappableSnapshot<EntityId
     @Override
     public void setKeys(Map<String, Object> keys) {
         this.keys = Objects.requireNonNull(keys, "keys cannot be null");
+        this.keysPayload = null;
+        this.keysUnread = false;
     }
 
     @Override
     public List<SerializedItemStack> getItemStacks() {
+        if (itemStacks == null && itemStacksPayload != null) {
+            itemStacks = decode(itemStacksPayload, "itemStacks");
+            if (itemStacks != null) {
+                itemStacksPayload = null;
+            }
+        }
         if (itemStacks == null) {
             itemStacks = new ArrayList<>();
         }
@@ -119,10 +185,64 @@ public class XodusSnapshot extends XodusDbo implements MappableSnapshot<EntityId
     @Override
     public void setItemStacks(List<SerializedItemStack> itemStacks) {
         this.itemStacks = Objects.requireNonNull(itemStacks, "itemStacks cannot be null");
+        this.itemStacksPayload = null;
+        this.itemStacksUnread = false;
+    }
+
+    @Override
+    public EntityId getParentId() {
+        return parentId;
+    }
+
+    @Override
+    public void setParentId(EntityId parentId) {
+        this.parentId = parentId;
+    }
+
+    @Override
+    public List<Integer> getItemStackSlots() {
+        if (itemStackSlots == null && itemStackSlotsPayload != null) {
+            itemStackSlots = decode(itemStackSlotsPayload, "itemStackSlots");
+            if (itemStackSlots != null) {
+                itemStackSlotsPayload = null;
+            }
+        }
+        if (itemStackSlots == null) {
+            itemStackSlots = new ArrayList<>();
+        }
+        return itemStackSlots;
+    }
+
+    @Override
+    public void setItemStackSlots(List<Integer> itemStackSlots) {
+        this.itemStackSlots = Objects.requireNonNull(itemStackSlots, "itemStackSlots cannot be null");
+        this.itemStackSlotsPayload = null;
+        this.itemStackSlotsUnread = false;
+    }
+
+    @Override
+    public int getSchemaVersion() {
+        return schemaVersion;
+    }
+
+    @Override
+    public void setSchemaVersion(int schemaVersion) {
+        this.schemaVersion = schemaVersion;
+    }
+
+    @Override
+    public void setCompression(SnapshotPayloadCompression compression) {
+        this.compression = compression;
     }
 
+    /**
+     * @throws IllegalStateException If a blob could not be read or decoded, writing would replace it with an empty value
+     */
     @Override
     public Entity writeTo(Entity object) {
+        if (!unreadableBlobs.isEmpty()) {
+            throw new IllegalStateException("Snapshot " + getId() + " has unreadable blobs " + unreadableBlobs + " and cannot be written");
+        }
         super.writeTo(object);
         if (name != null) {
             object.setProperty("name", name);
@@ -130,43 +250,116 @@ public class XodusSnapshot extends XodusDbo implements MappableSnapshot<EntityId
         if (server != null) {
             object.setProperty("server", server);
         }
-        try {
-            object.setBlob("modulesUsed", new ByteArraySizedInputStream(Mappable.serializeUnsafe(getModulesUsed())));
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (parentId != null) {
+            object.setProperty("parentId", parentId.toString());
+        } else {
+            object.deleteProperty("parentId");
         }
-        try {
-            object.setBlob("modulesFailed", new ByteArraySizedInputStream(Mappable.serializeUnsafe(getModulesFailed())));
-        } catch (IOException e) {
-            e.printStackTrace();
+        object.setProperty("schemaVersion", schemaVersion);
+        writeBlob(object, "modulesUsed", modulesUsedPayload, this::getModulesUsed);
+        writeBlob(object, "modulesFailed", modulesFailedPayload, this::getModulesFailed);
+        // blobs a metadata only read skipped are left as they are unless their field was set since
+        if (!keysUnread) {
+            writeBlob(object, "keys", keysPayload, this::getKeys);
         }
-        try {
-            object.setBlob("keys", new ByteArraySizedInputStream(Mappable.serializeUnsafe(getKeys())));
-        } catch (IOException e) {
-            e.printStackTrace();
+        if (!itemStacksUnread) {
+            writeBlob(object, "itemStacks", itemStacksPayload, this::getItemStacks);
+        }
+        if (!itemStackSlotsUnread) {
+            writeBlob(object, "itemStackSlots", itemStackSlotsPayload, this::getItemStackSlots);
         }
+        return object;
+    }
+
+    /**
+     * Blobs that were never accessed are written back as they were read instead of being encoded again
+     *
+     * @throws IllegalStateException If the value could not be encoded, which aborts the transaction
+     */
+    private void writeBlob(Entity object, String blobName, byte[] payload, Supplier<?> value) {
         try {
-            object.setBlob("itemStacks", new ByteArraySizedInputStream(Mappable.serializeUnsafe(getItemStacks())));
+            object.setBlob(blobName, new ByteArraySizedInputStream(payload != null ? payload : SnapshotPayloadCodec.encode(value.get(), compression)));
         } catch (IOException e) {
-            e.printStackTrace();
+            throw new IllegalStateException("Could not encode " + blobName + " of snapshot " + getId(), e);
         }
-        return object;
+    }
+
+    /**
+     * @return The decoded value, or {@code null} if {@code payload} could not be decoded. It is then kept so that it is not lost
+     */
+    private <T> T decode(byte[] payload, String blobName) {
+        Optional<T> value = SnapshotPayloadCodec.decode(new ByteArrayInputStream(payload), XodusSerializedItemStack::new, compression);
+        if (!value.isPresent()) {
+            System.err.println("[MSDataSync] Could not decode " + blobName + " of snapshot " + getId() + "!");
+            unreadableBlobs.add(blobName);
+        }
+        return value.orElse(null);
     }
 
     @Override
     public void readFrom(Entity object) {
+        readMetadataFrom(object);
+        keysPayload = readBlob(object, "keys");
+        itemStacksPayload = readBlob(object, "itemStacks");
+        itemStackSlotsPayload = readBlob(object, "itemStackSlots");
+        keysUnread = false;
+        itemStacksUnread = false;
+        itemStackSlotsUnread = false;
+    }
+
+    @Override
+    public void readMetadataFrom(Entity object) {
         super.readFrom(object);
         Comparable<?> name = object.getProperty("name");
         if (name instanceof String) {
             this.name = (String) name;
         }
         Comparable<?> server = object.getProperty("server");
-        if (name instanceof String) {
+        if (server instanceof String) {
             this.server = (String) server;
         }
-        Mappable.<List<String>>deserialize(object.getBlob("modulesUsed")).ifPresent(t -> modulesUsed = t);
-        Mappable.<List<String>>deserialize(object.getBlob("modulesFailed")).ifPresent(t -> modulesFailed = t);
-        Mappable.<Map<String, Object>>deserialize(object.getBlob("keys")).ifPresent(t -> keys = t);
-        Mappable.<List<SerializedItemStack>>deserialize(object.getBlob("itemStacks")).ifPresent(t -> itemStacks = t);
+        Comparable<?> parentId = object.getProperty("parentId");
+        this.parentId = parentId instanceof String ? PersistentEntityId.toEntityId((String) parentId) : null;
+        Comparable<?> schemaVersion = object.getProperty("schemaVersion");
+        this.schemaVersion = schemaVersion instanceof Integer ? (Integer) schemaVersion : 0;
+        unreadableBlobs.clear();
+        modulesUsedPayload = readBlob(object, "modulesUsed");
+        modulesFailedPayload = readBlob(object, "modulesFailed");
+        modulesUsed = null;
+        modulesFailed = null;
+        keys = null;
+        itemStacks = null;
+        itemStackSlots = null;
+        keysPayload = null;
+        itemStacksPayload = null;
+        itemStackSlotsPayload = null;
+        keysUnread = true;
+        itemStacksUnread = true;
+        itemStackSlotsUnread = true;
+    }
+
+    /**
+     * Blobs can only be read while the transaction is open, so the raw bytes are copied
+     * and decoding is left to the first access of the field
+     */
+    private byte[] readBlob(Entity object, String blobName) {
+        InputStream blob = object.getBlob(blobName);
+        if (blob == null) {
+            return null;
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = blob.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        } catch (IOException e) {
+            e.printStackTrace();
+            // not the same as a missing blob, which would be written back as an empty value
+            unreadableBlobs.add(blobName);
+            return null;
+        }
     }
 }
@@ -31,6 +31,7 @@ import rocks.milspecsg.msdatasync.api.member.MemberManager;
 import rocks.milspecsg.msdatasync.api.member.repository.MemberRepository;
 import rocks.milspecsg.msdatasync.api.misc.SyncUtils;
 import rocks.milspecsg.msdatasync.api.model.member.Member;
+import rocks.milspecsg.msdatasync.api.model.snapshot.MappableSnapshot;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.api.serializer.ExperienceSerializer;
 import rocks.milspecsg.msdatasync.api.serializer.GameModeSerializer;
@@ -85,7 +86,7 @@ public class CommonModule<
     TMongoMember extends Member<ObjectId>,
     TXodusMember extends Member<EntityId> & Mappable<Entity>,
     TMongoSnapshot extends Snapshot<ObjectId>,
-    TXodusSnapshot extends Snapshot<EntityId> & Mappable<Entity>,
+    TXodusSnapshot extends MappableSnapshot<EntityId, Entity>,
     TDataKey,
     TPlayer extends TCommandSource,
     TUser,
@@ -18,8 +18,15 @@
 
 package rocks.milspecsg.msdatasync.common.serializer;
 
+import com.google.inject.Inject;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.api.serializer.InventorySerializer;
+import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
+import rocks.milspecsg.msrepository.api.data.registry.Registry;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
 
 public abstract class CommonInventorySerializer<
     TSnapshot extends Snapshot<?>,
@@ -30,6 +37,42 @@ public abstract class CommonInventorySerializer<
     extends CommonSerializer<TSnapshot, TDataKey, TUser>
     implements InventorySerializer<TSnapshot, TUser, TInventory, TItemStackSnapshot> {
 
+    /**
+     * Properties key of item stacks stored in the binary format.
+     * A binary item stack has this as its only property
+     */
+    public static final String BINARY_KEY = "msdatasync:binary";
+
+    public static final String BINARY_FORMAT = "binary";
+
+    @Inject
+    protected Registry registry;
+
+    /**
+     * @return Whether new item stacks should be stored in the binary format.
+     * Item stacks are read in whichever format they were stored in
+     */
+    protected boolean isBinaryFormat() {
+        return BINARY_FORMAT.equalsIgnoreCase(registry.getOrDefault(MSDataSyncKeys.SERIALIZE_ITEM_STACK_FORMAT));
+    }
+
+    /**
+     * The payload is stored as raw bytes, change detection compares arrays in item stack properties by content
+     */
+    protected static Map<String, Object> toBinaryProperties(byte[] payload) {
+        Map<String, Object> properties = new HashMap<>(2);
+        properties.put(BINARY_KEY, payload);
+        return properties;
+    }
+
+    protected static Optional<byte[]> fromBinaryProperties(Map<String, Object> properties) {
+        if (properties == null || properties.size() != 1) {
+            return Optional.empty();
+        }
+        Object payload = properties.get(BINARY_KEY);
+        return payload instanceof byte[] ? Optional.of((byte[]) payload) : Optional.empty();
+    }
+
     @Override
     public String getName() {
         return "msdatasync:inventory";
@@ -19,6 +19,7 @@
 package rocks.milspecsg.msdatasync.common.serializer;
 
 import com.google.inject.Inject;
+import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.api.serializer.ExperienceSerializer;
 import rocks.milspecsg.msdatasync.api.serializer.GameModeSerializer;
@@ -28,11 +29,19 @@ import rocks.milspecsg.msdatasync.api.serializer.InventorySerializer;
 import rocks.milspecsg.msdatasync.api.serializer.Serializer;
 import rocks.milspecsg.msdatasync.api.serializer.SnapshotSerializer;
 import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotItemStacks;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotPayloadCodec;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotSchema;
 import rocks.milspecsg.msrepository.api.data.registry.Registry;
 import rocks.milspecsg.msrepository.api.util.UserService;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
 
 public abstract class CommonSnapshotSerializer<
     TSnapshot extends Snapshot<?>,
@@ -71,6 +80,9 @@ public abstract class CommonSnapshotSerializer<
     @Inject
     private UserService<TUser, TPlayer> userService;
 
+    @Inject
+    private SerializerMetrics metrics;
+
     protected Registry registry;
 
     protected CommonSnapshotSerializer(Registry registry) {
@@ -147,50 +159,131 @@ public abstract class CommonSnapshotSerializer<
 
     @Override
     public boolean serialize(TSnapshot snapshot, TUser user) {
+        return capture(snapshot, user).getAsBoolean();
+    }
+
+    @Override
+    public BooleanSupplier capture(TSnapshot snapshot, TUser user) {
         if (serializers.isEmpty()) {
             System.err.println("[MSDataSync] No enabled serializers");
-            return false;
+            return () -> false;
         }
-        boolean success = true;
+        boolean captured = true;
+        boolean samplePayload = metrics.shouldSamplePayload();
+        Map<Serializer<TSnapshot, TUser>, BooleanSupplier> steps = new LinkedHashMap<>();
+        Map<Serializer<TSnapshot, TUser>, List<Object>> written = new HashMap<>();
 
         for (Serializer<TSnapshot, TUser> serializer : serializers) {
+            SerializerMetrics.Module module = metrics.getModule(serializer.getName());
+            Map<String, Object> keysBefore = samplePayload ? new HashMap<>(snapshot.getKeys()) : null;
+            List<SerializedItemStack> itemStacksBefore = samplePayload ? snapshot.getItemStacks() : null;
+            long start = System.nanoTime();
             // will still try to keep going even if one module fails
             try {
                 snapshot.getModulesUsed().add(serializer.getName());
-                if (!serializer.serialize(snapshot, user)) {
-                    System.err.println("[MSDataSync] Serialization module \"" + serializer.getName() + "\" failed for " + userService.getUserName(user) + "! All valid data was still uploaded!");
-                    success = false;
-                    snapshot.getModulesFailed().add(serializer.getName());
-                }
+                steps.put(serializer, serializer.capture(snapshot, user));
             } catch (RuntimeException e) {
-                success = false;
+                captured = false;
+                module.recordSerializeFailure();
+            }
+            module.getCapture().record(System.nanoTime() - start);
+            if (samplePayload) {
+                // only remember what changed here, encoding it is left for the worker thread
+                written.put(serializer, collectWritten(snapshot, keysBefore, itemStacksBefore, new ArrayList<>()));
             }
         }
-        return success;
+        // the user may be gone by the time the steps run, only keep the name
+        String userName = userService.getUserName(user);
+        boolean success = captured;
+        return () -> {
+            boolean result = success;
+            for (Map.Entry<Serializer<TSnapshot, TUser>, BooleanSupplier> step : steps.entrySet()) {
+                String name = step.getKey().getName();
+                SerializerMetrics.Module module = metrics.getModule(name);
+                Map<String, Object> keysBefore = samplePayload ? new HashMap<>(snapshot.getKeys()) : null;
+                List<SerializedItemStack> itemStacksBefore = samplePayload ? snapshot.getItemStacks() : null;
+                long start = System.nanoTime();
+                try {
+                    if (!step.getValue().getAsBoolean()) {
+                        System.err.println("[MSDataSync] Serialization module \"" + name + "\" failed for " + userName + "! All valid data was still uploaded!");
+                        result = false;
+                        module.recordSerializeFailure();
+                        snapshot.getModulesFailed().add(name);
+                    }
+                } catch (RuntimeException e) {
+                    result = false;
+                    module.recordSerializeFailure();
+                }
+                module.getSerialize().record(System.nanoTime() - start);
+                if (samplePayload) {
+                    List<Object> values = collectWritten(snapshot, keysBefore, itemStacksBefore, written.get(step.getKey()));
+                    try {
+                        module.recordPayloadBytes(SnapshotPayloadCodec.encodeUncompressed(values).length);
+                    } catch (IOException | RuntimeException ignored) {
+                    }
+                }
+            }
+            return result;
+        };
     }
 
+    /**
+     * Adds every key and value a module put into {@code snapshot} since {@code keysBefore} was copied,
+     * and the item stacks if the module replaced them
+     */
+    private List<Object> collectWritten(TSnapshot snapshot, Map<String, Object> keysBefore,
+                                        List<SerializedItemStack> itemStacksBefore, List<Object> written) {
+        snapshot.getKeys().forEach((key, value) -> {
+            if (!keysBefore.containsKey(key) || keysBefore.get(key) != value) {
+                written.add(key);
+                written.add(value);
+            }
+        });
+        if (snapshot.getItemStacks() != itemStacksBefore) {
+            written.add(snapshot.getItemStacks());
+        }
+        return written;
+    }
+
+    /**
+     * @param snapshot Must already be materialized, see {@code SnapshotRepository#materialize}. This usually runs on
+     *                 the main thread, which must not wait for the parents and item stacks of a snapshot to be loaded
+     */
     @Override
     public boolean deserialize(TSnapshot snapshot, TUser user) {
         if (serializers.isEmpty()) {
             System.err.println("[MSDataSync] No enabled deserializers");
             return false;
         }
+        // deltas and item stack references would be applied as they are
+        if (snapshot.getParentId() != null
+            || !SnapshotItemStacks.countReferences(snapshot.getItemStacks()).isEmpty()
+            || SnapshotSchema.needsUpgrade(snapshot)) {
+            System.err.println("[MSDataSync] Snapshot " + snapshot.getId() + " for " + userService.getUserName(user) + " was not materialized, not deserializing it!");
+            return false;
+        }
         boolean success = true;
         List<String> serializersToUse = new ArrayList<>(snapshot.getModulesUsed());
         for (Serializer<TSnapshot, TUser> serializer : serializers) {
+            SerializerMetrics.Module module = metrics.getModule(serializer.getName());
             // will still try to keep going even if one module fails
             try {
                 if (serializersToUse.remove(serializer.getName())) {
                     // only use modules that were used to upload
-                    if (!serializer.deserialize(snapshot, user)) {
+                    long start = System.nanoTime();
+                    boolean deserialized = serializer.deserialize(snapshot, user);
+                    module.getDeserialize().record(System.nanoTime() - start);
+                    if (!deserialized) {
                         System.err.println("[MSDataSync] Deserialization module \"" + serializer.getName() + "\" failed for snapshot " + snapshot.getId() + " for " + userService.getUserName(user));
                         success = false;
+                        module.recordDeserializeFailure();
                     }
                 } else {
                     System.err.println("[MSDataSync] Deserialization module \"" + serializer.getName() + "\" was not used in snapshot " + snapshot.getId() + " for " + userService.getUserName(user) + " but it is enabled in the config, skipping!");
                 }
             } catch (Exception e) {
                 success = false;
+                module.recordDeserializeFailure();
             }
         }
 
@@ -0,0 +1,147 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.serializer;
+
+import com.google.inject.Singleton;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timing, failure and payload size statistics for every serialization module, keyed by module name.
+ * External modules are tracked the same way as built in ones
+ */
+@Singleton
+public class SerializerMetrics {
+
+    /**
+     * Measuring the payload size encodes the written data a second time,
+     * so it is only done for one in this many serializations
+     */
+    private static final int PAYLOAD_SAMPLE_INTERVAL = 16;
+
+    private final ConcurrentMap<String, Module> modules = new ConcurrentHashMap<>();
+
+    private final AtomicLong serializations = new AtomicLong();
+
+    public Module getModule(String name) {
+        return modules.computeIfAbsent(name, Module::new);
+    }
+
+    /**
+     * @return Every module that recorded anything so far, sorted by name
+     */
+    public Map<String, Module> getModules() {
+        return new TreeMap<>(modules);
+    }
+
+    boolean shouldSamplePayload() {
+        return serializations.getAndIncrement() % PAYLOAD_SAMPLE_INTERVAL == 0;
+    }
+
+    public void reset() {
+        modules.values().forEach(Module::reset);
+    }
+
+    public static class Module {
+
+        private final String name;
+
+        /**
+         * Time spent on the thread that owns the user, usually the server thread
+         */
+        private final LatencyHistogram capture = new LatencyHistogram();
+
+        /**
+         * Time spent finishing the serialization off the server thread
+         */
+        private final LatencyHistogram serialize = new LatencyHistogram();
+
+        private final LatencyHistogram deserialize = new LatencyHistogram();
+
+        private final LongAdder serializeFailures = new LongAdder();
+        private final LongAdder deserializeFailures = new LongAdder();
+
+        private final LongAdder payloadBytes = new LongAdder();
+        private final LongAdder payloadSamples = new LongAdder();
+
+        private Module(String name) {
+            this.name = name;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public LatencyHistogram getCapture() {
+            return capture;
+        }
+
+        public LatencyHistogram getSerialize() {
+            return serialize;
+        }
+
+        public LatencyHistogram getDeserialize() {
+            return deserialize;
+        }
+
+        public long getSerializeFailures() {
+            return serializeFailures.sum();
+        }
+
+        public long getDeserializeFailures() {
+            return deserializeFailures.sum();
+        }
+
+        /**
+         * @return The average number of bytes this module adds to a snapshot, before compression
+         */
+        public long getAveragePayloadBytes() {
+            long samples = payloadSamples.sum();
+            return samples == 0 ? 0 : payloadBytes.sum() / samples;
+        }
+
+        void recordSerializeFailure() {
+            serializeFailures.increment();
+        }
+
+        void recordDeserializeFailure() {
+            deserializeFailures.increment();
+        }
+
+        void recordPayloadBytes(long bytes) {
+            payloadBytes.add(bytes);
+            payloadSamples.increment();
+        }
+
+        void reset() {
+            capture.reset();
+            serialize.reset();
+            deserialize.reset();
+            serializeFailures.reset();
+            deserializeFailures.reset();
+            payloadBytes.reset();
+            payloadSamples.reset();
+        }
+    }
+}
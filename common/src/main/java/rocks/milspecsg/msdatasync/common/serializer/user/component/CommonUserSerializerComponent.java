@@ -18,6 +18,8 @@
 
 package rocks.milspecsg.msdatasync.common.serializer.user.component;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.inject.Inject;
 import rocks.milspecsg.msdatasync.api.member.repository.MemberRepository;
 import rocks.milspecsg.msdatasync.api.model.member.Member;
@@ -25,14 +27,29 @@ import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.api.serializer.SnapshotSerializer;
 import rocks.milspecsg.msdatasync.api.serializer.user.component.UserSerializerComponent;
 import rocks.milspecsg.msdatasync.api.snapshot.repository.SnapshotRepository;
+import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
+import rocks.milspecsg.msdatasync.common.member.MemberHandoff;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotDeltaBase;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotDeltas;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotFingerprints;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotSchema;
 import rocks.milspecsg.msrepository.api.data.key.Keys;
 import rocks.milspecsg.msrepository.api.data.registry.Registry;
 import rocks.milspecsg.msrepository.api.datastore.DataStoreContext;
 import rocks.milspecsg.msrepository.api.util.UserService;
 import rocks.milspecsg.msrepository.common.component.CommonComponent;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 
 public abstract class CommonUserSerializerComponent<
     TKey,
@@ -64,27 +81,246 @@ public abstract class CommonUserSerializerComponent<
         super(dataStoreContext);
     }
 
+    private static final int UPLOADED_FINGERPRINTS_MAXIMUM_SIZE = 10000;
+
+    private static final long UPLOADED_FINGERPRINTS_EXPIRE_HOURS = 6;
+
+    private volatile ExecutorService workers;
+
+    /**
+     * Fingerprints of the last snapshot this server uploaded per user
+     */
+    private final Cache<UUID, Long> uploadedFingerprints = CacheBuilder.newBuilder()
+        .maximumSize(UPLOADED_FINGERPRINTS_MAXIMUM_SIZE)
+        // players that left long ago do not need theirs anymore
+        .expireAfterAccess(UPLOADED_FINGERPRINTS_EXPIRE_HOURS, TimeUnit.HOURS)
+        .build();
+
+    /**
+     * The full state of the last snapshot this server uploaded per online user, the next snapshot is stripped against it
+     * instead of reading the parent chain back. Dropped once the user leaves or their data is replaced
+     */
+    private final Cache<UUID, SnapshotDeltaBase<TKey>> deltaBases = CacheBuilder.newBuilder()
+        .maximumSize(UPLOADED_FINGERPRINTS_MAXIMUM_SIZE)
+        .expireAfterAccess(UPLOADED_FINGERPRINTS_EXPIRE_HOURS, TimeUnit.HOURS)
+        .build();
+
+    private volatile MemberHandoff handoff;
+
+    /**
+     * @return The pool that converts, encodes and uploads snapshots once they have been captured.
+     * It is shut down by {@link #stop(long)}
+     */
+    protected Executor getWorkers() {
+        ExecutorService workers = this.workers;
+        if (workers == null) {
+            synchronized (this) {
+                workers = this.workers;
+                if (workers == null) {
+                    AtomicInteger threadCount = new AtomicInteger();
+                    workers = Executors.newFixedThreadPool(Math.max(1, registry.getOrDefault(MSDataSyncKeys.SERIALIZE_WORKER_THREADS)), runnable -> {
+                        Thread thread = new Thread(runnable, "MSDataSync Serializer " + threadCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+                    this.workers = workers;
+                }
+            }
+        }
+        return workers;
+    }
+
     @Override
     public CompletableFuture<Optional<TSnapshot>> serialize(TUser user, String name) {
+        return serialize(user, name, false);
+    }
+
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> serializeIfChanged(TUser user, String name) {
+        return serialize(user, name, true);
+    }
+
+    private CompletableFuture<Optional<TSnapshot>> serialize(TUser user, String name, boolean skipUnchanged) {
         TSnapshot snapshot = snapshotRepository.generateEmpty();
         snapshot.setName(name);
         snapshot.setServer(registry.getOrDefault(Keys.resolveUnsafe("SERVER_NAME")));
-        serialize(snapshot, user);
-        return snapshotRepository.insertOne(snapshot).thenApplyAsync(optionalSnapshot -> {
-            if (!optionalSnapshot.isPresent()) {
-                System.err.println("[MSDataSync] Snapshot upload failed for " + userService.getUserName(user) + "! Check your DB configuration!");
-                return Optional.empty();
+        snapshot.setSchemaVersion(SnapshotSchema.CURRENT_VERSION);
+        // only copy the user's state on this thread, everything else happens on the workers
+        BooleanSupplier serialization = snapshotSerializer.capture(snapshot, user);
+        UUID userUUID = userService.getUUID(user);
+        String userName = userService.getUserName(user);
+        Executor workers = getWorkers();
+        return CompletableFuture.supplyAsync(() -> {
+            serialization.getAsBoolean();
+            // before the snapshot is stripped to a delta or its item stacks are interned
+            return SnapshotFingerprints.fingerprint(snapshot);
+        }, workers).thenComposeAsync(fingerprint -> {
+            if (skipUnchanged && fingerprint.equals(uploadedFingerprints.getIfPresent(userUUID))) {
+                return CompletableFuture.completedFuture(Optional.<TSnapshot>empty());
+            }
+            // kept to store the snapshot as a keyframe if it is stripped to a delta of a parent that is deleted meanwhile
+            SnapshotDeltaBase<TKey> fullState = SnapshotDeltaBase.of(snapshot);
+            return toDelta(snapshot, userUUID).thenComposeAsync(optionalParent -> upload(snapshot, userUUID, workers)
+                .thenComposeAsync(optionalSnapshot -> {
+                    if (optionalSnapshot.isPresent() || snapshot.getParentId() == null) {
+                        return CompletableFuture.completedFuture(optionalSnapshot);
+                    }
+                    System.err.println("[MSDataSync] Retrying snapshot upload for " + userName + " as a keyframe");
+                    fullState.restore(snapshot);
+                    return upload(snapshot, userUUID, workers);
+                }, workers).thenApplyAsync(optionalSnapshot -> {
+                    if (optionalSnapshot.isPresent()) {
+                        uploadedFingerprints.put(userUUID, fingerprint);
+                        TSnapshot stored = optionalSnapshot.get();
+                        int depth = stored.getParentId() == null ? 0 : optionalParent.map(parent -> parent.getDepth() + 1).orElse(0);
+                        deltaBases.put(userUUID, fullState.storedAs(stored.getId(), depth));
+                    } else {
+                        // the next snapshot is stripped against whatever is stored
+                        deltaBases.invalidate(userUUID);
+                        System.err.println("[MSDataSync] Snapshot upload failed for " + userName + "! Check your DB configuration!");
+                    }
+                    return optionalSnapshot;
+                }, workers), workers);
+        }, workers);
+    }
+
+    /**
+     * Interns the item stacks of {@code snapshot} and stores it. If that fails, the interned item stacks are released again
+     *
+     * @return The stored snapshot, or an empty optional if it could not be stored
+     */
+    private CompletableFuture<Optional<TSnapshot>> upload(TSnapshot snapshot, UUID userUUID, Executor workers) {
+        return snapshotRepository.internItemStacks(snapshot)
+            .thenComposeAsync(v -> memberRepository.insertSnapshotForUser(userUUID, snapshot), workers).handleAsync((optionalSnapshot, e) -> {
+                if (e == null && optionalSnapshot.isPresent()) {
+                    return optionalSnapshot;
+                }
+                if (e != null) {
+                    e.printStackTrace();
+                }
+                // nothing references the item stacks interned for this snapshot
+                snapshotRepository.releaseInternedItemStacks(snapshot).join();
+                return Optional.<TSnapshot>empty();
+            }, workers);
+    }
+
+    /**
+     * @return Hands users over between the servers sharing this component's database
+     */
+    protected MemberHandoff getHandoff() {
+        if (handoff == null) {
+            synchronized (this) {
+                if (handoff == null) {
+                    handoff = new MemberHandoff(memberRepository, () -> registry.getOrDefault(MSDataSyncKeys.SERVER_NAME));
+                }
             }
-            if (memberRepository.addSnapshotForUser(userService.getUUID(user), optionalSnapshot.get().getId()).join()) {
-                return optionalSnapshot;
-            } else {
-                // remove snapshot from DB because it was not added to the user successfully
-                snapshotRepository.deleteOne(optionalSnapshot.get().getId()).join();
-                return Optional.empty();
+        }
+        return handoff;
+    }
+
+    @Override
+    public void beginHandoff(UUID userUUID) {
+        if (registry.getOrDefault(MSDataSyncKeys.SERIALIZE_WAIT_FOR_SNAPSHOT_ON_JOIN)) {
+            getHandoff().beginLeave(userUUID);
+        }
+    }
+
+    @Override
+    public CompletableFuture<Void> completeHandoff(UUID userUUID) {
+        // the user may upload from another server before they come back
+        deltaBases.invalidate(userUUID);
+        if (!registry.getOrDefault(MSDataSyncKeys.SERIALIZE_WAIT_FOR_SNAPSHOT_ON_JOIN)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return getHandoff().release(userUUID).handle((released, e) -> {
+            if (e != null) {
+                e.printStackTrace();
             }
+            return null;
         });
     }
 
+    @Override
+    public void stop(long timeoutMillis) {
+        ExecutorService workers;
+        synchronized (this) {
+            workers = this.workers;
+            this.workers = null;
+        }
+        if (workers != null) {
+            // the server already waited for the last uploads, this only lets a running one hand its snapshot to the member repository
+            workers.shutdown();
+            try {
+                if (!workers.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS)) {
+                    System.err.println("[MSDataSync] Timed out waiting for snapshot uploads to finish!");
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        memberRepository.stopSnapshotWriter(timeoutMillis);
+    }
+
+    /**
+     * Makes the next {@link #serializeIfChanged(Object, String)} for this user upload, for example because
+     * the data of the user was replaced by a snapshot
+     */
+    protected void resetFingerprint(UUID userUUID) {
+        uploadedFingerprints.invalidate(userUUID);
+        deltaBases.invalidate(userUUID);
+    }
+
+    /**
+     * Strips everything that did not change since the latest snapshot of the user unless a keyframe is due.
+     * The latest snapshot is only read back from the database if this server has not uploaded one for the user yet
+     *
+     * @return The parent {@code snapshot} was stripped against, or an empty optional if it is still a keyframe
+     */
+    private CompletableFuture<Optional<SnapshotDeltaBase<TKey>>> toDelta(TSnapshot snapshot, UUID userUUID) {
+        int keyframeInterval = registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_KEYFRAME_INTERVAL);
+        if (keyframeInterval <= 1) {
+            return CompletableFuture.completedFuture(Optional.empty());
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                SnapshotDeltaBase<TKey> parent = deltaBases.getIfPresent(userUUID);
+                if (parent == null) {
+                    Optional<SnapshotDeltaBase<TKey>> optionalParent = loadDeltaBase(userUUID, keyframeInterval);
+                    if (!optionalParent.isPresent()) {
+                        return Optional.<SnapshotDeltaBase<TKey>>empty();
+                    }
+                    parent = optionalParent.get();
+                }
+                if (parent.getDepth() + 1 >= keyframeInterval || !SnapshotDeltas.toDelta(snapshot, parent)) {
+                    return Optional.<SnapshotDeltaBase<TKey>>empty();
+                }
+                return Optional.of(parent);
+            } catch (RuntimeException e) {
+                // the snapshot is still complete, it is just uploaded as a keyframe
+                e.printStackTrace();
+                return Optional.<SnapshotDeltaBase<TKey>>empty();
+            }
+        }, getWorkers());
+    }
+
+    /**
+     * @return The full state of the latest stored snapshot of the user, read back from the database,
+     * or an empty optional if there is none or a keyframe is due anyway
+     */
+    private Optional<SnapshotDeltaBase<TKey>> loadDeltaBase(UUID userUUID, int keyframeInterval) {
+        List<TKey> snapshotIds = new ArrayList<>(memberRepository.getSnapshotCreationTimeMapForUser(userUUID).join().keySet());
+        if (snapshotIds.isEmpty()) {
+            return Optional.empty();
+        }
+        TKey parentId = snapshotIds.get(snapshotIds.size() - 1);
+        int depth = snapshotRepository.getDeltaDepth(parentId).join();
+        if (depth + 1 >= keyframeInterval) {
+            return Optional.empty();
+        }
+        return snapshotRepository.getOne(parentId).join()
+            .map(parent -> SnapshotDeltaBase.of(snapshotRepository.materialize(parent).join()).storedAs(parentId, depth));
+    }
+
     @Override
     public String getName() {
         return "msdatasync:player";
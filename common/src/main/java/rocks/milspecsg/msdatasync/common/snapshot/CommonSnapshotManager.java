@@ -22,15 +22,45 @@ import com.google.inject.Inject;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.api.snapshot.SnapshotManager;
 import rocks.milspecsg.msdatasync.api.snapshot.repository.SnapshotRepository;
+import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotItemStacks;
 import rocks.milspecsg.msrepository.api.data.config.ConfigurationService;
+import rocks.milspecsg.msrepository.api.data.registry.Registry;
 import rocks.milspecsg.msrepository.common.manager.CommonManager;
 
+import java.util.concurrent.atomic.AtomicBoolean;
+
 public class CommonSnapshotManager<TSnapshot extends Snapshot<?>, TDataKey>
     extends CommonManager<SnapshotRepository<?, TSnapshot, TDataKey, ?>>
     implements SnapshotManager<TSnapshot, TDataKey> {
 
+    private Registry registry;
+
+    private final AtomicBoolean upgrading = new AtomicBoolean();
+
     @Inject
-    public CommonSnapshotManager(ConfigurationService configurationService) {
+    public CommonSnapshotManager(ConfigurationService configurationService, Registry registry) {
         super(configurationService);
+        this.registry = registry;
+        registry.addRegistryLoadedListener(this::registryLoaded);
+    }
+
+    private void registryLoaded() {
+        SnapshotItemStacks.setEnabled(registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_DEDUPLICATE_ITEM_STACKS));
+        getPrimaryComponent().setCompressionLevel(registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_COMPRESSION_LEVEL));
+        boolean train = getPrimaryComponent().isCompressionEnabled() && registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_COMPRESSION_DICTIONARY);
+        getPrimaryComponent().loadCompressionDictionaries(train).exceptionally(e -> {
+            e.printStackTrace();
+            return null;
+        });
+        if (registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_UPGRADE_IN_BACKGROUND) && upgrading.compareAndSet(false, true)) {
+            getPrimaryComponent().reEncodeOutdatedSnapshots().handle((count, e) -> {
+                if (e != null) {
+                    e.printStackTrace();
+                }
+                upgrading.set(false);
+                return null;
+            });
+        }
     }
 }
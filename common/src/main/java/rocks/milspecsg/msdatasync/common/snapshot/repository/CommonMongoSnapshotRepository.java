@@ -19,15 +19,40 @@
 package rocks.milspecsg.msdatasync.common.snapshot.repository;
 
 import com.google.inject.Inject;
+import com.mongodb.AggregationOptions;
+import com.mongodb.BasicDBObject;
+import com.mongodb.BulkWriteOperation;
+import com.mongodb.BulkWriteResult;
+import com.mongodb.Cursor;
+import com.mongodb.DBCollection;
+import com.mongodb.DBObject;
+import com.mongodb.MongoException;
 import org.bson.types.ObjectId;
 import org.mongodb.morphia.Datastore;
+import org.mongodb.morphia.query.FindOptions;
+import org.mongodb.morphia.query.Query;
 import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+import rocks.milspecsg.msdatasync.common.model.serializeditemstack.MongoSerializedItemStack;
+import rocks.milspecsg.msdatasync.common.model.snapshot.MongoSnapshot;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotPayloadCodec;
 import rocks.milspecsg.msrepository.api.datastore.DataStoreContext;
 import rocks.milspecsg.msrepository.common.repository.CommonMongoRepository;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 
 public class CommonMongoSnapshotRepository<
     TSnapshot extends Snapshot<ObjectId>,
@@ -35,13 +60,210 @@ public class CommonMongoSnapshotRepository<
     extends CommonSnapshotRepository<ObjectId, TSnapshot, TDataKey, Datastore>
     implements CommonMongoRepository<TSnapshot> {
 
+    private static final String COMPRESSION_DICTIONARY_COLLECTION = "snapshotCompressionDictionaries";
+
+    private static final String ITEM_STACK_COLLECTION = "snapshotItemStacks";
+
     @Inject
     public CommonMongoSnapshotRepository(DataStoreContext<ObjectId, Datastore> dataStoreContext) {
         super(dataStoreContext);
     }
 
     @Override
-    public CompletableFuture<Boolean> setItemStacks(ObjectId id, List<SerializedItemStack> itemStacks) {
-        return update(asQuery(id), set("itemStacks", itemStacks));
+    public CompletableFuture<Optional<TSnapshot>> getOne(ObjectId id) {
+        return CommonMongoRepository.super.getOne(id).thenApply(optionalSnapshot -> optionalSnapshot.map(this::attachCompression));
+    }
+
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> getMetadata(ObjectId id) {
+        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(
+            asQuery(id).disableValidation()
+                .project("keys", false)
+                .project("itemStacks", false)
+                .project(MongoSnapshot.ITEM_STACKS_PAYLOAD, false)
+                .get()
+        ).map(this::attachCompression));
+    }
+
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> getItemStacksOnly(ObjectId id) {
+        return CompletableFuture.supplyAsync(() -> Optional.ofNullable(
+            asQuery(id)
+                .project("keys", false)
+                .project("modulesUsed", false)
+                .project("modulesFailed", false)
+                .get()
+        ).map(this::attachCompression));
+    }
+
+    @Override
+    public CompletableFuture<Long> estimateStoredSize(Collection<ObjectId> ids) {
+        return CompletableFuture.supplyAsync(() -> {
+            if (ids.isEmpty()) {
+                return 0L;
+            }
+            DBCollection collection = getDataStoreContext().getDataStore().getCollection(getTClass());
+            // the documents are measured on the server, without sending them here
+            List<DBObject> pipeline = Arrays.asList(
+                new BasicDBObject("$match", new BasicDBObject("_id", new BasicDBObject("$in", ids))),
+                new BasicDBObject("$group", new BasicDBObject("_id", null).append("size", new BasicDBObject("$sum", new BasicDBObject("$bsonSize", "$$ROOT"))))
+            );
+            try (Cursor cursor = collection.aggregate(pipeline, AggregationOptions.builder().build())) {
+                if (!cursor.hasNext()) {
+                    return 0L;
+                }
+                Object size = cursor.next().get("size");
+                return size instanceof Number ? ((Number) size).longValue() : 0L;
+            } catch (MongoException e) {
+                // $bsonSize needs MongoDB 4.4, older servers only have the collection statistics
+                Object averageSize = collection.getStats().get("avgObjSize");
+                return averageSize instanceof Number ? ((Number) averageSize).longValue() * ids.size() : 0L;
+            }
+        });
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> writeItemStacks(ObjectId id, List<SerializedItemStack> itemStacks) {
+        if (compression.isEnabled()) {
+            try {
+                byte[] payload = SnapshotPayloadCodec.encode(itemStacks, compression);
+                return update(asQuery(id), set(MongoSnapshot.ITEM_STACKS_PAYLOAD, payload).unset("itemStacks").unset("itemStackSlots"));
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        return update(asQuery(id), set("itemStacks", itemStacks).unset(MongoSnapshot.ITEM_STACKS_PAYLOAD).unset("itemStackSlots"));
+    }
+
+    @Override
+    protected void incrementItemStackReferences(Map<String, Integer> references, Map<String, byte[]> payloads) {
+        // item stacks without a payload cannot be stored again, none of the counts are changed if one of them is gone
+        Set<String> withoutPayload = new HashSet<>(references.keySet());
+        withoutPayload.removeAll(payloads.keySet());
+        if (!withoutPayload.isEmpty()) {
+            Set<Object> stored = new HashSet<>();
+            getItemStackCollection().find(new BasicDBObject("_id", new BasicDBObject("$in", withoutPayload)), new BasicDBObject("_id", 1))
+                .forEach(dbObject -> stored.add(dbObject.get("_id")));
+            withoutPayload.removeAll(stored);
+            if (!withoutPayload.isEmpty()) {
+                throw new IllegalStateException("Item stacks " + withoutPayload + " are no longer stored");
+            }
+        }
+        BulkWriteOperation bulk = getItemStackCollection().initializeUnorderedBulkOperation();
+        for (Map.Entry<String, Integer> entry : references.entrySet()) {
+            BasicDBObject update = new BasicDBObject("$inc", new BasicDBObject("references", entry.getValue()));
+            byte[] payload = payloads.get(entry.getKey());
+            if (payload == null) {
+                bulk.find(new BasicDBObject("_id", entry.getKey())).updateOne(update);
+            } else {
+                update.append("$setOnInsert", new BasicDBObject("properties", payload));
+                bulk.find(new BasicDBObject("_id", entry.getKey())).upsert().updateOne(update);
+            }
+        }
+        BulkWriteResult result = bulk.execute();
+        // one was removed since it was checked. The others stay counted, which only keeps them stored longer than needed
+        if (result.getMatchedCount() + result.getUpserts().size() < references.size()) {
+            throw new IllegalStateException("An item stack was removed while it was referenced");
+        }
+    }
+
+    @Override
+    protected void decrementItemStackReferences(Map<String, Integer> references) {
+        BulkWriteOperation bulk = getItemStackCollection().initializeUnorderedBulkOperation();
+        for (Map.Entry<String, Integer> entry : references.entrySet()) {
+            bulk.find(new BasicDBObject("_id", entry.getKey())).updateOne(new BasicDBObject("$inc", new BasicDBObject("references", -entry.getValue())));
+        }
+        bulk.execute();
+        getItemStackCollection().remove(new BasicDBObject("_id", new BasicDBObject("$in", references.keySet()))
+            .append("references", new BasicDBObject("$lte", 0)));
+    }
+
+    @Override
+    protected Map<String, Map<String, Object>> loadItemStacks(Collection<String> hashes) {
+        Map<String, Map<String, Object>> itemStacks = new HashMap<>();
+        for (DBObject dbObject : getItemStackCollection().find(new BasicDBObject("_id", new BasicDBObject("$in", hashes)))) {
+            Object hash = dbObject.get("_id");
+            Object payload = dbObject.get("properties");
+            if (hash instanceof String && payload instanceof byte[]) {
+                SnapshotPayloadCodec.<Map<String, Object>>decode(new ByteArrayInputStream((byte[]) payload), MongoSerializedItemStack::new, compression)
+                    .ifPresent(properties -> itemStacks.put((String) hash, properties));
+            }
+        }
+        return itemStacks;
+    }
+
+    private DBCollection getItemStackCollection() {
+        return getDataStoreContext().getDataStore().getDB().getCollection(ITEM_STACK_COLLECTION);
+    }
+
+    @Override
+    protected List<ObjectId> getChildIds(ObjectId id) {
+        return asQuery().field("parentId").equal(id).project("_id", true).asList()
+            .stream().map(Snapshot::getId).collect(Collectors.toList());
+    }
+
+    @Override
+    protected List<ObjectId> getIdPage(ObjectId after, int batchSize) {
+        Query<TSnapshot> query = asQuery().order("_id").project("_id", true);
+        if (after != null) {
+            query.field("_id").greaterThan(after);
+        }
+        return query.asList(new FindOptions().batchSize(batchSize).limit(batchSize))
+            .stream().map(Snapshot::getId).collect(Collectors.toList());
+    }
+
+    @Override
+    protected List<ObjectId> getLatestIds(int limit) {
+        return asQuery().order("-_id").project("_id", true).asList(new FindOptions().limit(limit))
+            .stream().map(Snapshot::getId).collect(Collectors.toList());
+    }
+
+    @Override
+    protected boolean replace(TSnapshot snapshot, int expectedSchemaVersion) {
+        Query<TSnapshot> query = asQuery(snapshot.getId());
+        if (expectedSchemaVersion == 0) {
+            // snapshots written before the schema version existed do not have the field
+            query.or(query.criteria("schemaVersion").equal(0), query.criteria("schemaVersion").doesNotExist());
+        } else {
+            query.field("schemaVersion").equal(expectedSchemaVersion);
+        }
+        return getDataStoreContext().getDataStore().updateFirst(query, snapshot, false).getUpdatedCount() > 0;
+    }
+
+    @Override
+    protected Map<Integer, byte[]> getCompressionDictionaries() {
+        Map<Integer, byte[]> dictionaries = new LinkedHashMap<>();
+        for (DBObject dbObject : getCompressionDictionaryCollection().find().sort(new BasicDBObject("createdUtc", 1))) {
+            Object dictionary = dbObject.get("dictionary");
+            Object id = dbObject.get("_id");
+            if (dictionary instanceof byte[] && id instanceof Number) {
+                dictionaries.put(((Number) id).intValue(), (byte[]) dictionary);
+            }
+        }
+        return dictionaries;
+    }
+
+    @Override
+    protected Optional<byte[]> getCompressionDictionary(int id) {
+        DBObject dbObject = getCompressionDictionaryCollection().findOne(new BasicDBObject("_id", id));
+        if (dbObject == null) {
+            return Optional.empty();
+        }
+        Object dictionary = dbObject.get("dictionary");
+        return dictionary instanceof byte[] ? Optional.of((byte[]) dictionary) : Optional.empty();
+    }
+
+    @Override
+    protected void saveCompressionDictionary(int id, byte[] dictionary) {
+        getCompressionDictionaryCollection().update(
+            new BasicDBObject("_id", id),
+            new BasicDBObject("$setOnInsert", new BasicDBObject("dictionary", dictionary).append("createdUtc", new Date())),
+            true,
+            false
+        );
+    }
+
+    private DBCollection getCompressionDictionaryCollection() {
+        return getDataStoreContext().getDataStore().getDB().getCollection(COMPRESSION_DICTIONARY_COLLECTION);
     }
 }
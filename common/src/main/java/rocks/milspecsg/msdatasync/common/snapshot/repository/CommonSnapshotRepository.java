@@ -23,10 +23,25 @@ import rocks.milspecsg.msdatasync.api.keys.DataKeyService;
 import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.api.snapshot.repository.SnapshotRepository;
+import rocks.milspecsg.msdatasync.common.model.snapshot.CompressibleSnapshot;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotDeltas;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotItemStacks;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotPayloadCodec;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotPayloadCompression;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotSchema;
 import rocks.milspecsg.msrepository.api.datastore.DataStoreContext;
 import rocks.milspecsg.msrepository.common.repository.CommonRepository;
 
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -38,13 +53,34 @@ public abstract class CommonSnapshotRepository<
     extends CommonRepository<TKey, TSnapshot, TDataStore>
     implements SnapshotRepository<TKey, TSnapshot, TDataKey, TDataStore> {
 
+    private static final int COMPRESSION_DICTIONARY_SAMPLE_SIZE = 64;
+
+    private static final int ID_BATCH_SIZE = 100;
+
     @Inject
     DataKeyService<TDataKey> dataKeyService;
 
+    protected final SnapshotPayloadCompression compression = new SnapshotPayloadCompression();
+
     protected CommonSnapshotRepository(DataStoreContext<TKey, TDataStore> dataStoreContext) {
         super(dataStoreContext);
     }
 
+    @Override
+    public TSnapshot generateEmpty() {
+        return attachCompression(super.generateEmpty());
+    }
+
+    /**
+     * Lets {@code snapshot} read and write its payloads with the compression settings of this repository
+     */
+    protected TSnapshot attachCompression(TSnapshot snapshot) {
+        if (snapshot instanceof CompressibleSnapshot) {
+            ((CompressibleSnapshot) snapshot).setCompression(compression);
+        }
+        return snapshot;
+    }
+
     @Override
     @SuppressWarnings("unchecked")
     public Class<TSnapshot> getTClass() {
@@ -74,4 +110,400 @@ public abstract class CommonSnapshotRepository<
     public CompletableFuture<Boolean> parseAndSetItemStacks(Object id, List<SerializedItemStack> itemStacks) {
         return parse(id).map(i -> setItemStacks(i, itemStacks)).orElse(CompletableFuture.completedFuture(false));
     }
+
+    @Override
+    public CompletableFuture<TSnapshot> materialize(TSnapshot snapshot) {
+        if (snapshot.getParentId() == null && SnapshotItemStacks.countReferences(snapshot.getItemStacks()).isEmpty()) {
+            SnapshotSchema.upgrade(snapshot);
+            return CompletableFuture.completedFuture(snapshot);
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            if (snapshot.getParentId() != null) {
+                applyChain(snapshot);
+            }
+            Map<String, Integer> references = SnapshotItemStacks.countReferences(snapshot.getItemStacks());
+            if (!references.isEmpty()) {
+                SnapshotItemStacks.resolve(snapshot.getItemStacks(), loadItemStacks(references.keySet()));
+            }
+            SnapshotSchema.upgrade(snapshot);
+            return snapshot;
+        });
+    }
+
+    /**
+     * @throws IllegalStateException If a parent is missing. Restoring the rest of the chain would silently drop
+     *                               everything the missing parent held
+     */
+    private void applyChain(TSnapshot snapshot) {
+        // oldest first
+        Deque<TSnapshot> chain = new ArrayDeque<>();
+        TKey parentId = snapshot.getParentId();
+        while (parentId != null) {
+            Optional<TSnapshot> optionalParent = getOne(parentId).join();
+            if (!optionalParent.isPresent()) {
+                throw new IllegalStateException("Could not find parent " + parentId + " of snapshot " + snapshot.getId());
+            }
+            chain.push(optionalParent.get());
+            parentId = optionalParent.get().getParentId();
+        }
+        Map<String, Object> keys = new HashMap<>();
+        List<SerializedItemStack> itemStacks = new ArrayList<>();
+        int schemaVersion = snapshot.getSchemaVersion();
+        for (TSnapshot parent : chain) {
+            SnapshotDeltas.apply(keys, itemStacks, parent);
+            schemaVersion = Math.min(schemaVersion, parent.getSchemaVersion());
+        }
+        SnapshotDeltas.apply(keys, itemStacks, snapshot);
+        // data taken over from older parents still has to be upgraded
+        snapshot.setSchemaVersion(schemaVersion);
+        snapshot.setKeys(keys);
+        snapshot.setItemStacks(itemStacks);
+        snapshot.setItemStackSlots(new ArrayList<>());
+        snapshot.setParentId(null);
+    }
+
+    @Override
+    public CompletableFuture<Integer> getDeltaDepth(TKey id) {
+        return CompletableFuture.supplyAsync(() -> {
+            int depth = 0;
+            Optional<TSnapshot> optionalSnapshot = getMetadata(id).join();
+            while (optionalSnapshot.isPresent() && optionalSnapshot.get().getParentId() != null) {
+                depth++;
+                optionalSnapshot = getMetadata(optionalSnapshot.get().getParentId()).join();
+            }
+            return depth;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> detachChildren(TKey id) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<TKey> childIds = getChildIds(id);
+            if (childIds.isEmpty()) {
+                return true;
+            }
+            Optional<TSnapshot> optionalSnapshot = getOne(id).join();
+            if (!optionalSnapshot.isPresent()) {
+                return false;
+            }
+            boolean success = true;
+            for (TKey childId : childIds) {
+                Optional<TSnapshot> optionalChild = getOne(childId).join();
+                if (!optionalChild.isPresent()) {
+                    continue;
+                }
+                Map<String, Integer> references = SnapshotItemStacks.countReferences(optionalChild.get().getItemStacks());
+                int childSchemaVersion = optionalChild.get().getSchemaVersion();
+                SnapshotDeltas.merge(optionalSnapshot.get(), optionalChild.get());
+                optionalChild.get().setSchemaVersion(Math.min(optionalChild.get().getSchemaVersion(), optionalSnapshot.get().getSchemaVersion()));
+                // the child now also references the item stacks it took over from its parent
+                Map<String, Integer> added = SnapshotItemStacks.subtract(SnapshotItemStacks.countReferences(optionalChild.get().getItemStacks()), references);
+                if (!added.isEmpty()) {
+                    try {
+                        incrementItemStackReferences(added, Collections.emptyMap());
+                    } catch (RuntimeException e) {
+                        // an item stack of the parent is gone, the child keeps depending on the parent
+                        e.printStackTrace();
+                        System.err.println("[MSDataSync] Could not detach snapshot " + childId + " from " + id + "!");
+                        success = false;
+                        continue;
+                    }
+                }
+                boolean replaced;
+                try {
+                    replaced = replace(optionalChild.get(), childSchemaVersion);
+                } catch (RuntimeException e) {
+                    // e.g. a blob of the child could not be decoded, it must not be written with what was left of it
+                    e.printStackTrace();
+                    replaced = false;
+                }
+                if (!replaced) {
+                    System.err.println("[MSDataSync] Could not detach snapshot " + childId + " from " + id + "!");
+                    if (!added.isEmpty()) {
+                        decrementItemStackReferences(added);
+                    }
+                    success = false;
+                }
+            }
+            return success;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Integer> reEncodeOutdatedSnapshots() {
+        return CompletableFuture.supplyAsync(() -> {
+            int count = 0;
+            TKey after = null;
+            List<TKey> ids;
+            do {
+                ids = getIdPage(after, ID_BATCH_SIZE);
+                if (!ids.isEmpty()) {
+                    after = ids.get(ids.size() - 1);
+                }
+                count += reEncodeOutdatedSnapshots(ids);
+            } while (ids.size() == ID_BATCH_SIZE);
+            return count;
+        });
+    }
+
+    private int reEncodeOutdatedSnapshots(List<TKey> ids) {
+        int count = 0;
+        for (TKey id : ids) {
+            try {
+                // the metadata is enough to tell whether a snapshot is outdated
+                Optional<TSnapshot> optionalMetadata = getMetadata(id).join();
+                if (!optionalMetadata.isPresent() || !SnapshotSchema.needsUpgrade(optionalMetadata.get())) {
+                    continue;
+                }
+                Optional<TSnapshot> optionalSnapshot = getOne(id).join();
+                if (!optionalSnapshot.isPresent()) {
+                    continue;
+                }
+                TSnapshot snapshot = optionalSnapshot.get();
+                // shared item stacks are stored once for many snapshots, they are upgraded when read
+                if (!SnapshotItemStacks.countReferences(snapshot.getItemStacks()).isEmpty()) {
+                    continue;
+                }
+                int schemaVersion = snapshot.getSchemaVersion();
+                SnapshotSchema.upgrade(snapshot);
+                // skipped if the snapshot was deleted or upgraded elsewhere in the meantime
+                if (replace(snapshot, schemaVersion)) {
+                    count++;
+                }
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public CompletableFuture<List<TKey>> releaseSnapshots(Collection<TKey> ids) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<TKey> released = new ArrayList<>();
+            Map<String, Integer> references = new HashMap<>();
+            for (TKey id : ids) {
+                // children are detached one by one, oldest first, so that each chain is folded in order
+                if (!detachChildren(id).join()) {
+                    continue;
+                }
+                getItemStacksOnly(id).join().ifPresent(snapshot ->
+                    SnapshotItemStacks.countReferences(snapshot.getItemStacks()).forEach((hash, count) -> references.merge(hash, count, Integer::sum)));
+                released.add(id);
+            }
+            if (!references.isEmpty()) {
+                decrementItemStackReferences(references);
+            }
+            return released;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> internItemStacks(TSnapshot snapshot) {
+        if (!SnapshotItemStacks.isEnabled()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+            try {
+                intern(snapshot.getItemStacks());
+            } catch (RuntimeException e) {
+                // the item stacks are still stored inline
+                e.printStackTrace();
+            }
+        });
+    }
+
+    @Override
+    public CompletableFuture<Void> releaseInternedItemStacks(TSnapshot snapshot) {
+        if (!SnapshotItemStacks.isEnabled()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return CompletableFuture.runAsync(() -> {
+            // interning counted every reference the snapshot holds, including the ones it already had
+            Map<String, Integer> references = SnapshotItemStacks.countReferences(snapshot.getItemStacks());
+            if (!references.isEmpty()) {
+                decrementItemStackReferences(references);
+            }
+        });
+    }
+
+    /**
+     * Replaces every item stack in {@code itemStacks} that is worth sharing with a reference. The stacks are only
+     * changed once their content is stored
+     *
+     * @return The references held by {@code itemStacks}, which have all been counted in the store
+     */
+    private Map<String, Integer> intern(List<SerializedItemStack> itemStacks) {
+        Map<String, byte[]> payloads = new HashMap<>();
+        Map<SerializedItemStack, String> hashes = new IdentityHashMap<>();
+        Map<String, Integer> references = new HashMap<>();
+        for (SerializedItemStack itemStack : itemStacks) {
+            if (itemStack == null) {
+                continue;
+            }
+            Optional<String> optionalHash = SnapshotItemStacks.getReference(itemStack);
+            if (optionalHash.isPresent()) {
+                references.merge(optionalHash.get(), 1, Integer::sum);
+                continue;
+            }
+            try {
+                Optional<byte[]> optionalPayload = SnapshotItemStacks.encode(itemStack.getProperties());
+                if (!optionalPayload.isPresent()) {
+                    continue;
+                }
+                String hash = SnapshotItemStacks.hash(optionalPayload.get());
+                payloads.putIfAbsent(hash, optionalPayload.get());
+                hashes.put(itemStack, hash);
+                references.merge(hash, 1, Integer::sum);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+        if (!references.isEmpty()) {
+            incrementItemStackReferences(references, payloads);
+        }
+        hashes.forEach((itemStack, hash) -> itemStack.setProperties(SnapshotItemStacks.createReference(hash)));
+        return references;
+    }
+
+    @Override
+    public CompletableFuture<Boolean> releaseItemStacks(TKey id) {
+        return CompletableFuture.supplyAsync(() -> {
+            Optional<TSnapshot> optionalSnapshot = getItemStacksOnly(id).join();
+            if (!optionalSnapshot.isPresent()) {
+                return false;
+            }
+            Map<String, Integer> references = SnapshotItemStacks.countReferences(optionalSnapshot.get().getItemStacks());
+            if (!references.isEmpty()) {
+                decrementItemStackReferences(references);
+            }
+            return true;
+        });
+    }
+
+    @Override
+    public CompletableFuture<Boolean> setItemStacks(TKey id, List<SerializedItemStack> itemStacks) {
+        return CompletableFuture.supplyAsync(() -> {
+            Map<String, Integer> previous = getItemStacksOnly(id).join()
+                .map(snapshot -> SnapshotItemStacks.countReferences(snapshot.getItemStacks()))
+                .orElse(Collections.emptyMap());
+            Map<String, Integer> current = SnapshotItemStacks.isEnabled()
+                ? intern(itemStacks)
+                : Collections.emptyMap();
+            if (!writeItemStacks(id, itemStacks).join()) {
+                if (!current.isEmpty()) {
+                    decrementItemStackReferences(current);
+                }
+                return false;
+            }
+            if (!previous.isEmpty()) {
+                decrementItemStackReferences(previous);
+            }
+            return true;
+        });
+    }
+
+    /**
+     * Replaces the stored item stacks of a snapshot with the full list of slots
+     */
+    protected abstract CompletableFuture<Boolean> writeItemStacks(TKey id, List<SerializedItemStack> itemStacks);
+
+    /**
+     * Adds to the reference counts of shared item stacks, storing the ones that are not stored yet
+     *
+     * @param payloads The content of item stacks by hash, only needed for item stacks that may not be stored yet
+     * @throws IllegalStateException If an item stack without a payload is not stored, so that the reference is not lost silently
+     */
+    protected abstract void incrementItemStackReferences(Map<String, Integer> references, Map<String, byte[]> payloads);
+
+    /**
+     * Subtracts from the reference counts of shared item stacks, removing the ones that are no longer referenced
+     */
+    protected abstract void decrementItemStackReferences(Map<String, Integer> references);
+
+    /**
+     * @return The properties of the stored item stacks by hash
+     */
+    protected abstract Map<String, Map<String, Object>> loadItemStacks(Collection<String> hashes);
+
+    /**
+     * @return The ids of all delta snapshots that have the provided snapshot as their parent
+     */
+    protected abstract List<TKey> getChildIds(TKey id);
+
+    /**
+     * @param after {@code null} to start with the first snapshot
+     * @return Up to {@code batchSize} snapshot ids greater than {@code after}, ordered by id
+     */
+    protected abstract List<TKey> getIdPage(TKey after, int batchSize);
+
+    /**
+     * @return Up to {@code limit} ids of the most recently created snapshots
+     */
+    protected abstract List<TKey> getLatestIds(int limit);
+
+    /**
+     * Overwrites the stored snapshot with the same id if it still exists in the expected schema version
+     *
+     * @return Whether a stored snapshot was overwritten
+     */
+    protected abstract boolean replace(TSnapshot snapshot, int expectedSchemaVersion);
+
+    @Override
+    public void setCompressionLevel(int level) {
+        compression.setLevel(level);
+    }
+
+    @Override
+    public boolean isCompressionEnabled() {
+        return compression.isEnabled();
+    }
+
+    @Override
+    public CompletableFuture<Void> loadCompressionDictionaries(boolean train) {
+        return CompletableFuture.runAsync(() -> {
+            compression.setDictionaryLoader(this::getCompressionDictionary);
+            Map<Integer, byte[]> dictionaries = getCompressionDictionaries();
+            if (dictionaries.isEmpty() && train) {
+                trainCompressionDictionary().ifPresent(dictionary ->
+                    saveCompressionDictionary(SnapshotPayloadCompression.getDictionaryId(dictionary), dictionary));
+                // read them again so that all servers sharing this data store use the oldest dictionary
+                dictionaries = getCompressionDictionaries();
+            }
+            byte[] oldest = null;
+            for (byte[] dictionary : dictionaries.values()) {
+                if (oldest == null) {
+                    oldest = dictionary;
+                }
+                compression.addDictionary(dictionary);
+            }
+            if (train && oldest != null) {
+                compression.setActiveDictionary(oldest);
+            }
+        });
+    }
+
+    private Optional<byte[]> trainCompressionDictionary() {
+        List<byte[]> samples = new ArrayList<>();
+        for (TKey id : getLatestIds(COMPRESSION_DICTIONARY_SAMPLE_SIZE)) {
+            getOne(id).join().ifPresent(snapshot -> {
+                try {
+                    samples.add(SnapshotPayloadCodec.encodeUncompressed(snapshot.getKeys()));
+                    samples.add(SnapshotPayloadCodec.encodeUncompressed(snapshot.getItemStacks()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
+            });
+        }
+        return SnapshotPayloadCompression.trainDictionary(samples);
+    }
+
+    /**
+     * @return All compression dictionaries in this data store mapped by id, oldest first
+     */
+    protected abstract Map<Integer, byte[]> getCompressionDictionaries();
+
+    protected abstract Optional<byte[]> getCompressionDictionary(int id);
+
+    protected abstract void saveCompressionDictionary(int id, byte[] dictionary);
 }
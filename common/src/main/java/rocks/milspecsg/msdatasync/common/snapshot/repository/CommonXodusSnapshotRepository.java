@@ -21,37 +21,235 @@ package rocks.milspecsg.msdatasync.common.snapshot.repository;
 import com.google.inject.Inject;
 import jetbrains.exodus.entitystore.Entity;
 import jetbrains.exodus.entitystore.EntityId;
+import jetbrains.exodus.entitystore.EntityRemovedInDatabaseException;
 import jetbrains.exodus.entitystore.PersistentEntityStore;
 import jetbrains.exodus.util.ByteArraySizedInputStream;
 import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
-import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+import rocks.milspecsg.msdatasync.api.model.snapshot.MappableSnapshot;
+import rocks.milspecsg.msdatasync.common.model.serializeditemstack.XodusSerializedItemStack;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotPayloadCodec;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotPayloadCompression;
 import rocks.milspecsg.msrepository.api.datastore.DataStoreContext;
-import rocks.milspecsg.msrepository.api.model.Mappable;
 import rocks.milspecsg.msrepository.common.repository.CommonXodusRepository;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
 public class CommonXodusSnapshotRepository<
-    TSnapshot extends Snapshot<EntityId> & Mappable<Entity>,
+    TSnapshot extends MappableSnapshot<EntityId, Entity>,
     TDataKey>
     extends CommonSnapshotRepository<EntityId, TSnapshot, TDataKey, PersistentEntityStore>
     implements CommonXodusRepository<TSnapshot> {
 
+    private static final String COMPRESSION_DICTIONARY_TYPE = "SnapshotCompressionDictionary";
+
+    private static final String[] SNAPSHOT_BLOB_NAMES = {"keys", "itemStacks", "itemStackSlots", "modulesUsed", "modulesFailed"};
+
     @Inject
     public CommonXodusSnapshotRepository(DataStoreContext<EntityId, PersistentEntityStore> dataStoreContext) {
         super(dataStoreContext);
     }
 
     @Override
-    public CompletableFuture<Boolean> setItemStacks(EntityId id, List<SerializedItemStack> itemStacks) {
+    public CompletableFuture<Optional<TSnapshot>> getOne(EntityId id) {
+        return CommonXodusRepository.super.getOne(id).thenApply(optionalSnapshot -> optionalSnapshot.map(this::attachCompression));
+    }
+
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> getMetadata(EntityId id) {
+        return CompletableFuture.supplyAsync(() ->
+            getDataStoreContext().getDataStore().computeInReadonlyTransaction(txn -> {
+                try {
+                    TSnapshot snapshot = generateEmpty();
+                    snapshot.readMetadataFrom(txn.getEntity(id));
+                    return Optional.of(snapshot);
+                } catch (EntityRemovedInDatabaseException e) {
+                    return Optional.<TSnapshot>empty();
+                }
+            })
+        );
+    }
+
+    @Override
+    public CompletableFuture<Optional<TSnapshot>> getItemStacksOnly(EntityId id) {
+        // blobs are decoded lazily, so the keys and modules are never decoded for callers that do not access them
+        return getOne(id);
+    }
+
+    @Override
+    public CompletableFuture<Long> estimateStoredSize(Collection<EntityId> ids) {
+        return CompletableFuture.supplyAsync(() ->
+            getDataStoreContext().getDataStore().computeInReadonlyTransaction(txn -> {
+                long size = 0;
+                for (EntityId id : ids) {
+                    try {
+                        Entity entity = txn.getEntity(id);
+                        for (String blobName : SNAPSHOT_BLOB_NAMES) {
+                            // only the length of the blob is read, not its content
+                            size += Math.max(0, entity.getBlobSize(blobName));
+                        }
+                    } catch (EntityRemovedInDatabaseException ignored) {
+                    }
+                }
+                return size;
+            })
+        );
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> writeItemStacks(EntityId id, List<SerializedItemStack> itemStacks) {
+        byte[] payload;
+        try {
+            payload = SnapshotPayloadCodec.encode(itemStacks, compression);
+        } catch (IOException e) {
+            e.printStackTrace();
+            return CompletableFuture.completedFuture(false);
+        }
         return update(asQuery(id), entity -> {
+            entity.setBlob("itemStacks", new ByteArraySizedInputStream(payload));
+            entity.deleteBlob("itemStackSlots");
+        });
+    }
+
+    @Override
+    protected void incrementItemStackReferences(Map<String, Integer> references, Map<String, byte[]> payloads) {
+        XodusItemStackStore.increment(getDataStoreContext().getDataStore(), references, payloads);
+    }
+
+    @Override
+    protected void decrementItemStackReferences(Map<String, Integer> references) {
+        XodusItemStackStore.decrement(getDataStoreContext().getDataStore(), references);
+    }
+
+    @Override
+    protected Map<String, Map<String, Object>> loadItemStacks(Collection<String> hashes) {
+        return getDataStoreContext().getDataStore().computeInReadonlyTransaction(txn -> {
+            Map<String, Map<String, Object>> itemStacks = new HashMap<>();
+            for (String hash : hashes) {
+                Entity entity = XodusItemStackStore.find(txn, hash);
+                if (entity == null) {
+                    continue;
+                }
+                readBlob(entity, XodusItemStackStore.PROPERTIES)
+                    .flatMap(payload -> SnapshotPayloadCodec.<Map<String, Object>>decode(new ByteArrayInputStream(payload), XodusSerializedItemStack::new, compression))
+                    .ifPresent(properties -> itemStacks.put(hash, properties));
+            }
+            return itemStacks;
+        });
+    }
+
+    @Override
+    protected List<EntityId> getChildIds(EntityId id) {
+        return getDataStoreContext().getDataStore().computeInReadonlyTransaction(txn -> {
+            List<EntityId> childIds = new ArrayList<>();
+            for (Entity entity : txn.find(getTClass().getSimpleName(), "parentId", id.toString())) {
+                childIds.add(entity.getId());
+            }
+            return childIds;
+        });
+    }
+
+    @Override
+    protected List<EntityId> getIdPage(EntityId after, int batchSize) {
+        return getDataStoreContext().getDataStore().computeInReadonlyTransaction(txn -> {
+            long from = after == null ? 0 : after.getLocalId() + 1;
+            List<EntityId> ids = new ArrayList<>();
+            for (Entity entity : txn.findIds(getTClass().getSimpleName(), from, Long.MAX_VALUE).take(batchSize)) {
+                ids.add(entity.getId());
+            }
+            return ids;
+        });
+    }
+
+    @Override
+    protected List<EntityId> getLatestIds(int limit) {
+        return getDataStoreContext().getDataStore().computeInReadonlyTransaction(txn -> {
+            List<EntityId> ids = new ArrayList<>();
+            // local ids are assigned in ascending order
+            for (Entity entity : txn.getAll(getTClass().getSimpleName()).reverse().take(limit)) {
+                ids.add(entity.getId());
+            }
+            return ids;
+        });
+    }
+
+    @Override
+    protected boolean replace(TSnapshot snapshot, int expectedSchemaVersion) {
+        return getDataStoreContext().getDataStore().computeInExclusiveTransaction(txn -> {
+            Entity entity;
             try {
-                entity.setBlob("itemStacks", new ByteArraySizedInputStream(Mappable.serializeUnsafe(itemStacks)));
-            } catch (IOException e) {
-                e.printStackTrace();
+                entity = txn.getEntity(snapshot.getId());
+            } catch (EntityRemovedInDatabaseException e) {
+                return false;
+            }
+            Comparable<?> schemaVersion = entity.getProperty("schemaVersion");
+            if ((schemaVersion instanceof Integer ? (Integer) schemaVersion : 0) != expectedSchemaVersion) {
+                return false;
             }
+            snapshot.writeTo(entity);
+            return true;
         });
     }
+
+    @Override
+    protected Map<Integer, byte[]> getCompressionDictionaries() {
+        return getDataStoreContext().getDataStore().computeInReadonlyTransaction(txn -> {
+            Map<Integer, byte[]> dictionaries = new LinkedHashMap<>();
+            for (Entity entity : txn.sort(COMPRESSION_DICTIONARY_TYPE, "createdUtc", true)) {
+                readBlob(entity, "dictionary").ifPresent(dictionary ->
+                    dictionaries.put(SnapshotPayloadCompression.getDictionaryId(dictionary), dictionary));
+            }
+            return dictionaries;
+        });
+    }
+
+    @Override
+    protected Optional<byte[]> getCompressionDictionary(int id) {
+        return getDataStoreContext().getDataStore().computeInReadonlyTransaction(txn -> {
+            Entity entity = txn.find(COMPRESSION_DICTIONARY_TYPE, "dictionaryId", id).getFirst();
+            return entity == null ? Optional.<byte[]>empty() : readBlob(entity, "dictionary");
+        });
+    }
+
+    @Override
+    protected void saveCompressionDictionary(int id, byte[] dictionary) {
+        getDataStoreContext().getDataStore().executeInTransaction(txn -> {
+            if (!txn.find(COMPRESSION_DICTIONARY_TYPE, "dictionaryId", id).isEmpty()) {
+                return;
+            }
+            Entity entity = txn.newEntity(COMPRESSION_DICTIONARY_TYPE);
+            entity.setProperty("dictionaryId", id);
+            entity.setProperty("createdUtc", System.currentTimeMillis());
+            entity.setBlob("dictionary", new ByteArraySizedInputStream(dictionary));
+        });
+    }
+
+    private static Optional<byte[]> readBlob(Entity entity, String blobName) {
+        InputStream blob = entity.getBlob(blobName);
+        if (blob == null) {
+            return Optional.empty();
+        }
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = blob.read(buffer)) >= 0) {
+                out.write(buffer, 0, read);
+            }
+            return Optional.of(out.toByteArray());
+        } catch (IOException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
 }
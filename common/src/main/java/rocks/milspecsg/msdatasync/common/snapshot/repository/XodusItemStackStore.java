@@ -0,0 +1,103 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.snapshot.repository;
+
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.PersistentEntityStore;
+import jetbrains.exodus.entitystore.StoreTransaction;
+import jetbrains.exodus.util.ByteArraySizedInputStream;
+
+import java.util.Map;
+
+/**
+ * Shared item stacks of the Xodus store, one {@code SnapshotItemStack} entity per hash with a reference count.
+ *
+ * <p>
+ * Xodus has no unique constraints, so every change to the reference counts runs in an exclusive transaction.
+ * Two snapshots interning the same item stack at the same time therefore never create two entities for one hash.
+ * </p>
+ */
+public final class XodusItemStackStore {
+
+    public static final String ENTITY_TYPE = "SnapshotItemStack";
+    public static final String HASH = "hash";
+    public static final String REFERENCES = "references";
+    public static final String PROPERTIES = "properties";
+
+    private XodusItemStackStore() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    /**
+     * @return The entity holding the item stack with this hash, or {@code null} if it is not stored
+     */
+    public static Entity find(StoreTransaction txn, String hash) {
+        return txn.find(ENTITY_TYPE, HASH, hash).getFirst();
+    }
+
+    public static int getReferences(Entity entity) {
+        Comparable<?> references = entity.getProperty(REFERENCES);
+        return references instanceof Integer ? (Integer) references : 0;
+    }
+
+    /**
+     * Adds to the reference counts, storing the item stacks that are not stored yet
+     *
+     * @param payloads The content of item stacks by hash, only needed for item stacks that may not be stored yet
+     * @throws IllegalStateException If an item stack without a payload is not stored. None of the counts are changed then
+     */
+    public static void increment(PersistentEntityStore store, Map<String, Integer> references, Map<String, byte[]> payloads) {
+        store.executeInExclusiveTransaction(txn -> {
+            for (Map.Entry<String, Integer> entry : references.entrySet()) {
+                Entity entity = find(txn, entry.getKey());
+                if (entity == null) {
+                    byte[] payload = payloads.get(entry.getKey());
+                    if (payload == null) {
+                        // the reference would point at nothing, this aborts the transaction
+                        throw new IllegalStateException("Item stack " + entry.getKey() + " is no longer stored");
+                    }
+                    entity = txn.newEntity(ENTITY_TYPE);
+                    entity.setProperty(HASH, entry.getKey());
+                    entity.setBlob(PROPERTIES, new ByteArraySizedInputStream(payload));
+                }
+                entity.setProperty(REFERENCES, getReferences(entity) + entry.getValue());
+            }
+        });
+    }
+
+    /**
+     * Subtracts from the reference counts, removing the item stacks that are no longer referenced
+     */
+    public static void decrement(PersistentEntityStore store, Map<String, Integer> references) {
+        store.executeInExclusiveTransaction(txn -> {
+            for (Map.Entry<String, Integer> entry : references.entrySet()) {
+                Entity entity = find(txn, entry.getKey());
+                if (entity == null) {
+                    continue;
+                }
+                int remaining = getReferences(entity) - entry.getValue();
+                if (remaining > 0) {
+                    entity.setProperty(REFERENCES, remaining);
+                } else {
+                    entity.delete();
+                }
+            }
+        });
+    }
+}
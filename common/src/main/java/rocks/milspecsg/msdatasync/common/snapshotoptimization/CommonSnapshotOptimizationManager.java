@@ -20,6 +20,7 @@ package rocks.milspecsg.msdatasync.common.snapshotoptimization;
 
 import com.google.inject.Inject;
 import rocks.milspecsg.msdatasync.api.snapshotoptimization.SnapshotOptimizationManager;
+import rocks.milspecsg.msdatasync.api.snapshotoptimization.component.OptimizationDryRun;
 import rocks.milspecsg.msdatasync.api.snapshotoptimization.component.SnapshotOptimizationService;
 import rocks.milspecsg.msrepository.api.data.config.ConfigurationService;
 import rocks.milspecsg.msrepository.api.plugin.PluginInfo;
@@ -83,4 +84,45 @@ public class CommonSnapshotOptimizationManager<
                 .build()
         );
     }
+
+    @Override
+    public CompletableFuture<TString> dryRun(int sampleSize) {
+        return getPrimaryComponent().dryRun(sampleSize).thenApplyAsync(optionalDryRun -> {
+            if (!optionalDryRun.isPresent()) {
+                return stringResult.builder()
+                    .append(pluginInfo.getPrefix())
+                    .red().append("Invalid optimization strategy, optimization is disabled. Please check your config!")
+                    .build();
+            }
+            OptimizationDryRun dryRun = optionalDryRun.get();
+            StringResult.Builder<TString, TCommandSource> builder = stringResult.builder()
+                .append(pluginInfo.getPrefix())
+                .yellow().append("Optimization dry run, nothing was changed:\n")
+                .gray().append("Members planned: ").yellow().append(dryRun.getMembersPlanned(), "/", dryRun.getTotalMembers(), "\n");
+            for (int tier = 0; tier <= dryRun.getTierCount(); tier++) {
+                builder.gray().append("Tier ", dryRun.getTierName(tier), ": ")
+                    .yellow().append(dryRun.getKept(tier)).gray().append(" kept, ")
+                    .yellow().append(dryRun.getDeleted(tier)).gray().append(" deleted\n");
+            }
+            builder.gray().append("Estimated space reclaimed: ").yellow().append(formatBytes(dryRun.getEstimatedBytesReclaimed()));
+            if (dryRun.getMembersPlanned() > 0 && dryRun.getMembersPlanned() < dryRun.getTotalMembers()) {
+                long extrapolated = dryRun.getEstimatedBytesReclaimed() * dryRun.getTotalMembers() / dryRun.getMembersPlanned();
+                builder.gray().append(" (about ").yellow().append(formatBytes(extrapolated)).gray().append(" for all members)");
+            }
+            return builder.build();
+        });
+    }
+
+    private static String formatBytes(long bytes) {
+        if (bytes < 1024) {
+            return bytes + " B";
+        }
+        if (bytes < 1024 * 1024) {
+            return formatter.format(bytes / 1024d) + " KiB";
+        }
+        if (bytes < 1024L * 1024 * 1024) {
+            return formatter.format(bytes / (1024d * 1024)) + " MiB";
+        }
+        return formatter.format(bytes / (1024d * 1024 * 1024)) + " GiB";
+    }
 }
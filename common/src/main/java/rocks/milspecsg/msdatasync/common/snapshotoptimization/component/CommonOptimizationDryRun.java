@@ -0,0 +1,94 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.snapshotoptimization.component;
+
+import rocks.milspecsg.msdatasync.api.snapshotoptimization.component.OptimizationDryRun;
+
+import java.util.List;
+
+public final class CommonOptimizationDryRun implements OptimizationDryRun {
+
+    private final List<int[]> strategy;
+    private final int totalMembers;
+    private final long[] kept;
+    private final long[] deleted;
+    private int membersPlanned;
+    private long estimatedBytesReclaimed;
+
+    CommonOptimizationDryRun(List<int[]> strategy, int totalMembers) {
+        this.strategy = strategy;
+        this.totalMembers = totalMembers;
+        kept = new long[strategy.size() + 1];
+        deleted = new long[strategy.size() + 1];
+    }
+
+    void addSnapshot(int tier, boolean delete) {
+        if (delete) {
+            deleted[tier]++;
+        } else {
+            kept[tier]++;
+        }
+    }
+
+    void incrementMembersPlanned() {
+        membersPlanned++;
+    }
+
+    void addBytesReclaimed(long bytes) {
+        estimatedBytesReclaimed += bytes;
+    }
+
+    @Override
+    public int getTierCount() {
+        return strategy.size();
+    }
+
+    @Override
+    public String getTierName(int tier) {
+        if (tier == strategy.size()) {
+            return "expired";
+        }
+        return strategy.get(tier)[0] + ":" + strategy.get(tier)[1];
+    }
+
+    @Override
+    public long getKept(int tier) {
+        return kept[tier];
+    }
+
+    @Override
+    public long getDeleted(int tier) {
+        return deleted[tier];
+    }
+
+    @Override
+    public int getMembersPlanned() {
+        return membersPlanned;
+    }
+
+    @Override
+    public int getTotalMembers() {
+        return totalMembers;
+    }
+
+    @Override
+    public long getEstimatedBytesReclaimed() {
+        return estimatedBytesReclaimed;
+    }
+}
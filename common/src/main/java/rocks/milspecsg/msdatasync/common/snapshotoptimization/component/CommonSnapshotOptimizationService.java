@@ -24,6 +24,7 @@ import rocks.milspecsg.msdatasync.api.model.member.Member;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.api.serializer.user.component.UserSerializerComponent;
 import rocks.milspecsg.msdatasync.api.snapshot.repository.SnapshotRepository;
+import rocks.milspecsg.msdatasync.api.snapshotoptimization.component.OptimizationDryRun;
 import rocks.milspecsg.msdatasync.api.snapshotoptimization.component.SnapshotOptimizationService;
 import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
 import rocks.milspecsg.msrepository.api.data.key.Keys;
@@ -34,18 +35,28 @@ import rocks.milspecsg.msrepository.api.util.UserService;
 import rocks.milspecsg.msrepository.common.component.CommonComponent;
 
 import javax.inject.Inject;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.time.Instant;
-import java.time.OffsetDateTime;
-import java.time.ZoneOffset;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
 import java.util.Optional;
 import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.ConcurrentMap;
-import java.util.stream.Collectors;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
 
 public abstract class CommonSnapshotOptimizationService<
     TKey,
@@ -77,20 +88,44 @@ public abstract class CommonSnapshotOptimizationService<
     @Inject
     protected UserService<TUser, TPlayer> userService;
 
+    @Inject
+    protected SnapshotCreationTimeCache creationTimeCache;
+
+    /**
+     * Number of members loaded at once while iterating over all members
+     */
+    protected static final int MEMBER_BATCH_SIZE = 100;
+
+    private static final int IN_FLIGHT_PER_THREAD = 2;
+
+    private static final long CANCEL_CHECK_MILLIS = 250;
+
+    private static final int CHECKPOINT_INTERVAL = 50;
+
+    private static final int SIZE_ESTIMATE_BATCH_SIZE = 1000;
+
+    private static final String CHECKPOINT_FILE_NAME = "optimization-checkpoint.properties";
+
     private List<int[]> optimizationStrategy;
 
     // players that should not be edited (e.g. if they are currently being serialized / deserialized)
     protected volatile ConcurrentLinkedQueue<UUID> lockedPlayers;
 
-    protected volatile boolean optimizationTaskRunning;
+    protected final AtomicBoolean optimizationTaskRunning = new AtomicBoolean();
     protected volatile boolean requestCancelOptimizationTask;
 
     private volatile int totalMembers;
-    private volatile int membersCompleted;
-    private volatile int snapshotsDeleted;
-    private volatile int snapshotsUploaded;
-
-    protected volatile ConcurrentMap<TKey, Instant> idCreatedUtcMap;
+    private final LongAdder membersCompleted = new LongAdder();
+    private final LongAdder snapshotsDeleted = new LongAdder();
+    private final LongAdder snapshotsUploaded = new LongAdder();
+
+    // members handed to the workers in id order, mapped to their counters once they are completed
+    private final Map<TKey, MemberCounters> checkpointPending = new LinkedHashMap<>();
+    private TKey checkpointMemberId;
+    private int checkpointMembersCompleted;
+    private int checkpointSnapshotsDeleted;
+    private int checkpointSnapshotsUploaded;
+    private int completedSinceCheckpoint;
 
     //TODO: add time taken and estimated time left
 
@@ -101,7 +136,6 @@ public abstract class CommonSnapshotOptimizationService<
         this.registry = registry;
         registry.addRegistryLoadedListener(this::registryLoaded);
         lockedPlayers = new ConcurrentLinkedQueue<>();
-        idCreatedUtcMap = new ConcurrentHashMap<>();
     }
 
     private void registryLoaded() {
@@ -109,27 +143,29 @@ public abstract class CommonSnapshotOptimizationService<
         optimizationStrategy = optional.orElse(null);
     }
 
-    protected final synchronized void incrementCompleted() {
-        membersCompleted++;
+    protected final void incrementCompleted() {
+        membersCompleted.increment();
     }
 
-    protected final synchronized void incrementDeleted() {
-        snapshotsDeleted++;
+    protected final void incrementDeleted(final MemberCounters counters) {
+        snapshotsDeleted.increment();
+        counters.snapshotsDeleted.incrementAndGet();
     }
 
-    protected final synchronized void incrementUploaded() {
-        snapshotsUploaded++;
+    protected final void incrementUploaded(final MemberCounters counters) {
+        snapshotsUploaded.increment();
+        counters.snapshotsUploaded.incrementAndGet();
     }
 
     protected final void setTotalMembers(final int totalMembers) {
         this.totalMembers = totalMembers;
     }
 
-    protected final synchronized void resetCounters() {
+    protected final void resetCounters() {
         totalMembers = 0;
-        membersCompleted = 0;
-        snapshotsDeleted = 0;
-        snapshotsUploaded = 0;
+        membersCompleted.reset();
+        snapshotsDeleted.reset();
+        snapshotsUploaded.reset();
     }
 
     @Override
@@ -149,33 +185,196 @@ public abstract class CommonSnapshotOptimizationService<
 
     @Override
     public final int getMembersCompleted() {
-        return membersCompleted;
+        return membersCompleted.intValue();
     }
 
     @Override
     public final int getSnapshotsDeleted() {
-        return snapshotsDeleted;
+        return snapshotsDeleted.intValue();
     }
 
     @Override
     public final int getSnapshotsUploaded() {
-        return snapshotsUploaded;
+        return snapshotsUploaded.intValue();
     }
 
     @Override
     public final boolean isOptimizationTaskRunning() {
-        return optimizationTaskRunning;
+        return optimizationTaskRunning.get();
     }
 
+    /**
+     * Asks the running task to stop. Members that are being optimized are finished first, no new ones are started
+     */
     @Override
     public final boolean stopOptimizationTask() {
-        if (!optimizationTaskRunning) {
+        if (!optimizationTaskRunning.get()) {
             return false;
         }
+        requestCancelOptimizationTask = true;
+        return true;
+    }
+
+    /**
+     * Must be called by the task itself once it stopped, whether it was cancelled or not
+     */
+    protected final void finishOptimizationTask() {
         resetCounters();
-        optimizationTaskRunning = false;
         requestCancelOptimizationTask = false;
-        return true;
+        optimizationTaskRunning.set(false);
+    }
+
+    private Path getCheckpointPath() {
+        return Paths.get(registry.getOrDefault(Keys.DATA_DIRECTORY), CHECKPOINT_FILE_NAME);
+    }
+
+    private int getStrategyHash() {
+        return Objects.hash(registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_OPTIMIZATION_STRATEGY), registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_MIN_COUNT));
+    }
+
+    private OptimizationCheckpoint createCheckpoint() {
+        return new OptimizationCheckpoint(checkpointMemberId.toString(), getStrategyHash(), checkpointMembersCompleted, checkpointSnapshotsDeleted, checkpointSnapshotsUploaded);
+    }
+
+    /**
+     * Restores the counters of the last "all" pass if it was stopped before every member was completed
+     *
+     * @return The id of the last member that pass completed, or empty to start with the first member
+     */
+    protected final Optional<TKey> resumeFromCheckpoint() {
+        Optional<OptimizationCheckpoint> optionalCheckpoint = OptimizationCheckpoint.load(getCheckpointPath());
+        if (!optionalCheckpoint.isPresent()) {
+            return Optional.empty();
+        }
+        OptimizationCheckpoint checkpoint = optionalCheckpoint.get();
+        Optional<TKey> lastMemberId = memberRepository.parseMemberId(checkpoint.getLastMemberId());
+        // what is deleted depends on the strategy, a pass made with another one has to start over
+        if (!lastMemberId.isPresent() || checkpoint.getStrategyHash() != getStrategyHash()) {
+            OptimizationCheckpoint.delete(getCheckpointPath());
+            return Optional.empty();
+        }
+        synchronized (checkpointPending) {
+            checkpointMemberId = lastMemberId.get();
+            checkpointMembersCompleted = checkpoint.getMembersCompleted();
+            checkpointSnapshotsDeleted = checkpoint.getSnapshotsDeleted();
+            checkpointSnapshotsUploaded = checkpoint.getSnapshotsUploaded();
+        }
+        membersCompleted.add(checkpoint.getMembersCompleted());
+        snapshotsDeleted.add(checkpoint.getSnapshotsDeleted());
+        snapshotsUploaded.add(checkpoint.getSnapshotsUploaded());
+        return lastMemberId;
+    }
+
+    /**
+     * Remembers the order in which members are handed to the workers, so that {@link #completeCheckpoint(Object)}
+     * only moves the checkpoint past members that are completed along with every member before them
+     */
+    protected final Iterator<TMember> trackCheckpoint(final Iterator<TMember> members) {
+        return new Iterator<TMember>() {
+            @Override
+            public boolean hasNext() {
+                return members.hasNext();
+            }
+
+            @Override
+            public TMember next() {
+                TMember member = members.next();
+                synchronized (checkpointPending) {
+                    checkpointPending.put(member.getId(), null);
+                }
+                return member;
+            }
+        };
+    }
+
+    /**
+     * @param counters What was deleted and uploaded for this member. It is only added to the checkpoint together with
+     *                 the member, so that a resumed pass does not count the members after the checkpoint twice
+     */
+    protected final void completeCheckpoint(final TKey memberId, final MemberCounters counters) {
+        synchronized (checkpointPending) {
+            checkpointPending.put(memberId, counters);
+            Iterator<Map.Entry<TKey, MemberCounters>> iterator = checkpointPending.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<TKey, MemberCounters> entry = iterator.next();
+                if (entry.getValue() == null) {
+                    break;
+                }
+                checkpointMemberId = entry.getKey();
+                checkpointMembersCompleted++;
+                checkpointSnapshotsDeleted += entry.getValue().snapshotsDeleted.get();
+                checkpointSnapshotsUploaded += entry.getValue().snapshotsUploaded.get();
+                iterator.remove();
+            }
+            if (++completedSinceCheckpoint >= CHECKPOINT_INTERVAL && checkpointMemberId != null) {
+                completedSinceCheckpoint = 0;
+                createCheckpoint().save(getCheckpointPath());
+            }
+        }
+    }
+
+    /**
+     * Removes the checkpoint once every member was completed, otherwise saves it so the next "all" pass resumes from it
+     */
+    protected final void finishCheckpoint(final boolean passCompleted) {
+        synchronized (checkpointPending) {
+            if (passCompleted) {
+                OptimizationCheckpoint.delete(getCheckpointPath());
+            } else if (checkpointMemberId != null) {
+                createCheckpoint().save(getCheckpointPath());
+            }
+            checkpointPending.clear();
+            checkpointMemberId = null;
+            checkpointMembersCompleted = 0;
+            checkpointSnapshotsDeleted = 0;
+            checkpointSnapshotsUploaded = 0;
+            completedSinceCheckpoint = 0;
+        }
+    }
+
+    /**
+     * Runs {@code action} for every item on a pool of {@link MSDataSyncKeys#SNAPSHOT_OPTIMIZATION_THREADS} threads.
+     * Only a few items per thread are taken from {@code items} ahead of time, so it may be lazy.
+     * Stops taking items once the task is cancelled and returns when every started action finished
+     */
+    protected final <T> void forEachBounded(final Iterator<? extends T> items, final Consumer<? super T> action) {
+        int threads = Math.max(1, registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_OPTIMIZATION_THREADS));
+        AtomicInteger threadCount = new AtomicInteger();
+        ExecutorService workers = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "MSDataSync Optimizer " + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        Semaphore inFlight = new Semaphore(threads * IN_FLIGHT_PER_THREAD);
+        try {
+            while (!requestCancelOptimizationTask && items.hasNext()) {
+                // wake up regularly so cancelling does not wait for a slow member
+                if (!inFlight.tryAcquire(CANCEL_CHECK_MILLIS, TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+                T item = items.next();
+                workers.execute(() -> {
+                    try {
+                        if (!requestCancelOptimizationTask) {
+                            action.accept(item);
+                        }
+                    } catch (RuntimeException e) {
+                        e.printStackTrace();
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            workers.shutdown();
+            try {
+                workers.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
     }
 
     protected abstract void sendError(final TCommandSource source, final String message);
@@ -183,9 +382,10 @@ public abstract class CommonSnapshotOptimizationService<
     protected abstract void submitTask(final Runnable runnable, final Object plugin);
 
     /**
+     * @param counters Counts what is deleted and uploaded for this member, complete once the returned future is
      * @return true if something was deleted
      */
-    protected final CompletableFuture<Boolean> optimizeFull(final List<TKey> snapshotIds, final UUID userUUID, final TCommandSource source, final String name, final Object plugin) {
+    protected final CompletableFuture<Boolean> optimizeFull(final List<TKey> snapshotIds, final UUID userUUID, final TCommandSource source, final String name, final Object plugin, final MemberCounters counters) {
         int baseInterval = registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_UPLOAD_INTERVAL_MINUTES);
         Optional<TPlayer> optionalPlayer = userService.getPlayer(userUUID);
         if (!optionalPlayer.isPresent()) {
@@ -196,10 +396,25 @@ public abstract class CommonSnapshotOptimizationService<
         CompletableFuture<Void> uploadFuture = new CompletableFuture<>();
 
         CompletableFuture.runAsync(() -> {
-            if (snapshotIds.stream().noneMatch(objectId -> within(objectId, baseInterval).join())) {
+            // read all creation times for this member at once instead of once per snapshot
+            creationTimeCache.putAll(memberRepository.getSnapshotCreationTimeMapForUser(userUUID).join());
+            long now = System.currentTimeMillis();
+            long[] createdUtc = getCreatedUtcMillis(snapshotIds);
+            if (Arrays.stream(createdUtc).noneMatch(created -> created != SnapshotRetentionPlanner.UNKNOWN && now - created < baseInterval * 60_000L)) {
+                if (registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_SKIP_UNCHANGED)) {
+                    submitTask(() -> userSerializer.serializeIfChanged(user, name).thenAcceptAsync(optionalSnapshot -> {
+                        // empty if nothing changed, failed uploads are logged by the serializer
+                        optionalSnapshot.ifPresent(snapshot -> {
+                            incrementUploaded(counters);
+                            snapshotIds.add(snapshot.getId());
+                        });
+                        uploadFuture.complete(null);
+                    }), plugin);
+                    return;
+                }
                 submitTask(() -> userSerializer.serialize(user, name).thenAcceptAsync(optionalSnapshot -> {
                     if (optionalSnapshot.isPresent()) {
-                        incrementUploaded();
+                        incrementUploaded(counters);
                         snapshotIds.add(optionalSnapshot.get().getId());
                     } else {
                         sendError(source, "There was an error serializing user " + user);
@@ -215,74 +430,129 @@ public abstract class CommonSnapshotOptimizationService<
                 sendError(source, "Invalid optimization strategy, optimization is disabled. Please check your config!");
                 return false;
             }
-            int minCount = registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_MIN_COUNT);
-            int snapshotCount = snapshotIds.size();
-            if (snapshotCount <= minCount) return false;
-            TKey latestSnapshotId = snapshotCount > 0 ? snapshotIds.get(snapshotCount - 1) : null; // this one should not be deleted
-            List<TKey> toDelete = new ArrayList<>();
-            optimizationStrategy.forEach(i -> filter(snapshotIds, toDelete, i[0], i[1]).join()); // this line adds snapshot ids to the delete list based on config settings
-            int[] last = optimizationStrategy.get(optimizationStrategy.size() - 1);
-            snapshotIds.stream().filter(snapshotId -> within(snapshotId, last[0] * last[1]).join()).collect(Collectors.toList()).forEach(snapshotIds::remove);
-            toDelete.addAll(snapshotIds);
-            boolean[] deletedAnything = {false};
-            for (TKey id : toDelete) {
-                // always leave minCount number of snapshots
-                if (snapshotCount-- <= minCount) break;
-                // do not delete latest snapshot
-                if (id.equals(latestSnapshotId)) break;
-
-                memberRepository.deleteSnapshotForUser(userUUID, id).thenAcceptAsync(success -> {
-                    if (success) {
-                        deletedAnything[0] = true;
-                        incrementDeleted();
-                    } else {
-                        String[] dateOrId = {id.toString()};
-                        snapshotRepository.getCreatedUtc(id).thenAcceptAsync(optionalDate -> optionalDate.ifPresent(date -> dateOrId[0] = timeFormatService.format(date)));
-                        sendError(source, "There was an error removing snapshot " + dateOrId[0] + " from " + userService.getUserName(user));
-                    }
-                }).join();
+            if (snapshotIds.size() <= registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_MIN_COUNT)) return false;
+            // every creation time is looked up before planning, the plan itself does not wait on anything
+            long[] createdUtc = getCreatedUtcMillis(snapshotIds);
+            List<TKey> deleting = new ArrayList<>();
+            for (int index : selectForDeletion(createdUtc, System.currentTimeMillis(), optimizationStrategy)) {
+                deleting.add(snapshotIds.get(index));
+            }
+            if (deleting.isEmpty()) {
+                return false;
+            }
+            List<TKey> deleted = memberRepository.deleteSnapshotsForUser(userUUID, deleting).join();
+            for (TKey id : deleting) {
+                if (deleted.contains(id)) {
+                    incrementDeleted(counters);
+                } else {
+                    String[] dateOrId = {id.toString()};
+                    snapshotRepository.getCreatedUtc(id).thenAcceptAsync(optionalDate -> optionalDate.ifPresent(date -> dateOrId[0] = timeFormatService.format(date)));
+                    sendError(source, "There was an error removing snapshot " + dateOrId[0] + " from " + userService.getUserName(user));
+                }
             }
-            return deletedAnything[0];
+            return !deleted.isEmpty();
         });
     }
 
-    protected final CompletableFuture<Boolean> within(final TKey id, final long minutes) {
-        return getCreatedUtc(id).thenApplyAsync(createdUtc -> OffsetDateTime.now(ZoneOffset.UTC).toInstant().isBefore(createdUtc.plusSeconds(minutes * 60L)));
+    /**
+     * @param createdUtc Creation time in epoch millis of each snapshot, in the order the member stores them
+     * @return The index of every snapshot the strategy deletes, always leaving {@link MSDataSyncKeys#SNAPSHOT_MIN_COUNT}
+     * snapshots and the latest one
+     */
+    private int[] selectForDeletion(final long[] createdUtc, final long now, final List<int[]> strategy) {
+        int minCount = registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_MIN_COUNT);
+        int snapshotCount = createdUtc.length;
+        if (snapshotCount <= minCount) {
+            return new int[0];
+        }
+        int[] planned = SnapshotRetentionPlanner.plan(createdUtc, now, strategy);
+        int count = 0;
+        for (int index : planned) {
+            // always leave minCount number of snapshots
+            if (snapshotCount-- <= minCount) break;
+            // do not delete latest snapshot
+            if (index == createdUtc.length - 1) break;
+            count++;
+        }
+        return Arrays.copyOf(planned, count);
     }
 
-    protected final CompletableFuture<Void> filter(final List<TKey> snapshotIds, final List<TKey> toDelete, final int intervalMinutes, final int maxCount) {
-        return CompletableFuture.runAsync(() -> {
-            snapshotIds.stream().filter(snapshotId -> within(snapshotId, intervalMinutes).join()).collect(Collectors.toList()).forEach(snapshotIds::remove);
-            for (int i = 2; i <= maxCount; i++) {
-                TKey allowed = null;
-                for (TKey snapshotId : snapshotIds) {
-                    if (within(snapshotId, intervalMinutes * i).join()) {
-                        if (allowed == null) {
-                            allowed = snapshotId;
-                        } else {
-                            toDelete.add(snapshotId);
-                        }
-                    }
+    @Override
+    public final CompletableFuture<Optional<OptimizationDryRun>> dryRun(final int sampleSize) {
+        return CompletableFuture.supplyAsync(() -> {
+            List<int[]> strategy = optimizationStrategy;
+            if (strategy == null) {
+                return Optional.empty();
+            }
+            long now = System.currentTimeMillis();
+            int totalMembers = memberRepository.countMembers().join().intValue();
+            // every n-th member, so that a sample is spread over the whole data store
+            int step = sampleSize > 0 ? Math.max(1, totalMembers / sampleSize) : 1;
+            CommonOptimizationDryRun dryRun = new CommonOptimizationDryRun(strategy, totalMembers);
+            List<TKey> deleting = new ArrayList<>();
+            Iterator<TMember> members = memberRepository.iterateMembers(Optional.empty(), MEMBER_BATCH_SIZE);
+            for (int i = 0; members.hasNext() && (sampleSize <= 0 || dryRun.getMembersPlanned() < sampleSize); i++) {
+                TMember member = members.next();
+                if (i % step != 0) {
+                    continue;
+                }
+                List<TKey> snapshotIds = member.getSnapshotIds();
+                // loading the page cached the creation times, only the ones it could not provide are looked up
+                long[] createdUtc = getCreatedUtcMillis(snapshotIds);
+                boolean[] delete = new boolean[createdUtc.length];
+                for (int index : selectForDeletion(createdUtc, now, strategy)) {
+                    delete[index] = true;
+                    deleting.add(snapshotIds.get(index));
                 }
-                if (allowed != null) {
-                    snapshotIds.remove(allowed);
-                    snapshotIds.removeAll(toDelete);
+                for (int j = 0; j < createdUtc.length; j++) {
+                    dryRun.addSnapshot(SnapshotRetentionPlanner.getTier(createdUtc[j], now, strategy), delete[j]);
                 }
+                dryRun.incrementMembersPlanned();
+                if (deleting.size() >= SIZE_ESTIMATE_BATCH_SIZE) {
+                    dryRun.addBytesReclaimed(snapshotRepository.estimateStoredSize(deleting).join());
+                    deleting.clear();
+                }
+            }
+            if (!deleting.isEmpty()) {
+                dryRun.addBytesReclaimed(snapshotRepository.estimateStoredSize(deleting).join());
             }
+            return Optional.of(dryRun);
         });
     }
 
+    /**
+     * @return The creation time in epoch millis of each snapshot, or {@link SnapshotRetentionPlanner#UNKNOWN}.
+     * Only snapshots that are not cached yet are looked up
+     */
+    protected final long[] getCreatedUtcMillis(final List<TKey> snapshotIds) {
+        long[] createdUtc = new long[snapshotIds.size()];
+        for (int i = 0; i < createdUtc.length; i++) {
+            Instant instant = getCreatedUtc(snapshotIds.get(i)).join();
+            createdUtc[i] = Instant.MIN.equals(instant) ? SnapshotRetentionPlanner.UNKNOWN : instant.toEpochMilli();
+        }
+        return createdUtc;
+    }
+
     protected CompletableFuture<Instant> getCreatedUtc(TKey id) {
-        if (idCreatedUtcMap.containsKey(id)) {
-            return CompletableFuture.completedFuture(idCreatedUtcMap.get(id));
+        Optional<Instant> cached = creationTimeCache.get(id);
+        if (cached.isPresent()) {
+            return CompletableFuture.completedFuture(cached.get());
         }
 
         return snapshotRepository.getCreatedUtc(id).thenApplyAsync(timeStamp -> {
             if (!timeStamp.isPresent()) {
                 return Instant.MIN;
             }
-            idCreatedUtcMap.put(id, timeStamp.get());
+            creationTimeCache.put(id, timeStamp.get());
             return timeStamp.get();
         });
     }
+
+    /**
+     * Snapshots deleted and uploaded for a single member
+     */
+    public static final class MemberCounters {
+        private final AtomicInteger snapshotsDeleted = new AtomicInteger();
+        private final AtomicInteger snapshotsUploaded = new AtomicInteger();
+    }
 }
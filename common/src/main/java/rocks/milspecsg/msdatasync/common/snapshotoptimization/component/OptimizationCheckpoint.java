@@ -0,0 +1,136 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.snapshotoptimization.component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Optional;
+import java.util.Properties;
+
+/**
+ * Progress of an "all" optimization pass, saved so that a stopped pass can be resumed later.
+ *
+ * <p>
+ * Members are visited in id order, so the pass can continue with the members after {@link #getLastMemberId()}.
+ * A checkpoint only applies to the strategy it was made with, see {@link #getStrategyHash()}.
+ * </p>
+ */
+public final class OptimizationCheckpoint {
+
+    private final String lastMemberId;
+    private final int strategyHash;
+    private final int membersCompleted;
+    private final int snapshotsDeleted;
+    private final int snapshotsUploaded;
+
+    public OptimizationCheckpoint(String lastMemberId, int strategyHash, int membersCompleted, int snapshotsDeleted, int snapshotsUploaded) {
+        this.lastMemberId = lastMemberId;
+        this.strategyHash = strategyHash;
+        this.membersCompleted = membersCompleted;
+        this.snapshotsDeleted = snapshotsDeleted;
+        this.snapshotsUploaded = snapshotsUploaded;
+    }
+
+    /**
+     * @return The string form of the id of the last member that was completed, along with every member before it
+     */
+    public String getLastMemberId() {
+        return lastMemberId;
+    }
+
+    public int getStrategyHash() {
+        return strategyHash;
+    }
+
+    public int getMembersCompleted() {
+        return membersCompleted;
+    }
+
+    public int getSnapshotsDeleted() {
+        return snapshotsDeleted;
+    }
+
+    public int getSnapshotsUploaded() {
+        return snapshotsUploaded;
+    }
+
+    /**
+     * @return The saved checkpoint, or empty if there is none or it cannot be read
+     */
+    public static Optional<OptimizationCheckpoint> load(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return Optional.empty();
+        }
+        Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(path)) {
+            properties.load(in);
+            String lastMemberId = properties.getProperty("lastMemberId");
+            if (lastMemberId == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new OptimizationCheckpoint(
+                lastMemberId,
+                Integer.parseInt(properties.getProperty("strategyHash", "0")),
+                Integer.parseInt(properties.getProperty("membersCompleted", "0")),
+                Integer.parseInt(properties.getProperty("snapshotsDeleted", "0")),
+                Integer.parseInt(properties.getProperty("snapshotsUploaded", "0"))
+            ));
+        } catch (IOException | NumberFormatException e) {
+            e.printStackTrace();
+            return Optional.empty();
+        }
+    }
+
+    /**
+     * Replaces the checkpoint at {@code path}. The file is written next to it first, so a crash never leaves half a checkpoint
+     */
+    public void save(Path path) {
+        Properties properties = new Properties();
+        properties.setProperty("lastMemberId", lastMemberId);
+        properties.setProperty("strategyHash", Integer.toString(strategyHash));
+        properties.setProperty("membersCompleted", Integer.toString(membersCompleted));
+        properties.setProperty("snapshotsDeleted", Integer.toString(snapshotsDeleted));
+        properties.setProperty("snapshotsUploaded", Integer.toString(snapshotsUploaded));
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            Path parent = path.toAbsolutePath().getParent();
+            if (parent != null) {
+                Files.createDirectories(parent);
+            }
+            try (OutputStream out = Files.newOutputStream(temp)) {
+                properties.store(out, "MSDataSync optimization checkpoint");
+            }
+            Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    public static void delete(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
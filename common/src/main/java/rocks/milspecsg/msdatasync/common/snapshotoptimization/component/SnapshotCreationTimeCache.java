@@ -0,0 +1,93 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.snapshotoptimization.component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.inject.Inject;
+import com.google.inject.Singleton;
+import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
+import rocks.milspecsg.msrepository.api.data.registry.Registry;
+
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Creation times of snapshots that the optimizer looked up, keyed by snapshot id.
+ * Holds at most {@link MSDataSyncKeys#SNAPSHOT_CREATION_TIME_CACHE_SIZE} entries, the least recently used ones are evicted first.
+ * Member repositories invalidate the entries of snapshots they delete
+ */
+@Singleton
+public class SnapshotCreationTimeCache {
+
+    private volatile Cache<Object, Instant> cache;
+
+    private volatile int maximumSize;
+
+    @Inject
+    public SnapshotCreationTimeCache(Registry registry) {
+        registry.addRegistryLoadedListener(() -> resize(registry.getOrDefault(MSDataSyncKeys.SNAPSHOT_CREATION_TIME_CACHE_SIZE)));
+        resize(MSDataSyncKeys.SNAPSHOT_CREATION_TIME_CACHE_SIZE.getFallbackValue());
+    }
+
+    private synchronized void resize(int maximumSize) {
+        maximumSize = Math.max(1, maximumSize);
+        if (cache != null && this.maximumSize == maximumSize) {
+            return;
+        }
+        // the statistics start over, entries are cheap to look up again
+        cache = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+        this.maximumSize = maximumSize;
+    }
+
+    public Optional<Instant> get(Object snapshotId) {
+        return Optional.ofNullable(cache.getIfPresent(snapshotId));
+    }
+
+    public void put(Object snapshotId, Instant createdUtc) {
+        cache.put(snapshotId, createdUtc);
+    }
+
+    public void putAll(Map<?, Instant> creationTimes) {
+        cache.putAll(creationTimes);
+    }
+
+    public void invalidate(Object snapshotId) {
+        cache.invalidate(snapshotId);
+    }
+
+    public void invalidateAll(Collection<?> snapshotIds) {
+        cache.invalidateAll(snapshotIds);
+    }
+
+    public long getSize() {
+        return cache.size();
+    }
+
+    public int getMaximumSize() {
+        return maximumSize;
+    }
+
+    public CacheStats getStats() {
+        return cache.stats();
+    }
+}
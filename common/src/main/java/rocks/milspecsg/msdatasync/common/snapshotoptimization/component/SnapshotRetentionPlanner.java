@@ -0,0 +1,139 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.snapshotoptimization.component;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Decides which snapshots of a member the optimization strategy deletes in a single pass over their creation times.
+ *
+ * <p>
+ * A tier {@code x:y} keeps every snapshot younger than {@code x} minutes. Older snapshots up to {@code x * y} minutes
+ * are grouped into buckets of {@code x} minutes, of which only the first snapshot is kept. Snapshots older than
+ * the last tier are deleted. Snapshots without a creation time are never in any tier.
+ * </p>
+ */
+public final class SnapshotRetentionPlanner {
+
+    /**
+     * Creation time of snapshots whose creation time is unknown
+     */
+    public static final long UNKNOWN = Long.MIN_VALUE;
+
+    static final int KEEP = -1;
+    static final int EXPIRED = -2;
+
+    private SnapshotRetentionPlanner() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    /**
+     * @param createdUtc Creation time in epoch millis of each snapshot, in the order the member stores them
+     * @param now        Epoch millis to measure the age of the snapshots against
+     * @param strategy   Decoded optimization strategy, every entry is {@code {x, y}}
+     * @return The index of every snapshot to delete, youngest bucket first, followed by snapshots older than every tier
+     */
+    public static int[] plan(long[] createdUtc, long now, List<int[]> strategy) {
+        int[] offsets = new int[strategy.size()];
+        int buckets = 0;
+        for (int t = 0; t < strategy.size(); t++) {
+            offsets[t] = buckets;
+            buckets += Math.max(0, strategy.get(t)[1] - 1);
+        }
+        int[] kept = new int[buckets];
+        Arrays.fill(kept, -1);
+        List<List<Integer>> deletedPerBucket = new ArrayList<>(buckets);
+        for (int b = 0; b < buckets; b++) {
+            deletedPerBucket.add(new ArrayList<>(0));
+        }
+        List<Integer> expired = new ArrayList<>();
+
+        for (int i = 0; i < createdUtc.length; i++) {
+            int bucket = getBucket(createdUtc[i], now, strategy, offsets);
+            if (bucket == KEEP) {
+                continue;
+            }
+            if (bucket == EXPIRED) {
+                expired.add(i);
+            } else if (kept[bucket] < 0) {
+                kept[bucket] = i;
+            } else {
+                deletedPerBucket.get(bucket).add(i);
+            }
+        }
+
+        int count = expired.size();
+        for (List<Integer> deleted : deletedPerBucket) {
+            count += deleted.size();
+        }
+        int[] result = new int[count];
+        int r = 0;
+        for (List<Integer> deleted : deletedPerBucket) {
+            for (int index : deleted) {
+                result[r++] = index;
+            }
+        }
+        for (int index : expired) {
+            result[r++] = index;
+        }
+        return result;
+    }
+
+    /**
+     * @return The index of the first tier whose range covers the snapshot, {@code strategy.size()} if it is
+     * older than every tier or its creation time is unknown
+     */
+    public static int getTier(long createdUtc, long now, List<int[]> strategy) {
+        if (createdUtc == UNKNOWN) {
+            return strategy.size();
+        }
+        long age = now - createdUtc;
+        for (int t = 0; t < strategy.size(); t++) {
+            if (age < strategy.get(t)[0] * 60_000L * strategy.get(t)[1]) {
+                return t;
+            }
+        }
+        return strategy.size();
+    }
+
+    /**
+     * @return The global index of the bucket the snapshot falls in, {@link #KEEP} if it is younger than the
+     * first interval of its tier or {@link #EXPIRED} if it is older than every tier
+     */
+    static int getBucket(long createdUtc, long now, List<int[]> strategy, int[] offsets) {
+        if (createdUtc == UNKNOWN) {
+            return EXPIRED;
+        }
+        long age = now - createdUtc;
+        for (int t = 0; t < strategy.size(); t++) {
+            long interval = strategy.get(t)[0] * 60_000L;
+            int maxCount = strategy.get(t)[1];
+            if (age < interval) {
+                return KEEP;
+            }
+            if (age < interval * maxCount) {
+                // bucket n holds ages between n and n + 1 intervals, the first one is covered by KEEP
+                return offsets[t] + (int) (age / interval) - 1;
+            }
+        }
+        return EXPIRED;
+    }
+}
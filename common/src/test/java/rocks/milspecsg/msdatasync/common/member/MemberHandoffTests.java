@@ -0,0 +1,137 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.member;
+
+import jetbrains.exodus.entitystore.PersistentEntityStore;
+import jetbrains.exodus.entitystore.PersistentEntityStores;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import rocks.milspecsg.msdatasync.common.member.repository.CommonXodusMemberRepository;
+import rocks.milspecsg.msdatasync.common.model.member.XodusMember;
+import rocks.milspecsg.msdatasync.common.model.snapshot.XodusSnapshot;
+
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Two servers in one process, each with its own member repository on the same store
+ */
+public class MemberHandoffTests {
+
+    private static final long TIMEOUT_MILLIS = 5000;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PersistentEntityStore store;
+
+    private final UUID userUUID = UUID.randomUUID();
+
+    private CommonXodusMemberRepository<XodusMember, XodusSnapshot, Object, Object> repositoryA;
+
+    private MemberHandoff serverA;
+    private MemberHandoff serverB;
+
+    @Before
+    public void createServers() throws Exception {
+        store = PersistentEntityStores.newInstance(folder.newFolder("xodus"));
+        repositoryA = createRepository();
+        serverA = new MemberHandoff(repositoryA, () -> "a");
+        serverB = new MemberHandoff(createRepository(), () -> "b");
+    }
+
+    @After
+    public void closeStore() {
+        store.close();
+    }
+
+    @Test
+    public void joinWaitsUntilTheOtherServerReleases() throws Exception {
+        assertTrue(serverA.claim(userUUID).join());
+        serverA.beginLeave(userUUID);
+
+        CompletableFuture<Boolean> join = serverB.await(userUUID, TIMEOUT_MILLIS);
+        Thread.sleep(MemberHandoff.INITIAL_POLL_MILLIS * 4);
+        assertFalse(join.isDone());
+
+        assertTrue(serverA.release(userUUID).join());
+        assertTrue(join.get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(serverB.claim(userUUID).join());
+        assertEquals(Optional.of("b"), repositoryA.getOnlineServerForUser(userUUID).join());
+    }
+
+    @Test
+    public void joinTimesOutWhileTheOtherServerHolds() throws Exception {
+        assertTrue(serverA.claim(userUUID).join());
+        serverA.beginLeave(userUUID);
+
+        long start = System.nanoTime();
+        assertFalse(serverB.await(userUUID, MemberHandoff.INITIAL_POLL_MILLIS * 4).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+        assertTrue(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start) >= MemberHandoff.INITIAL_POLL_MILLIS * 4);
+        assertEquals(Optional.of("a"), repositoryA.getOnlineServerForUser(userUUID).join());
+    }
+
+    @Test
+    public void joinDoesNotWaitForAMarkerLeftByACrash() throws Exception {
+        // claimed, but no upload in progress on this server
+        assertTrue(serverA.claim(userUUID).join());
+        assertTrue(serverA.await(userUUID, TIMEOUT_MILLIS).get(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void releaseKeepsTheClaimOfTheOtherServer() {
+        assertTrue(serverA.claim(userUUID).join());
+        assertTrue(serverB.claim(userUUID).join());
+        assertFalse(serverA.release(userUUID).join());
+        assertEquals(Optional.of("b"), repositoryA.getOnlineServerForUser(userUUID).join());
+    }
+
+    @Test
+    public void bothServersShareOneMember() {
+        assertTrue(serverA.claim(userUUID).join());
+        assertTrue(serverB.claim(userUUID).join());
+        store.executeInReadonlyTransaction(txn -> assertEquals(1, txn.find(XodusMember.class.getSimpleName(), "userUUID", userUUID.toString()).size()));
+    }
+
+    /**
+     * @return A repository on {@link #store}. The online server of members needs nothing else, so the rest is not injected
+     */
+    private CommonXodusMemberRepository<XodusMember, XodusSnapshot, Object, Object> createRepository() {
+        return new CommonXodusMemberRepository<XodusMember, XodusSnapshot, Object, Object>(null) {
+            @Override
+            protected PersistentEntityStore getEntityStore() {
+                return store;
+            }
+
+            @Override
+            public Class<XodusMember> getTClass() {
+                return XodusMember.class;
+            }
+        };
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import org.junit.Test;
+import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
+import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
+import rocks.milspecsg.msdatasync.common.model.serializeditemstack.MongoSerializedItemStack;
+
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotDeltasTests {
+
+    @Test
+    public void deltaKeepsOnlyChangedKeysAndSlots() {
+        Snapshot<Integer> parent = snapshot(1, keys("health", 20.0, "food", 10), itemStacks("stone", "dirt", "sand"));
+        Snapshot<Integer> snapshot = snapshot(2, keys("health", 15.0, "food", 10), itemStacks("stone", "gravel", "sand"));
+
+        assertTrue(SnapshotDeltas.toDelta(snapshot, parent));
+
+        assertEquals(Integer.valueOf(1), snapshot.getParentId());
+        assertEquals(keys("health", 15.0), snapshot.getKeys());
+        assertEquals(Collections.singletonList(1), snapshot.getItemStackSlots());
+        assertEquals(types(itemStacks("gravel")), types(snapshot.getItemStacks()));
+    }
+
+    @Test
+    public void unchangedDeltaStillListsOneSlot() {
+        Snapshot<Integer> parent = snapshot(1, keys("health", 20.0), itemStacks("stone", "dirt"));
+        Snapshot<Integer> snapshot = snapshot(2, keys("health", 20.0), itemStacks("stone", "dirt"));
+
+        assertTrue(SnapshotDeltas.toDelta(snapshot, parent));
+
+        assertTrue(snapshot.getKeys().isEmpty());
+        assertEquals(Collections.singletonList(0), snapshot.getItemStackSlots());
+    }
+
+    @Test
+    public void removedKeysAndResizedInventoriesAreKeyframes() {
+        Snapshot<Integer> parent = snapshot(1, keys("health", 20.0, "food", 10), itemStacks("stone", "dirt"));
+        Snapshot<Integer> removedKey = snapshot(2, keys("health", 20.0), itemStacks("stone", "dirt"));
+        Snapshot<Integer> resized = snapshot(3, keys("health", 20.0, "food", 10), itemStacks("stone"));
+
+        assertFalse(SnapshotDeltas.toDelta(removedKey, parent));
+        assertFalse(SnapshotDeltas.toDelta(resized, parent));
+
+        assertNull(removedKey.getParentId());
+        assertEquals(keys("health", 20.0), removedKey.getKeys());
+        assertEquals(types(itemStacks("stone")), types(resized.getItemStacks()));
+    }
+
+    @Test
+    public void applyingADeltaRestoresTheFullSnapshot() {
+        Snapshot<Integer> parent = snapshot(1, keys("health", 20.0, "food", 10), itemStacks("stone", "dirt", "sand"));
+        Snapshot<Integer> snapshot = snapshot(2, keys("health", 15.0, "food", 10), itemStacks("stone", "gravel", "sand"));
+        SnapshotDeltas.toDelta(snapshot, parent);
+
+        Map<String, Object> keys = new HashMap<>();
+        List<SerializedItemStack> itemStacks = new ArrayList<>();
+        SnapshotDeltas.apply(keys, itemStacks, parent);
+        SnapshotDeltas.apply(keys, itemStacks, snapshot);
+
+        assertEquals(keys("health", 15.0, "food", 10), keys);
+        assertEquals(Arrays.asList("stone", "gravel", "sand"), types(itemStacks));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void applyingADeltaWithoutItsParentFails() {
+        Snapshot<Integer> parent = snapshot(1, keys("health", 20.0), itemStacks("stone", "dirt"));
+        Snapshot<Integer> snapshot = snapshot(2, keys("health", 15.0), itemStacks("stone", "sand"));
+        SnapshotDeltas.toDelta(snapshot, parent);
+
+        SnapshotDeltas.apply(new HashMap<>(), new ArrayList<>(), snapshot);
+    }
+
+    @Test
+    public void restoringTheFullStateUndoesTheDelta() {
+        Snapshot<Integer> parent = snapshot(1, keys("health", 20.0, "food", 10), itemStacks("stone", "dirt"));
+        Snapshot<Integer> snapshot = snapshot(2, keys("health", 15.0, "food", 10), itemStacks("stone", "sand"));
+        SnapshotDeltaBase<Integer> fullState = SnapshotDeltaBase.of(snapshot);
+        SnapshotDeltas.toDelta(snapshot, parent);
+        // interning replaces the properties of the item stacks
+        snapshot.getItemStacks().get(0).setProperties(keys("reference", "hash"));
+
+        fullState.restore(snapshot);
+
+        assertNull(snapshot.getParentId());
+        assertTrue(snapshot.getItemStackSlots().isEmpty());
+        assertEquals(keys("health", 15.0, "food", 10), snapshot.getKeys());
+        assertEquals(Arrays.asList("stone", "sand"), types(snapshot.getItemStacks()));
+    }
+
+    @Test
+    public void storedStateIsNotChangedByInterning() {
+        Snapshot<Integer> parent = snapshot(null, keys("health", 20.0), itemStacks("stone", "dirt"));
+        SnapshotDeltaBase<Integer> stored = SnapshotDeltaBase.of(parent).storedAs(1, 3);
+        parent.getItemStacks().get(0).setProperties(keys("reference", "hash"));
+        Snapshot<Integer> snapshot = snapshot(2, keys("health", 20.0), itemStacks("stone", "sand"));
+
+        assertTrue(SnapshotDeltas.toDelta(snapshot, stored));
+
+        assertEquals(Integer.valueOf(1), snapshot.getParentId());
+        assertEquals(Collections.singletonList(1), snapshot.getItemStackSlots());
+        assertEquals(3, stored.getDepth());
+    }
+
+    @Test
+    public void mergingADeltaReparentsItsChild() {
+        Snapshot<Integer> keyframe = snapshot(1, keys("health", 20.0, "food", 10), itemStacks("stone", "dirt", "sand"));
+        Snapshot<Integer> removed = snapshot(2, keys("health", 15.0, "food", 10), itemStacks("gravel", "dirt", "sand"));
+        Snapshot<Integer> child = snapshot(3, keys("health", 15.0, "food", 5), itemStacks("gravel", "dirt", "glass"));
+        SnapshotDeltas.toDelta(child, removed);
+        SnapshotDeltas.toDelta(removed, keyframe);
+
+        SnapshotDeltas.merge(removed, child);
+
+        assertEquals(Integer.valueOf(1), child.getParentId());
+        assertEquals(Arrays.asList(0, 2), child.getItemStackSlots());
+        Map<String, Object> keys = new HashMap<>();
+        List<SerializedItemStack> itemStacks = new ArrayList<>();
+        SnapshotDeltas.apply(keys, itemStacks, keyframe);
+        SnapshotDeltas.apply(keys, itemStacks, child);
+        assertEquals(keys("health", 15.0, "food", 5), keys);
+        assertEquals(Arrays.asList("gravel", "dirt", "glass"), types(itemStacks));
+    }
+
+    @Test
+    public void mergingAKeyframeDetachesItsChild() {
+        Snapshot<Integer> keyframe = snapshot(1, keys("health", 20.0, "food", 10), itemStacks("stone", "dirt"));
+        Snapshot<Integer> child = snapshot(2, keys("health", 20.0, "food", 5), itemStacks("stone", "sand"));
+        SnapshotDeltas.toDelta(child, keyframe);
+
+        SnapshotDeltas.merge(keyframe, child);
+
+        assertNull(child.getParentId());
+        assertTrue(child.getItemStackSlots().isEmpty());
+        assertEquals(keys("health", 20.0, "food", 5), child.getKeys());
+        assertEquals(Arrays.asList("stone", "sand"), types(child.getItemStacks()));
+    }
+
+    private static Map<String, Object> keys(Object... entries) {
+        Map<String, Object> keys = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            keys.put((String) entries[i], entries[i + 1]);
+        }
+        return keys;
+    }
+
+    private static List<SerializedItemStack> itemStacks(String... types) {
+        List<SerializedItemStack> itemStacks = new ArrayList<>();
+        for (String type : types) {
+            SerializedItemStack itemStack = new MongoSerializedItemStack();
+            itemStack.getProperties().put("ItemType", type);
+            itemStacks.add(itemStack);
+        }
+        return itemStacks;
+    }
+
+    private static List<Object> types(List<SerializedItemStack> itemStacks) {
+        List<Object> types = new ArrayList<>();
+        for (SerializedItemStack itemStack : itemStacks) {
+            types.add(itemStack.getProperties().get("ItemType"));
+        }
+        return types;
+    }
+
+    /**
+     * Snapshot that stores its properties in a map, so that the test does not depend on a data store
+     */
+    @SuppressWarnings("unchecked")
+    private static Snapshot<Integer> snapshot(Integer id, Map<String, Object> keys, List<SerializedItemStack> itemStacks) {
+        Map<String, Object> properties = new HashMap<>();
+        properties.put("Id", id);
+        properties.put("Keys", keys);
+        properties.put("ItemStacks", itemStacks);
+        return (Snapshot<Integer>) Proxy.newProxyInstance(SnapshotDeltasTests.class.getClassLoader(), new Class<?>[]{Snapshot.class}, (proxy, method, args) -> {
+            String name = method.getName();
+            if (name.startsWith("set") && args != null && args.length == 1) {
+                properties.put(name.substring(3), args[0]);
+                return null;
+            }
+            if (name.startsWith("get")) {
+                Class<?> type = method.getReturnType();
+                if (type == List.class) {
+                    return properties.computeIfAbsent(name.substring(3), k -> new ArrayList<>());
+                }
+                if (type == Map.class) {
+                    return properties.computeIfAbsent(name.substring(3), k -> new HashMap<>());
+                }
+                if (type == int.class) {
+                    return properties.getOrDefault(name.substring(3), 0);
+                }
+                return properties.get(name.substring(3));
+            }
+            throw new UnsupportedOperationException(name);
+        });
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.model.snapshot;
+
+import org.junit.Test;
+import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemStack;
+import rocks.milspecsg.msdatasync.common.model.serializeditemstack.MongoSerializedItemStack;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SnapshotPayloadCodecTests {
+
+    @Test
+    public void roundTripsEveryNativeType() throws Exception {
+        Map<String, Object> keys = new HashMap<>();
+        keys.put("null", null);
+        keys.put("boolean", true);
+        keys.put("byte", (byte) -3);
+        keys.put("short", (short) 300);
+        keys.put("int", -70_000);
+        keys.put("long", Long.MAX_VALUE);
+        keys.put("float", 1.5f);
+        keys.put("double", -0.25);
+        keys.put("string", "minecraft:stone");
+        keys.put("list", Arrays.asList("a", 1, Collections.singletonMap("nested", "b")));
+        keys.put("bytes", new byte[]{1, 2, 3});
+        keys.put("ints", new int[]{-1, 0, Integer.MAX_VALUE});
+        keys.put("longs", new long[]{Long.MIN_VALUE, 42L});
+
+        Optional<Map<String, Object>> decoded = decode(SnapshotPayloadCodec.encodeUncompressed(keys));
+
+        assertTrue(decoded.isPresent());
+        assertTrue(SnapshotValues.deepEquals(keys, decoded.get()));
+    }
+
+    @Test
+    public void decodesItemStacksWithTheGivenSupplier() throws Exception {
+        List<SerializedItemStack> itemStacks = new ArrayList<>();
+        itemStacks.add(itemStack("minecraft:stone", 64));
+        itemStacks.add(null);
+        itemStacks.add(itemStack("minecraft:dirt", 1));
+
+        Optional<List<SerializedItemStack>> decoded = decode(SnapshotPayloadCodec.encodeUncompressed(itemStacks));
+
+        assertTrue(decoded.isPresent());
+        assertEquals(3, decoded.get().size());
+        assertTrue(decoded.get().get(0) instanceof MongoSerializedItemStack);
+        assertEquals(itemStacks.get(0).getProperties(), decoded.get().get(0).getProperties());
+        assertEquals(null, decoded.get().get(1));
+        assertEquals(itemStacks.get(2).getProperties(), decoded.get().get(2).getProperties());
+    }
+
+    @Test
+    public void writesEveryStringOnce() throws Exception {
+        List<String> modules = Arrays.asList("Inventory", "Health", "Inventory", "Health");
+
+        byte[] payload = SnapshotPayloadCodec.encodeUncompressed(modules);
+
+        assertEquals(Arrays.asList("Inventory", "Health"), SnapshotPayloadCodec.readStringTable(payload));
+    }
+
+    @Test
+    public void decodesCompressedPayloadsWithTheDictionaryOfTheirRepository() throws Exception {
+        List<String> modules = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            modules.add("module" + (i % 5));
+        }
+        SnapshotPayloadCompression compression = new SnapshotPayloadCompression();
+        compression.setLevel(6);
+        byte[] sample = SnapshotPayloadCodec.encodeUncompressed(modules);
+        compression.setActiveDictionary(SnapshotPayloadCompression.trainDictionary(Arrays.asList(sample, sample)).get());
+
+        byte[] payload = SnapshotPayloadCodec.encode(modules, compression);
+
+        assertTrue(payload.length < sample.length);
+        assertEquals(Optional.of(modules), SnapshotPayloadCodec.decode(new ByteArrayInputStream(payload), MongoSerializedItemStack::new, compression));
+        // another repository does not know the dictionary
+        assertFalse(SnapshotPayloadCodec.decode(new ByteArrayInputStream(payload), MongoSerializedItemStack::new, new SnapshotPayloadCompression()).isPresent());
+    }
+
+    @Test
+    public void leavesPayloadsUncompressedWhenCompressionIsDisabled() throws Exception {
+        List<String> modules = Arrays.asList("Inventory", "Inventory", "Inventory");
+
+        assertTrue(Arrays.equals(SnapshotPayloadCodec.encodeUncompressed(modules), SnapshotPayloadCodec.encode(modules, new SnapshotPayloadCompression())));
+    }
+
+    @Test
+    public void decodesLegacyJavaSerializedPayloads() throws Exception {
+        HashMap<String, Object> keys = new HashMap<>();
+        keys.put("health", 20.0);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ObjectOutputStream objectOutputStream = new ObjectOutputStream(out)) {
+            objectOutputStream.writeObject(keys);
+        }
+
+        assertEquals(Optional.of(keys), decode(out.toByteArray()));
+    }
+
+    @Test
+    public void decodesNothingFromUnknownPayloads() {
+        assertFalse(decode(new byte[]{1, 2, 3}).isPresent());
+        assertFalse(SnapshotPayloadCodec.decode(null, MongoSerializedItemStack::new).isPresent());
+    }
+
+    private static <T> Optional<T> decode(byte[] payload) {
+        return SnapshotPayloadCodec.decode(new ByteArrayInputStream(payload), MongoSerializedItemStack::new);
+    }
+
+    private static SerializedItemStack itemStack(String type, int count) {
+        SerializedItemStack itemStack = new MongoSerializedItemStack();
+        itemStack.getProperties().put("ItemType", type);
+        itemStack.getProperties().put("Count", count);
+        return itemStack;
+    }
+}
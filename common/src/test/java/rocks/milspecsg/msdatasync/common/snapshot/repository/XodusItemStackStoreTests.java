@@ -0,0 +1,132 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.snapshot.repository;
+
+import jetbrains.exodus.entitystore.Entity;
+import jetbrains.exodus.entitystore.PersistentEntityStore;
+import jetbrains.exodus.entitystore.PersistentEntityStores;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class XodusItemStackStoreTests {
+
+    private static final int THREADS = 8;
+    private static final int INTERNS_PER_THREAD = 50;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private PersistentEntityStore store;
+
+    @Before
+    public void openStore() throws Exception {
+        store = PersistentEntityStores.newInstance(folder.newFolder("xodus"));
+    }
+
+    @After
+    public void closeStore() {
+        store.close();
+    }
+
+    @Test
+    public void concurrentInternsOfOneHashShareOneEntity() throws Exception {
+        Map<String, Integer> references = Collections.singletonMap("hash", 1);
+        Map<String, byte[]> payloads = Collections.singletonMap("hash", new byte[]{1, 2, 3});
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < THREADS; i++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    for (int j = 0; j < INTERNS_PER_THREAD; j++) {
+                        XodusItemStackStore.increment(store, references, payloads);
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        store.executeInReadonlyTransaction(txn -> {
+            assertEquals(1, txn.find(XodusItemStackStore.ENTITY_TYPE, XodusItemStackStore.HASH, "hash").size());
+            Entity entity = XodusItemStackStore.find(txn, "hash");
+            assertEquals(THREADS * INTERNS_PER_THREAD, XodusItemStackStore.getReferences(entity));
+        });
+    }
+
+    @Test
+    public void lastDecrementRemovesEntity() {
+        XodusItemStackStore.increment(store, Collections.singletonMap("hash", 2), Collections.singletonMap("hash", new byte[]{1}));
+        XodusItemStackStore.decrement(store, Collections.singletonMap("hash", 1));
+        store.executeInReadonlyTransaction(txn -> assertEquals(1, XodusItemStackStore.getReferences(XodusItemStackStore.find(txn, "hash"))));
+        XodusItemStackStore.decrement(store, Collections.singletonMap("hash", 1));
+        store.executeInReadonlyTransaction(txn -> assertNull(XodusItemStackStore.find(txn, "hash")));
+    }
+
+    @Test
+    public void unknownHashWithoutPayloadIsNotCreated() {
+        try {
+            XodusItemStackStore.increment(store, Collections.singletonMap("hash", 1), Collections.emptyMap());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        store.executeInReadonlyTransaction(txn -> assertNull(XodusItemStackStore.find(txn, "hash")));
+    }
+
+    @Test
+    public void failedIncrementLeavesOtherCountsUnchanged() {
+        XodusItemStackStore.increment(store, Collections.singletonMap("kept", 1), Collections.singletonMap("kept", new byte[]{1}));
+        Map<String, Integer> references = new HashMap<>();
+        references.put("kept", 1);
+        references.put("removed", 1);
+        try {
+            // e.g. a child taking over the references of its parent after they were released
+            XodusItemStackStore.increment(store, references, Collections.emptyMap());
+            fail();
+        } catch (IllegalStateException expected) {
+        }
+        store.executeInReadonlyTransaction(txn -> {
+            assertEquals(1, XodusItemStackStore.getReferences(XodusItemStackStore.find(txn, "kept")));
+            assertNull(XodusItemStackStore.find(txn, "removed"));
+        });
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.common.snapshotoptimization.component;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class SnapshotRetentionPlannerTests {
+
+    private static final long NOW = 1_000_000_000_000L;
+
+    /**
+     * Every snapshot of the last 10 minutes, one per 10 minutes for an hour and one per hour for a day
+     */
+    private static final List<int[]> STRATEGY = Arrays.asList(new int[]{10, 6}, new int[]{60, 24});
+
+    @Test
+    public void keepsEverySnapshotYoungerThanTheFirstInterval() {
+        assertArrayEquals(new int[0], SnapshotRetentionPlanner.plan(ages(1, 5, 9), NOW, STRATEGY));
+    }
+
+    @Test
+    public void keepsTheFirstSnapshotOfEachBucket() {
+        // 12, 15 and 18 minutes share the 10 to 20 minute bucket, 25 minutes is alone in the next one
+        assertArrayEquals(new int[]{1, 2}, SnapshotRetentionPlanner.plan(ages(12, 15, 18, 25), NOW, STRATEGY));
+    }
+
+    @Test
+    public void bucketsOfLaterTiersDoNotOverlapEarlierOnes() {
+        // 15 minutes is in the first tier, 70 and 80 minutes share the first bucket of the second tier
+        assertArrayEquals(new int[]{2}, SnapshotRetentionPlanner.plan(ages(15, 70, 80), NOW, STRATEGY));
+    }
+
+    @Test
+    public void deletesExpiredSnapshotsAfterEveryBucket() {
+        // a day and a half is older than every tier
+        long[] createdUtc = ages(36 * 60, 12, 15);
+
+        assertArrayEquals(new int[]{2, 0}, SnapshotRetentionPlanner.plan(createdUtc, NOW, STRATEGY));
+    }
+
+    @Test
+    public void snapshotsWithoutCreationTimeAreExpired() {
+        long[] createdUtc = {SnapshotRetentionPlanner.UNKNOWN, NOW};
+
+        assertArrayEquals(new int[]{0}, SnapshotRetentionPlanner.plan(createdUtc, NOW, STRATEGY));
+        assertEquals(STRATEGY.size(), SnapshotRetentionPlanner.getTier(SnapshotRetentionPlanner.UNKNOWN, NOW, STRATEGY));
+    }
+
+    @Test
+    public void findsTheTierOfASnapshot() {
+        assertEquals(0, SnapshotRetentionPlanner.getTier(NOW - minutes(59), NOW, STRATEGY));
+        assertEquals(1, SnapshotRetentionPlanner.getTier(NOW - minutes(60), NOW, STRATEGY));
+        assertEquals(2, SnapshotRetentionPlanner.getTier(NOW - minutes(24 * 60), NOW, STRATEGY));
+    }
+
+    @Test
+    public void emptyStrategyExpiresEverySnapshot() {
+        assertArrayEquals(new int[]{0, 1}, SnapshotRetentionPlanner.plan(ages(1, 100), NOW, Collections.emptyList()));
+    }
+
+    private static long[] ages(long... minutes) {
+        long[] createdUtc = new long[minutes.length];
+        for (int i = 0; i < minutes.length; i++) {
+            createdUtc[i] = NOW - minutes(minutes[i]);
+        }
+        return createdUtc;
+    }
+
+    private static long minutes(long minutes) {
+        return minutes * 60_000L;
+    }
+}
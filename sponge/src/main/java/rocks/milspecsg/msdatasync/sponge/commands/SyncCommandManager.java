@@ -24,6 +24,7 @@ import org.spongepowered.api.command.args.GenericArguments;
 import org.spongepowered.api.command.spec.CommandSpec;
 import org.spongepowered.api.text.Text;
 import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
+import rocks.milspecsg.msdatasync.sponge.commands.optimize.OptimizeDryRunCommand;
 import rocks.milspecsg.msdatasync.sponge.commands.optimize.OptimizeHelpCommand;
 import rocks.milspecsg.msdatasync.sponge.commands.optimize.OptimizeInfoCommand;
 import rocks.milspecsg.msdatasync.sponge.commands.optimize.OptimizeStartCommand;
@@ -62,6 +63,9 @@ public class SyncCommandManager implements CommandManager {
     @Inject
     private SyncReloadCommand syncReloadCommand;
 
+    @Inject
+    private SyncStatsCommand syncStatsCommand;
+
     @Inject
     private SnapshotCreateCommand snapshotCreateCommand;
 
@@ -83,6 +87,9 @@ public class SyncCommandManager implements CommandManager {
     @Inject
     private SnapshotViewCommand snapshotViewCommand;
 
+    @Inject
+    private OptimizeDryRunCommand optimizeDryRunCommand;
+
     @Inject
     private OptimizeHelpCommand optimizeHelpCommand;
 
@@ -210,6 +217,15 @@ public class SyncCommandManager implements CommandManager {
             .executor(optimizeStopCommand)
             .build());
 
+        optimizeSubCommands.put(Arrays.asList("dryrun", "plan"), CommandSpec.builder()
+            .description(Text.of("Shows what optimization would delete without changing anything."))
+            .permission(MSDataSyncKeys.MANUAL_OPTIMIZATION_BASE_PERMISSION.getFallbackValue())
+            .arguments(
+                GenericArguments.optional(GenericArguments.integer(Text.of("sample")))
+            )
+            .executor(optimizeDryRunCommand)
+            .build());
+
         optimizeSubCommands.put(Collections.singletonList("help"), CommandSpec.builder()
             .description(Text.of("Shows this help page."))
             .permission(MSDataSyncKeys.MANUAL_OPTIMIZATION_BASE_PERMISSION.getFallbackValue())
@@ -249,6 +265,12 @@ public class SyncCommandManager implements CommandManager {
             .executor(syncUploadCommand)
             .build());
 
+        subCommands.put(Collections.singletonList("stats"), CommandSpec.builder()
+            .description(Text.of("Shows timing and failure statistics for each serialization module."))
+            .permission(MSDataSyncKeys.STATS_COMMAND_PERMISSION.getFallbackValue())
+            .executor(syncStatsCommand)
+            .build());
+
         subCommands.put(Collections.singletonList("help"), CommandSpec.builder()
             .description(Text.of("Shows this help page."))
             .executor(syncHelpCommand)
@@ -0,0 +1,94 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.sponge.commands;
+
+import com.google.common.cache.CacheStats;
+import com.google.inject.Inject;
+import org.spongepowered.api.command.CommandResult;
+import org.spongepowered.api.command.CommandSource;
+import org.spongepowered.api.command.args.CommandContext;
+import org.spongepowered.api.command.spec.CommandExecutor;
+import org.spongepowered.api.text.Text;
+import org.spongepowered.api.text.format.TextColors;
+import rocks.milspecsg.msdatasync.common.serializer.LatencyHistogram;
+import rocks.milspecsg.msdatasync.common.serializer.SerializerMetrics;
+import rocks.milspecsg.msdatasync.common.snapshotoptimization.component.SnapshotCreationTimeCache;
+import rocks.milspecsg.msrepository.api.plugin.PluginInfo;
+
+import java.util.Map;
+
+public class SyncStatsCommand implements CommandExecutor {
+
+    @Inject
+    private PluginInfo<Text> pluginInfo;
+
+    @Inject
+    private SerializerMetrics serializerMetrics;
+
+    @Inject
+    private SnapshotCreationTimeCache creationTimeCache;
+
+    @Override
+    public CommandResult execute(CommandSource source, CommandContext context) {
+        Map<String, SerializerMetrics.Module> modules = serializerMetrics.getModules();
+        if (modules.isEmpty()) {
+            source.sendMessage(Text.of(pluginInfo.getPrefix(), TextColors.YELLOW, "No serialization statistics yet"));
+            sendCreationTimeCacheStats(source);
+            return CommandResult.success();
+        }
+        source.sendMessage(Text.of(pluginInfo.getPrefix(), TextColors.YELLOW, "Serialization statistics since startup:"));
+        modules.values().forEach(module -> {
+            source.sendMessage(Text.of(TextColors.AQUA, module.getName()));
+            source.sendMessage(formatLatency("Capture (server thread)", module.getCapture()));
+            source.sendMessage(formatLatency("Serialize (worker)", module.getSerialize()));
+            source.sendMessage(formatLatency("Deserialize", module.getDeserialize()));
+            source.sendMessage(Text.of(TextColors.GRAY, "  Failures: ",
+                TextColors.YELLOW, module.getSerializeFailures(), TextColors.GRAY, " serialize, ",
+                TextColors.YELLOW, module.getDeserializeFailures(), TextColors.GRAY, " deserialize"));
+            source.sendMessage(Text.of(TextColors.GRAY, "  Average size: ",
+                TextColors.YELLOW, module.getAveragePayloadBytes(), TextColors.GRAY, " bytes"));
+        });
+        sendCreationTimeCacheStats(source);
+        return CommandResult.success();
+    }
+
+    private void sendCreationTimeCacheStats(CommandSource source) {
+        CacheStats stats = creationTimeCache.getStats();
+        source.sendMessage(Text.of(TextColors.AQUA, "Snapshot creation time cache"));
+        source.sendMessage(Text.of(TextColors.GRAY, "  Entries: ",
+            TextColors.YELLOW, creationTimeCache.getSize(), TextColors.GRAY, "/", TextColors.YELLOW, creationTimeCache.getMaximumSize()));
+        source.sendMessage(Text.of(TextColors.GRAY, "  Lookups: ",
+            TextColors.YELLOW, stats.hitCount(), TextColors.GRAY, " hits, ",
+            TextColors.YELLOW, stats.missCount(), TextColors.GRAY, " misses, ",
+            TextColors.YELLOW, stats.evictionCount(), TextColors.GRAY, " evictions, hit rate ",
+            TextColors.YELLOW, String.format("%.1f%%", stats.hitRate() * 100)));
+    }
+
+    private static Text formatLatency(String label, LatencyHistogram histogram) {
+        return Text.of(TextColors.GRAY, "  ", label, ": ",
+            TextColors.YELLOW, histogram.getCount(), TextColors.GRAY, " calls, avg ",
+            TextColors.YELLOW, formatMillis(histogram.getMeanMillis()), TextColors.GRAY, ", p99 ",
+            TextColors.YELLOW, formatMillis(histogram.getPercentileMillis(99)), TextColors.GRAY, ", max ",
+            TextColors.YELLOW, formatMillis(histogram.getMaxMillis()));
+    }
+
+    private static String formatMillis(double millis) {
+        return String.format("%.2fms", millis);
+    }
+}
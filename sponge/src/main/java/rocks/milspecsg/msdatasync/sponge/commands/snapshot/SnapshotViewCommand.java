@@ -153,7 +153,7 @@ public class SnapshotViewCommand implements CommandExecutor {
                 player.openInventory(inventory, Text.of(TextColors.DARK_AQUA, timeFormatService.format(snapshot.getCreatedUtc())));
             };
 
-            memberManager.getPrimaryComponent().getSnapshotForUser(targetUser.getUniqueId(), context.getOne(Text.of("snapshot")))
+            memberManager.getPrimaryComponent().getSnapshotItemStacksOnlyForUser(targetUser.getUniqueId(), context.getOne(Text.of("snapshot")))
                 .thenAcceptAsync(optionalSnapshot -> Task.builder().execute(() -> afterFound.accept(optionalSnapshot)).submit(MSDataSync.plugin));
 
             return CommandResult.success();
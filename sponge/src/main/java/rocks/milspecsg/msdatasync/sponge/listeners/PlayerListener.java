@@ -24,14 +24,18 @@ import org.spongepowered.api.Sponge;
 import org.spongepowered.api.entity.living.player.Player;
 import org.spongepowered.api.entity.living.player.User;
 import org.spongepowered.api.event.Listener;
+import org.spongepowered.api.event.Order;
 import org.spongepowered.api.event.entity.DestructEntityEvent;
 import org.spongepowered.api.event.filter.Getter;
+import org.spongepowered.api.event.filter.IsCancelled;
 import org.spongepowered.api.event.filter.cause.Root;
 import org.spongepowered.api.event.network.ClientConnectionEvent;
 import org.spongepowered.api.text.Text;
 import org.spongepowered.api.text.format.TextColors;
+import org.spongepowered.api.util.Tristate;
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.api.serializer.user.UserSerializerManager;
+import rocks.milspecsg.msdatasync.api.serializer.user.component.UserSerializerComponent;
 import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
 import rocks.milspecsg.msdatasync.sponge.commands.SyncLockCommand;
 import rocks.milspecsg.msdatasync.sponge.plugin.MSDataSync;
@@ -82,6 +86,22 @@ public class PlayerListener {
         );
     }
 
+    @Listener(order = Order.POST)
+    @IsCancelled(Tristate.FALSE)
+    public void onPlayerAuth(ClientConnectionEvent.Auth authEvent) {
+        if (joinSerializationEnabled) {
+            // start loading while the player is still connecting, join only has to apply it
+            userSerializerManager.getPrimaryComponent().prefetch(authEvent.getProfile().getUniqueId());
+        }
+    }
+
+    @Listener(order = Order.POST)
+    @IsCancelled(Tristate.TRUE)
+    public void onPlayerLoginCancelled(ClientConnectionEvent.Login loginEvent) {
+        // e.g. banned or not whitelisted, the player will not join
+        userSerializerManager.getPrimaryComponent().discardPrefetched(loginEvent.getProfile().getUniqueId());
+    }
+
     @Listener
     public void onPlayerJoin(ClientConnectionEvent.Join joinEvent, @Root Player player) {
         if (joinSerializationEnabled) {
@@ -93,9 +113,15 @@ public class PlayerListener {
     @Listener
     public void onPlayerDisconnect(ClientConnectionEvent.Disconnect disconnectEvent, @Root Player player) {
         SyncLockCommand.lockPlayer(player);
+        UserSerializerComponent<?, Snapshot<?>, User, ?> userSerializer = userSerializerManager.getPrimaryComponent();
+        userSerializer.discardPrefetched(player.getUniqueId());
         if (disconnectSerializationEnabled) {
+            userSerializer.beginHandoff(player.getUniqueId());
             userSerializerManager.serialize(player, "Disconnect")
-                .thenAcceptAsync(Sponge.getServer().getConsole()::sendMessage);
+                .thenAcceptAsync(Sponge.getServer().getConsole()::sendMessage)
+                .whenComplete((v, e) -> userSerializer.completeHandoff(player.getUniqueId()));
+        } else {
+            userSerializer.completeHandoff(player.getUniqueId());
         }
     }
 
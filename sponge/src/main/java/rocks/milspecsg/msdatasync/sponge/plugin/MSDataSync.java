@@ -50,6 +50,13 @@ import rocks.milspecsg.msrepository.api.misc.BindingExtensions;
 import rocks.milspecsg.msrepository.api.plugin.PluginInfo;
 import rocks.milspecsg.msrepository.sponge.module.ApiSpongeModule;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
 @Plugin(
     id = MSDataSyncPluginInfo.id,
     name = MSDataSyncPluginInfo.name,
@@ -84,6 +91,8 @@ public class MSDataSync {
 
     private boolean alreadyLoadedOnce = false;
 
+    private static final long SERVER_STOP_SAVE_TIMEOUT_SECONDS = 30;
+
     @Listener
     public void onServerInitialization(GameInitializationEvent event) {
         plugin = this;
@@ -114,7 +123,25 @@ public class MSDataSync {
         UserSerializerManager<Snapshot<?>, User, Text> userSerializer = injector.getInstance(com.google.inject.Key.get(new TypeLiteral<UserSerializerManager<Snapshot<?>, User, Text>>() {
         }));
 
-        Sponge.getServer().getOnlinePlayers().forEach(player -> userSerializer.getPrimaryComponent().serialize(player, "Server Stop"));
+        List<CompletableFuture<Void>> saving = new ArrayList<>();
+        Sponge.getServer().getOnlinePlayers().forEach(player -> {
+            userSerializer.getPrimaryComponent().beginHandoff(player.getUniqueId());
+            saving.add(userSerializer.getPrimaryComponent().serialize(player, "Server Stop")
+                .handle((v, e) -> null)
+                .thenCompose(v -> userSerializer.getPrimaryComponent().completeHandoff(player.getUniqueId())));
+        });
+        // the uploads run on daemon threads, they would be cut off once the server exits
+        try {
+            CompletableFuture.allOf(saving.toArray(new CompletableFuture[0])).get(SERVER_STOP_SAVE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+            logger.info("Saved all players");
+        } catch (TimeoutException e) {
+            logger.warn("Timed out after " + SERVER_STOP_SAVE_TIMEOUT_SECONDS + " seconds while saving players");
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            e.printStackTrace();
+        }
+        userSerializer.getPrimaryComponent().stop(TimeUnit.SECONDS.toMillis(SERVER_STOP_SAVE_TIMEOUT_SECONDS));
 
         removeListeners();
         logger.info("Unregistered listeners");
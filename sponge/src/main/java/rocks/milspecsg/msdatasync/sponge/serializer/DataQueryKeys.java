@@ -0,0 +1,79 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.sponge.serializer;
+
+import org.spongepowered.api.data.DataQuery;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Translates between {@link DataQuery} paths and the keys they are stored under.
+ *
+ * <p>
+ * Storage keys join the parts of a query with {@link #SEPARATOR} and replace periods,
+ * which the database does not allow in keys, with {@link #PERIOD_REPLACEMENT}.
+ * The set of keys used by item stacks is small, so both directions are cached
+ * instead of building new strings and queries for every key of every slot.
+ * The caches stop growing at {@link #MAX_SIZE} entries, translations past that are computed every time.
+ * </p>
+ */
+final class DataQueryKeys {
+
+    static final char SEPARATOR = '_';
+    static final char PERIOD_REPLACEMENT = '-';
+    static final char PERIOD = '.';
+
+    static final int MAX_SIZE = 4096;
+
+    private static final Map<DataQuery, String> keys = new ConcurrentHashMap<>();
+    private static final Map<String, DataQuery> queries = new ConcurrentHashMap<>();
+
+    private DataQueryKeys() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    /**
+     * @return The key {@code query} is stored under
+     */
+    static String toKey(DataQuery query) {
+        String key = keys.get(query);
+        if (key == null) {
+            key = query.asString(SEPARATOR).replace(PERIOD, PERIOD_REPLACEMENT).intern();
+            if (keys.size() < MAX_SIZE) {
+                keys.put(query, key);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * @return The query that was stored under {@code key}
+     */
+    static DataQuery toQuery(String key) {
+        DataQuery query = queries.get(key);
+        if (query == null) {
+            query = DataQuery.of(SEPARATOR, key.replace(PERIOD_REPLACEMENT, PERIOD));
+            if (queries.size() < MAX_SIZE) {
+                queries.put(key, query);
+            }
+        }
+        return query;
+    }
+}
@@ -0,0 +1,100 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.sponge.serializer;
+
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataSerializable;
+import org.spongepowered.api.data.DataView;
+import rocks.milspecsg.msdatasync.common.model.snapshot.SnapshotPayloadCodec;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+
+/**
+ * Writes a {@link DataView} straight into a compact binary form and reads it back,
+ * without building the {@code Map<String, Object>} tree the map format needs.
+ *
+ * <p>
+ * The binary form is a {@link SnapshotPayloadCodec} payload, so keys are stored once in its string table
+ * and numbers and sizes as varints. Views are written by an extension of the codec as the number of keys
+ * followed by each key and value. Keys are written as is, the binary form does not have to avoid periods
+ * like database keys do.
+ * </p>
+ */
+final class DataViewBinaryCodec {
+
+    private static final SnapshotPayloadCodec.ValueExtension VIEWS = new SnapshotPayloadCodec.ValueExtension() {
+        @Override
+        public boolean accepts(Object value) {
+            return value instanceof DataView || value instanceof DataSerializable;
+        }
+
+        @Override
+        public void write(SnapshotPayloadCodec.PayloadWriter writer, Object value) throws IOException {
+            DataView view = value instanceof DataView ? (DataView) value : ((DataSerializable) value).toContainer();
+            Set<DataQuery> keys = view.getKeys(false);
+            writer.writeVarInt(keys.size());
+            for (DataQuery key : keys) {
+                List<String> parts = key.getParts();
+                writer.writeVarInt(parts.size());
+                for (String part : parts) {
+                    writer.writeString(part);
+                }
+                writer.writeValue(view.get(key).orElse(null));
+            }
+        }
+
+        @Override
+        public Object read(SnapshotPayloadCodec.PayloadReader reader) throws IOException {
+            DataContainer container = DataContainer.createNew(DataView.SafetyMode.NO_DATA_CLONED);
+            int size = reader.readVarInt();
+            for (int i = 0; i < size; i++) {
+                int partCount = reader.readVarInt();
+                List<String> parts = new ArrayList<>(partCount);
+                for (int j = 0; j < partCount; j++) {
+                    parts.add(reader.readString());
+                }
+                container.set(DataQuery.of(parts), reader.readValue());
+            }
+            return container;
+        }
+    };
+
+    private DataViewBinaryCodec() {
+        throw new AssertionError("**boss music** No instance for you!");
+    }
+
+    static byte[] encode(DataView view) throws IOException {
+        // item stacks end up in a snapshot payload, which is compressed as a whole
+        return SnapshotPayloadCodec.encodeUncompressed(view, VIEWS);
+    }
+
+    static DataContainer decode(byte[] payload) throws IOException {
+        Optional<Object> container = SnapshotPayloadCodec.decode(new ByteArrayInputStream(payload), null, VIEWS);
+        if (!container.isPresent() || !(container.get() instanceof DataContainer)) {
+            throw new IOException("Could not decode binary item stack");
+        }
+        return (DataContainer) container.get();
+    }
+}
@@ -18,7 +18,6 @@
 
 package rocks.milspecsg.msdatasync.sponge.serializer;
 
-import com.google.common.collect.ImmutableList;
 import org.spongepowered.api.data.DataContainer;
 import org.spongepowered.api.data.DataQuery;
 import org.spongepowered.api.data.DataView;
@@ -36,54 +35,78 @@ import rocks.milspecsg.msdatasync.api.model.serializeditemstack.SerializedItemSt
 import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.common.serializer.CommonInventorySerializer;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
 import java.util.stream.Collectors;
 
 public class SpongeInventorySerializer extends CommonInventorySerializer<Snapshot<?>, Key<?>, User, Inventory, ItemStackSnapshot> {
 
-    private static final char SEPARATOR = '_';
-    private static final char PERIOD_REPLACEMENT = '-';
-    private static final char PERIOD = '.';
+    private static final char PERIOD_REPLACEMENT = DataQueryKeys.PERIOD_REPLACEMENT;
+    private static final char PERIOD = DataQueryKeys.PERIOD;
     private static final int INVENTORY_SLOTS = 41;
 
     @Override
-    @SuppressWarnings("unchecked")
     public boolean serializeInventory(Snapshot<?> snapshot, Inventory inventory, int maxSlots) {
+        return captureInventory(snapshot, inventory, maxSlots).getAsBoolean();
+    }
+
+    /**
+     * Copies the stacks out of {@code inventory} and leaves converting them for the returned step,
+     * which does not touch the inventory anymore and may run on any thread
+     */
+    @SuppressWarnings("unchecked")
+    private BooleanSupplier captureInventory(Snapshot<?> snapshot, Inventory inventory, int maxSlots) {
+        List<ItemStack> stacks = new ArrayList<>();
         try {
-            boolean success = true;
-            List<SerializedItemStack> itemStacks = new ArrayList<>();
             Iterator<Inventory> iterator = inventory.slots().iterator();
-
-            Class<SerializedItemStack> clazz = (Class<SerializedItemStack>) snapshotManager.getPrimaryComponent()
-                .getDataStoreContext().getEntityClassUnsafe("serializeditemstack");
-
             for (int i = 0; i < maxSlots; i++) {
                 if (!iterator.hasNext()) break;
-                Inventory slot = iterator.next();
-                SerializedItemStack serializedItemStack = clazz.newInstance();
-                ItemStack stack = slot.peek().orElse(ItemStack.empty());
-                DataContainer dc = stack.toContainer();
-                try {
-                    serializedItemStack.setProperties(serialize(dc.getValues(false)));
-                } catch (RuntimeException e) {
-                    e.printStackTrace();
-                    System.err.println("[MSDataSync] There was an error while serializing slot " + i + " with item " + stack.getType().getId() + "! Will not add this item to snapshot!");
-                    success = false;
-                    continue;
-                }
-                itemStacks.add(serializedItemStack);
+                // peek returns a copy
+                stacks.add(iterator.next().peek().orElse(ItemStack.empty()));
             }
-            snapshot.setItemStacks(itemStacks);
-            return success;
-        } catch (RuntimeException | InstantiationException | IllegalAccessException e) {
+        } catch (RuntimeException e) {
             e.printStackTrace();
-            return false;
+            return () -> false;
         }
+        boolean binary = isBinaryFormat();
+        return () -> {
+            try {
+                boolean success = true;
+                List<SerializedItemStack> itemStacks = new ArrayList<>();
+
+                Class<SerializedItemStack> clazz = (Class<SerializedItemStack>) snapshotManager.getPrimaryComponent()
+                    .getDataStoreContext().getEntityClassUnsafe("serializeditemstack");
+
+                for (int i = 0; i < stacks.size(); i++) {
+                    SerializedItemStack serializedItemStack = clazz.newInstance();
+                    ItemStack stack = stacks.get(i);
+                    DataContainer dc = stack.toContainer();
+                    try {
+                        serializedItemStack.setProperties(binary
+                            ? toBinaryProperties(DataViewBinaryCodec.encode(dc))
+                            : serialize(dc.getValues(false)));
+                    } catch (RuntimeException | IOException e) {
+                        e.printStackTrace();
+                        System.err.println("[MSDataSync] There was an error while serializing slot " + i + " with item " + stack.getType().getId() + "! Will not add this item to snapshot!");
+                        success = false;
+                        continue;
+                    }
+                    itemStacks.add(serializedItemStack);
+                }
+                snapshot.setItemStacks(itemStacks);
+                return success;
+            } catch (RuntimeException | InstantiationException | IllegalAccessException e) {
+                e.printStackTrace();
+                return false;
+            }
+        };
     }
 
     @Override
@@ -96,6 +119,11 @@ public class SpongeInventorySerializer extends CommonInventorySerializer<Snapsho
         return serializeInventory(snapshot, user.getInventory());
     }
 
+    @Override
+    public BooleanSupplier capture(Snapshot<?> snapshot, User user) {
+        return captureInventory(snapshot, user.getInventory(), INVENTORY_SLOTS);
+    }
+
     @Override
     public boolean deserializeInventory(Snapshot<?> snapshot, Inventory inventory, ItemStackSnapshot fallbackItemStackSnapshot) {
         try {
@@ -107,11 +135,9 @@ public class SpongeInventorySerializer extends CommonInventorySerializer<Snapsho
                 if (stacks.hasNext()) {
                     SerializedItemStack stack = stacks.next();
                     try {
-                        DataContainer dc = DataContainer.createNew(DataView.SafetyMode.ALL_DATA_CLONED);
-                        deserialize(stack.getProperties()).forEach(dc::set);
-                        ItemStack is = ItemStack.builder().fromContainer(dc).build();
+                        ItemStack is = ItemStack.builder().fromContainer(toContainer(stack.getProperties())).build();
                         slot.set(is);
-                    } catch (RuntimeException e) {
+                    } catch (RuntimeException | IOException e) {
                         e.printStackTrace();
                     }
                 } else if (!(inventory instanceof PlayerInventory)) {
@@ -139,10 +165,20 @@ public class SpongeInventorySerializer extends CommonInventorySerializer<Snapsho
         return deserializeInventory(snapshot, user.getInventory());
     }
 
+    private static DataContainer toContainer(Map<String, Object> properties) throws IOException {
+        Optional<byte[]> payload = fromBinaryProperties(properties);
+        if (payload.isPresent()) {
+            return DataViewBinaryCodec.decode(payload.get());
+        }
+        DataContainer dc = DataContainer.createNew(DataView.SafetyMode.ALL_DATA_CLONED);
+        deserialize(properties).forEach(dc::set);
+        return dc;
+    }
+
     private static Map<String, Object> serialize(Map<DataQuery, Object> values) {
         Map<String, Object> result = new HashMap<>();
         values.forEach((dq, o) -> {
-            String s = dq.asString(SEPARATOR).replace(PERIOD, PERIOD_REPLACEMENT);
+            String s = DataQueryKeys.toKey(dq);
             if (o instanceof Map) {
                 Object m = serialize((Map<DataQuery, Object>) o);
                 result.put(s, m);
@@ -172,8 +208,8 @@ public class SpongeInventorySerializer extends CommonInventorySerializer<Snapsho
             if (o == null) {
                 continue;
             }
-            s = s.replace(PERIOD_REPLACEMENT, PERIOD);
-            DataQuery dq = DataQuery.of(SEPARATOR, s);
+            // "ItemType" has nothing to replace, so it can be compared to the stored key directly
+            DataQuery dq = DataQueryKeys.toQuery(s);
             if (o instanceof Map) {
                 Map<String, Object> m = (Map<String, Object>) o;
                 Map<DataQuery, Object> r1 = new HashMap<>();
@@ -183,24 +219,16 @@ public class SpongeInventorySerializer extends CommonInventorySerializer<Snapsho
                     if (m1 == null) {
                         continue;
                     } else if (m1 instanceof List) {
-                        m1 = ((List<?>) m1).stream().filter(Objects::nonNull).collect(Collectors.toList());
+                        // maps in lists were written from data containers, older formats are upgraded to this when read
+                        m1 = ((List<?>) m1).stream().filter(Objects::nonNull)
+                            .map(li -> li instanceof Map ? toContainerOrSelf(li) : li)
+                            .collect(Collectors.toList());
                     }
                     Object value = m1;
-                    s1 = s1.replace(PERIOD_REPLACEMENT, PERIOD);
                     if (m1 instanceof Map) {
-                        try {
-                            Map<DataQuery, Object> v = deserialize((Map<String, Object>) m1);
-                            DataContainer dc = DataContainer.createNew(DataView.SafetyMode.ALL_DATA_CLONED);
-                            v.forEach(dc::set);
-                            if (s1.equals("ench")) {
-                                value = ImmutableList.of(dc);
-                            } else {
-                                value = dc;
-                            }
-                        } catch (Exception ignored) {
-                        }
+                        value = toContainerOrSelf(m1);
                     }
-                    r1.put(DataQuery.of(SEPARATOR, s1), value);
+                    r1.put(DataQueryKeys.toQuery(s1), value);
                 }
                 result.put(dq, r1);
             } else if (!s.equals("ItemType") && o instanceof String) {
@@ -215,6 +243,18 @@ public class SpongeInventorySerializer extends CommonInventorySerializer<Snapsho
         return result;
     }
 
+    @SuppressWarnings("unchecked")
+    private static Object toContainerOrSelf(Object map) {
+        try {
+            Map<DataQuery, Object> v = deserialize((Map<String, Object>) map);
+            DataContainer dc = DataContainer.createNew(DataView.SafetyMode.ALL_DATA_CLONED);
+            v.forEach(dc::set);
+            return dc;
+        } catch (Exception ignored) {
+            return map;
+        }
+    }
+
     private ItemStackSnapshot defaultFallbackItemStackSnapshot =
         ItemStack.builder().itemType(ItemTypes.BARRIER).quantity(1).add(Keys.DISPLAY_NAME, Text.of(TextColors.RED, "Not an actual slot")).build().createSnapshot();
 
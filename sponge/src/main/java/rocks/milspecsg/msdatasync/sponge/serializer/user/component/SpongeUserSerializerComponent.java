@@ -19,6 +19,7 @@
 package rocks.milspecsg.msdatasync.sponge.serializer.user.component;
 
 import com.google.inject.Inject;
+import org.spongepowered.api.Sponge;
 import org.spongepowered.api.command.CommandSource;
 import org.spongepowered.api.data.key.Key;
 import org.spongepowered.api.entity.living.player.Player;
@@ -30,10 +31,16 @@ import rocks.milspecsg.msdatasync.api.model.snapshot.Snapshot;
 import rocks.milspecsg.msdatasync.api.snapshotoptimization.SnapshotOptimizationManager;
 import rocks.milspecsg.msdatasync.common.data.key.MSDataSyncKeys;
 import rocks.milspecsg.msdatasync.common.serializer.user.component.CommonUserSerializerComponent;
+import rocks.milspecsg.msdatasync.sponge.plugin.MSDataSync;
 import rocks.milspecsg.msrepository.api.datastore.DataStoreContext;
 
+import java.util.Map;
 import java.util.Optional;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 public class SpongeUserSerializerComponent<
     TKey,
@@ -42,9 +49,16 @@ public class SpongeUserSerializerComponent<
     TDataStore>
     extends CommonUserSerializerComponent<TKey, TMember, TSnapshot, User, Player, Key<?>, TDataStore> {
 
+    /**
+     * How long a prefetched snapshot is kept for a user that has not joined yet
+     */
+    private static final long PREFETCH_TIMEOUT_NANOS = TimeUnit.SECONDS.toNanos(30);
+
     @Inject
     private SnapshotOptimizationManager<User, Text, CommandSource> snapshotOptimizationManager;
 
+    private final Map<UUID, PrefetchedSnapshot<TSnapshot>> prefetchedSnapshots = new ConcurrentHashMap<>();
+
     @Inject
     public SpongeUserSerializerComponent(DataStoreContext<TKey, TDataStore> dataStoreContext) {
         super(dataStoreContext);
@@ -53,42 +67,114 @@ public class SpongeUserSerializerComponent<
     @Override
     public CompletableFuture<Optional<TSnapshot>> deserialize(User user, Object plugin, TSnapshot snapshot) {
         if (snapshot == null) return CompletableFuture.completedFuture(Optional.empty());
+        // rebuild delta snapshots before switching to the main thread
+        return snapshotRepository.materialize(snapshot)
+            .thenCompose(fullSnapshot -> apply(user, plugin, fullSnapshot))
+            .exceptionally(e -> {
+                e.printStackTrace();
+                return Optional.empty();
+            });
+    }
+
+    /**
+     * Applies an already materialized snapshot to the user on the main thread
+     */
+    private CompletableFuture<Optional<TSnapshot>> apply(User user, Object plugin, TSnapshot fullSnapshot) {
+        // whatever this server uploaded last is not what the user will have anymore
+        resetFingerprint(user.getUniqueId());
         CompletableFuture<Optional<TSnapshot>> result = new CompletableFuture<>();
-        Task.builder().execute(() -> result.complete(deserialize(snapshot, user) ? Optional.of(snapshot) : Optional.empty())).submit(plugin);
+        Task.builder().execute(() -> result.complete(deserialize(fullSnapshot, user) ? Optional.of(fullSnapshot) : Optional.empty())).submit(plugin);
         return result;
     }
 
     @Override
     public CompletableFuture<Optional<TSnapshot>> deserialize(final User user, final Object plugin) {
         snapshotOptimizationManager.getPrimaryComponent().addLockedPlayer(user.getUniqueId());
-        CompletableFuture<Void> waitForSnapshot;
-        if (registry.getOrDefault(MSDataSyncKeys.SERIALIZE_WAIT_FOR_SNAPSHOT_ON_JOIN)) {
-            waitForSnapshot = CompletableFuture.runAsync(() -> {
-//                while (true){
-//                    if (!memberRepository.getNext().map(member -> {
-//                        System.out.println(member.userUUID);
-//                        return member.userUUID.equals(user.getUniqueId());
-//                    }).orElse(false))
-//                        break;
-//                }
-                try {
-                    Thread.sleep(7000);
-                } catch (InterruptedException e) {
+        Executor asyncExecutor = getAsyncExecutor(plugin);
+        return takePrefetched(user.getUniqueId()).thenApplyAsync(optionalSnapshot -> {
+            if (registry.getOrDefault(MSDataSyncKeys.SERIALIZE_WAIT_FOR_SNAPSHOT_ON_JOIN)) {
+                getHandoff().claim(user.getUniqueId()).exceptionally(e -> {
                     e.printStackTrace();
-                }
-            });
-        } else {
-            waitForSnapshot = CompletableFuture.completedFuture(null);
-        }
-        return waitForSnapshot.thenApplyAsync(v -> memberRepository.getLatestSnapshotForUser(user.getUniqueId()).thenApplyAsync(optionalSnapshot -> {
+                    return false;
+                }).join();
+            }
             if (!optionalSnapshot.isPresent()) {
                 System.err.println("[MSDataSync] Could not find snapshot for " + user.getName() + "! Check your DB configuration!");
                 return Optional.<TSnapshot>empty();
             }
-            return deserialize(user, plugin, optionalSnapshot.get()).join();
-        }).join()).thenApplyAsync(s -> {
+            // loaded snapshots are already materialized
+            return apply(user, plugin, optionalSnapshot.get()).join();
+        }, asyncExecutor).thenApplyAsync(s -> {
             snapshotOptimizationManager.getPrimaryComponent().removeLockedPlayer(user.getUniqueId());
             return s;
+        }, asyncExecutor);
+    }
+
+    @Override
+    public void prefetch(UUID userUUID) {
+        PrefetchedSnapshot<TSnapshot> prefetched = new PrefetchedSnapshot<>(loadLatestSnapshot(userUUID), System.nanoTime());
+        prefetchedSnapshots.put(userUUID, prefetched);
+        // users that never join are not disconnected either
+        Task.builder().async().delay(PREFETCH_TIMEOUT_NANOS, TimeUnit.NANOSECONDS)
+            .execute(() -> prefetchedSnapshots.remove(userUUID, prefetched))
+            .submit(MSDataSync.plugin);
+    }
+
+    @Override
+    public void discardPrefetched(UUID userUUID) {
+        prefetchedSnapshots.remove(userUUID);
+    }
+
+    private CompletableFuture<Optional<TSnapshot>> takePrefetched(UUID userUUID) {
+        PrefetchedSnapshot<TSnapshot> prefetched = prefetchedSnapshots.remove(userUUID);
+        if (prefetched != null && !prefetched.isExpired(System.nanoTime())) {
+            return prefetched.snapshot;
+        }
+        return loadLatestSnapshot(userUUID);
+    }
+
+    /**
+     * Loads and materializes the latest snapshot of a user, ready to be applied on the main thread
+     */
+    private CompletableFuture<Optional<TSnapshot>> loadLatestSnapshot(UUID userUUID) {
+        CompletableFuture<Boolean> waitForSnapshot;
+        if (registry.getOrDefault(MSDataSyncKeys.SERIALIZE_WAIT_FOR_SNAPSHOT_ON_JOIN)) {
+            // only as long as the server the user left is still writing their last snapshot
+            long timeoutMillis = TimeUnit.SECONDS.toMillis(registry.getOrDefault(MSDataSyncKeys.SERIALIZE_WAIT_FOR_SNAPSHOT_TIMEOUT_SECONDS));
+            waitForSnapshot = getHandoff().await(userUUID, timeoutMillis);
+        } else {
+            waitForSnapshot = CompletableFuture.completedFuture(true);
+        }
+        Executor asyncExecutor = getAsyncExecutor(MSDataSync.plugin);
+        return waitForSnapshot.thenComposeAsync(v -> memberRepository.getLatestSnapshotForUser(userUUID), asyncExecutor).thenComposeAsync(optionalSnapshot -> {
+            if (!optionalSnapshot.isPresent()) {
+                return CompletableFuture.completedFuture(Optional.<TSnapshot>empty());
+            }
+            return snapshotRepository.materialize(optionalSnapshot.get()).thenApply(Optional::of);
+        }, asyncExecutor).exceptionally(e -> {
+            e.printStackTrace();
+            return Optional.empty();
         });
     }
+
+    /**
+     * The stages that wait on other futures block, so they run on the plugin's async pool instead of the common pool
+     */
+    private static Executor getAsyncExecutor(Object plugin) {
+        return Sponge.getScheduler().createAsyncExecutor(plugin);
+    }
+
+    private static final class PrefetchedSnapshot<TSnapshot> {
+        private final CompletableFuture<Optional<TSnapshot>> snapshot;
+        private final long createdNanos;
+
+        private PrefetchedSnapshot(CompletableFuture<Optional<TSnapshot>> snapshot, long createdNanos) {
+            this.snapshot = snapshot;
+            this.createdNanos = createdNanos;
+        }
+
+        private boolean isExpired(long now) {
+            return now - createdNanos > PREFETCH_TIMEOUT_NANOS;
+        }
+    }
 }
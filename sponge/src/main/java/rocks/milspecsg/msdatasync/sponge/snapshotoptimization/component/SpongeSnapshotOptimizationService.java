@@ -37,7 +37,6 @@ import rocks.milspecsg.msrepository.api.plugin.PluginInfo;
 
 import javax.inject.Singleton;
 import java.util.Collection;
-import java.util.List;
 import java.util.Optional;
 import java.util.concurrent.CompletableFuture;
 
@@ -76,57 +75,58 @@ public class SpongeSnapshotOptimizationService<
 
     private CompletableFuture<Boolean> optimize(final User user, final CommandSource source, final String name, final Object plugin) {
         if (lockedPlayers.contains(user.getUniqueId())) return CompletableFuture.completedFuture(false);
-        return memberRepository.getSnapshotIdsForUser(user.getUniqueId()).thenApplyAsync(snapshotIds -> optimizeFull(snapshotIds, user.getUniqueId(), source, name, plugin).join());
+        return memberRepository.getSnapshotIdsForUser(user.getUniqueId()).thenApplyAsync(snapshotIds -> optimizeFull(snapshotIds, user.getUniqueId(), source, name, plugin, new MemberCounters()).join());
     }
 
     @Override
     public boolean optimize(final Collection<? extends User> users, final CommandSource source, final String name, final Object plugin) {
-        if (isOptimizationTaskRunning()) {
+        if (!optimizationTaskRunning.compareAndSet(false, true)) {
             return false;
         }
-        CompletableFuture.runAsync(() -> {
-            for (User user : users) {
-                optimize(user, source, name, plugin).join();
-                incrementCompleted();
-
-                if (requestCancelOptimizationTask) {
-                    break;
-                }
+        setTotalMembers(users.size());
+        CompletableFuture.runAsync(() -> forEachBounded(users.iterator(), user -> {
+            optimize(user, source, name, plugin).join();
+            incrementCompleted();
+        })).whenCompleteAsync((v, e) -> {
+            if (e != null) {
+                e.printStackTrace();
             }
-        }).thenAcceptAsync(v -> {
             printOptimizationFinished(source, getSnapshotsDeleted(), getSnapshotsUploaded(), getMembersCompleted());
-            resetCounters();
-            stopOptimizationTask();
+            finishOptimizationTask();
         });
         return true;
     }
 
     @Override
     public boolean optimize(final CommandSource source, final Object plugin) {
-        if (optimizationTaskRunning) {
+        if (!optimizationTaskRunning.compareAndSet(false, true)) {
             return false;
         }
-        optimizationTaskRunning = true;
         CompletableFuture.runAsync(() -> {
-            List<TKey> memberIds = memberRepository.getAllIds().join();
-            setTotalMembers(memberIds.size());
-            for (TKey memberId : memberIds) {
-                Optional<TMember> optionalMember = memberRepository.getOne(memberId).join();
-                if (!optionalMember.isPresent()) continue;
-                TMember member = optionalMember.get();
-                if (!lockedPlayers.contains(member.getUserUUID())) {
-                    optimizeFull(member.getSnapshotIds(), member.getUserUUID(), source, "Manual", plugin).join();
-                }
-                incrementCompleted();
-
-                if (requestCancelOptimizationTask) {
-                    break;
+            Optional<TKey> resumeAfter = resumeFromCheckpoint();
+            if (resumeAfter.isPresent()) {
+                source.sendMessage(Text.of(pluginInfo.getPrefix(), TextColors.YELLOW, "Resuming optimization task after ", getMembersCompleted(), " users"));
+            }
+            setTotalMembers(memberRepository.countMembers().join().intValue());
+            // members are streamed with their snapshot ids, neither the full id list nor a lookup per member is needed
+            forEachBounded(trackCheckpoint(memberRepository.iterateMembers(resumeAfter, MEMBER_BATCH_SIZE)), member -> {
+                MemberCounters counters = new MemberCounters();
+                try {
+                    if (!lockedPlayers.contains(member.getUserUUID())) {
+                        optimizeFull(member.getSnapshotIds(), member.getUserUUID(), source, "Manual", plugin, counters).join();
+                    }
+                } finally {
+                    incrementCompleted();
+                    completeCheckpoint(member.getId(), counters);
                 }
+            });
+        }).whenCompleteAsync((v, e) -> {
+            if (e != null) {
+                e.printStackTrace();
             }
-        }).thenAcceptAsync(v -> {
+            finishCheckpoint(e == null && !requestCancelOptimizationTask);
             printOptimizationFinished(source, getSnapshotsDeleted(), getSnapshotsUploaded(), getMembersCompleted());
-            resetCounters();
-            stopOptimizationTask();
+            finishOptimizationTask();
         });
         return true;
     }
@@ -0,0 +1,105 @@
+/*
+ *     MSDataSync - MilSpecSG
+ *     Copyright (C) 2019 Cableguy20
+ *
+ *     This program is free software: you can redistribute it and/or modify
+ *     it under the terms of the GNU General Public License as published by
+ *     the Free Software Foundation, either version 3 of the License, or
+ *     (at your option) any later version.
+ *
+ *     This program is distributed in the hope that it will be useful,
+ *     but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *     MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ *     GNU General Public License for more details.
+ *
+ *     You should have received a copy of the GNU General Public License
+ *     along with this program.  If not, see <https://www.gnu.org/licenses/>.
+ */
+
+package rocks.milspecsg.msdatasync.sponge.serializer;
+
+import org.junit.jupiter.api.Test;
+import org.spongepowered.api.data.DataContainer;
+import org.spongepowered.api.data.DataQuery;
+import org.spongepowered.api.data.DataView;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+public class DataViewBinaryCodecTests {
+
+    @Test
+    void roundTripKeepsNumericTypes() throws Exception {
+        DataContainer container = DataContainer.createNew()
+            .set(DataQuery.of("Byte"), (byte) -3)
+            .set(DataQuery.of("Short"), (short) 300)
+            .set(DataQuery.of("Int"), Integer.MIN_VALUE)
+            .set(DataQuery.of("Long"), Long.MAX_VALUE)
+            .set(DataQuery.of("Float"), 1.5f)
+            .set(DataQuery.of("Double"), -0.25)
+            .set(DataQuery.of("Boolean"), true)
+            .set(DataQuery.of("String"), "minecraft:diamond_sword");
+
+        DataContainer decoded = DataViewBinaryCodec.decode(DataViewBinaryCodec.encode(container));
+
+        assertEquals(container, decoded);
+        assertEquals(Byte.class, decoded.get(DataQuery.of("Byte")).get().getClass());
+        assertEquals(Short.class, decoded.get(DataQuery.of("Short")).get().getClass());
+        assertEquals(Float.class, decoded.get(DataQuery.of("Float")).get().getClass());
+    }
+
+    @Test
+    void roundTripKeepsNestedViewsListsAndMaps() throws Exception {
+        Map<String, Object> display = new HashMap<>();
+        display.put("Name", "Excalibur");
+        display.put("Lore", Arrays.asList("first line", "second line"));
+        List<DataView> enchantments = new ArrayList<>();
+        for (short i = 0; i < 3; i++) {
+            enchantments.add(DataContainer.createNew().set(DataQuery.of("id"), i).set(DataQuery.of("lvl"), (short) (i + 1)));
+        }
+        DataContainer container = DataContainer.createNew();
+        container.set(DataQuery.of("UnsafeData", "display"), display);
+        container.set(DataQuery.of("UnsafeData", "ench"), enchantments);
+        container.set(DataQuery.of("UnsafeData", "Levels"), Arrays.asList(Arrays.asList(1, 2), Arrays.asList(3L, 4.0)));
+        container.set(DataQuery.of("Count"), 64);
+
+        DataContainer decoded = DataViewBinaryCodec.decode(DataViewBinaryCodec.encode(container));
+
+        assertEquals(container, decoded);
+        assertEquals(enchantments, decoded.getViewList(DataQuery.of("UnsafeData", "ench")).get());
+    }
+
+    @Test
+    void roundTripKeepsArrays() throws Exception {
+        DataContainer container = DataContainer.createNew()
+            .set(DataQuery.of("Bytes"), new byte[]{1, -2, 3})
+            .set(DataQuery.of("Ints"), new int[]{-1, 0, Integer.MAX_VALUE})
+            .set(DataQuery.of("Longs"), new long[]{Long.MIN_VALUE, 7});
+
+        DataContainer decoded = DataViewBinaryCodec.decode(DataViewBinaryCodec.encode(container));
+
+        assertArrayEquals(new byte[]{1, -2, 3}, (byte[]) decoded.get(DataQuery.of("Bytes")).get());
+        assertArrayEquals(new int[]{-1, 0, Integer.MAX_VALUE}, (int[]) decoded.get(DataQuery.of("Ints")).get());
+        assertArrayEquals(new long[]{Long.MIN_VALUE, 7}, (long[]) decoded.get(DataQuery.of("Longs")).get());
+    }
+
+    @Test
+    void repeatedKeysAreStoredOnce() throws Exception {
+        List<DataView> enchantments = new ArrayList<>();
+        for (short i = 0; i < 10; i++) {
+            enchantments.add(DataContainer.createNew().set(DataQuery.of("id"), i).set(DataQuery.of("lvl"), (short) 1));
+        }
+        DataContainer container = DataContainer.createNew().set(DataQuery.of("ench"), enchantments);
+
+        String payload = new String(DataViewBinaryCodec.encode(container), StandardCharsets.ISO_8859_1);
+
+        assertEquals(payload.indexOf("lvl"), payload.lastIndexOf("lvl"));
+    }
+}